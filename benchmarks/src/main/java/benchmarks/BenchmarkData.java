@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import orbits.PassSearch;
+import orbits.PassTrajectory;
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatNotFoundException;
+import uk.me.g4dpz.satellite.SatPassTime;
+import uk.me.g4dpz.satellite.TLE;
+import util.SatelliteUtils;
+
+/**
+ * Fixed inputs shared by the benchmarks, so every run measures exactly the same work: a fixed TLE, ground station and start time for pass
+ * prediction, and seeded traffic for the serial protocols.
+ *
+ * @author Adam Campbell
+ */
+public class BenchmarkData {
+	/**
+	 * An ISS element set, so pass prediction doesn't depend on the network or the date
+	 */
+	public static final String[] ISS_TLE = { "ISS (ZARYA)",
+			"1 25544U 98067A   14100.51736111  .00016717  00000-0  10270-3 0  9003",
+			"2 25544  51.6465 202.4003 0002539  46.0569  88.0233 15.50346986880767" };
+
+	/**
+	 * The time to predict passes from: 2014-04-10 12:00:00 UTC, shortly after the TLE epoch
+	 */
+	public static final long START_TIME = 1397131200000L;
+
+	/**
+	 * The seed for all generated traffic
+	 */
+	public static final long SEED = 2809L;
+
+	private BenchmarkData() {
+
+	}
+
+	public static TLE getTLE() {
+		return new TLE(ISS_TLE);
+	}
+
+	public static GroundStationPosition getGroundStation() {
+		return new GroundStationPosition(SatelliteUtils.AMES_LATITUDE, SatelliteUtils.AMES_LONGITUDE, SatelliteUtils.AMES_ELEVATION_METERS);
+	}
+
+	/**
+	 * @return The trajectory of the first pass over 10 degrees after START_TIME
+	 */
+	public static PassTrajectory getPassTrajectory() throws SatNotFoundException {
+		PassSearch search = new PassSearch(getTLE(), getGroundStation());
+		SatPassTime spt = search.nextPass(new Date(START_TIME), SatelliteUtils.MIN_ELEV);
+		return search.samplePass(spt, PassSearch.DEFAULT_MAX_SAMPLE_STEP, PassSearch.DEFAULT_SAMPLE_TOLERANCE);
+	}
+
+	/**
+	 * Generate the kind of traffic the serial ports carry: rotator positions, radio frequencies and OS board responses, with mixed line
+	 * endings
+	 *
+	 * @param nLines
+	 *            The number of lines
+	 * @return The traffic
+	 */
+	public static byte[] getSerialTraffic(int nLines) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < nLines; i++) {
+			switch (i % 3) {
+			case 0:
+				sb.append(String.format(Locale.US, "+0%03d+0%03d\r\n", random.nextInt(450), random.nextInt(180)));
+				break;
+			case 1:
+				sb.append(String.format(Locale.US, "FA%011d;", 145000000 + random.nextInt(10000)));
+				break;
+			default:
+				sb.append(String.format(Locale.US, "!RESPONSE,%s,%.2f,%.2f,%.2f,0,A%d$", "XYZ".charAt(random.nextInt(3)), random.nextDouble() * 5,
+						random.nextDouble(), random.nextDouble(), random.nextInt(10)));
+				break;
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Generate the lines text mode clients send the server: the serial port number, then a command with escaped line endings
+	 *
+	 * @param nLines
+	 *            The number of lines
+	 * @return The lines, each ended by a newline
+	 */
+	public static byte[] getClientTraffic(int nLines) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < nLines; i++) {
+			if (i % 2 == 0) {
+				sb.append(String.format(Locale.US, "0W%03d %03d\\r\\n\n", random.nextInt(360), random.nextInt(90)));
+			} else {
+				sb.append(String.format(Locale.US, "1FA%011d;\n", 145000000 + random.nextInt(10000)));
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
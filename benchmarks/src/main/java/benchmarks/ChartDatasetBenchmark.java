@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.data.time.TimeSeriesCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gui.NextPassesView;
+import orbits.PassTrajectory;
+import uk.me.g4dpz.satellite.SatNotFoundException;
+
+/**
+ * Building the elevation chart dataset for a pass, as the next passes view does for every pass it shows
+ *
+ * @author Adam Campbell
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChartDatasetBenchmark {
+	private PassTrajectory trajectory;
+
+	@Setup
+	public void setup() throws SatNotFoundException {
+		trajectory = BenchmarkData.getPassTrajectory();
+	}
+
+	@Benchmark
+	public TimeSeriesCollection elevationDataset() {
+		return NextPassesView.createElevationDataset(trajectory);
+	}
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import serial.server.SerialServer;
+
+/**
+ * Reading and parsing the lines text mode clients send the server, as ClientDataReader and SerialServer.handleClientData do: reading the
+ * line, taking the serial port number off the front and unescaping the line endings in the command
+ *
+ * @author Adam Campbell
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientLineBenchmark {
+	private byte[] traffic;
+	private List<String> lines;
+
+	@Setup
+	public void setup() throws IOException {
+		traffic = BenchmarkData.getClientTraffic(1000);
+		lines = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(traffic)));
+		String line;
+		while ((line = br.readLine()) != null) {
+			lines.add(line);
+		}
+	}
+
+	/**
+	 * Read the lines and split off the serial port numbers
+	 */
+	@Benchmark
+	public void readLines(Blackhole blackhole) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(traffic)));
+		String line;
+		while ((line = br.readLine()) != null) {
+			blackhole.consume(line.charAt(0) - '0');
+			blackhole.consume(line.substring(1));
+		}
+	}
+
+	/**
+	 * Unescape the commands
+	 */
+	@Benchmark
+	public void unescape(Blackhole blackhole) {
+		for (String line : lines) {
+			blackhole.consume(SerialServer.unescapeCommand(line.substring(1)));
+		}
+	}
+}
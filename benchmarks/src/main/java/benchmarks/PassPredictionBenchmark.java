@@ -0,0 +1,113 @@
+package benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import orbits.CelestrakSatellite;
+import orbits.CommandSet;
+import orbits.PassCache;
+import orbits.PassSearch;
+import orbits.PassTrajectory;
+import orbits.RotatorSetpoints;
+import orbits.SatellitePass;
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatNotFoundException;
+import uk.me.g4dpz.satellite.SatPassTime;
+import uk.me.g4dpz.satellite.TLE;
+import util.SatelliteUtils;
+
+/**
+ * Predicting the next passes, as SatelliteUtils.getNextSatellitePasses does, and turning a pass into rotator commands, both as strings and
+ * as compiled setpoints. The satellite is looked up from a fixed TLE rather than the catalog, so nothing depends on the network or the
+ * date.
+ *
+ * @author Adam Campbell
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PassPredictionBenchmark {
+	/**
+	 * The number of passes to predict
+	 */
+	public static final int N_PASSES = 5;
+
+	/**
+	 * The time step of the rotator commands, in seconds
+	 */
+	public static final int TIME_STEP = 1;
+
+	private TLE tle;
+	private GroundStationPosition groundStation;
+	private CelestrakSatellite satellite;
+	private PassCache passCache;
+	private PassTrajectory trajectory;
+
+	@Setup
+	public void setup() throws SatNotFoundException {
+		tle = BenchmarkData.getTLE();
+		groundStation = BenchmarkData.getGroundStation();
+		satellite = new CelestrakSatellite(tle.getName(), null);
+		passCache = new PassCache(PassCache.DEFAULT_CAPACITY);
+		trajectory = BenchmarkData.getPassTrajectory();
+	}
+
+	/**
+	 * Search for and sample the next passes from scratch
+	 */
+	@Benchmark
+	public void nextPasses(Blackhole blackhole) throws SatNotFoundException {
+		PassSearch search = new PassSearch(tle, groundStation);
+		Date date = new Date(BenchmarkData.START_TIME);
+		for (int i = 0; i < N_PASSES; i++) {
+			SatPassTime spt = search.nextPass(date, SatelliteUtils.MIN_ELEV);
+			blackhole.consume(search.samplePass(spt, PassSearch.DEFAULT_MAX_SAMPLE_STEP, PassSearch.DEFAULT_SAMPLE_TOLERANCE));
+			date = new Date(spt.getEndTime().getTime() + 1000L);
+		}
+	}
+
+	/**
+	 * Look the next passes up in a warm pass cache, as repeated requests from the GUI do
+	 */
+	@Benchmark
+	public void nextPassesCached(Blackhole blackhole) throws SatNotFoundException {
+		Date date = new Date(BenchmarkData.START_TIME);
+		for (int i = 0; i < N_PASSES; i++) {
+			SatellitePass pass = passCache.getNextPass(satellite, tle, groundStation, date, SatelliteUtils.MIN_ELEV, TIME_STEP);
+			blackhole.consume(pass);
+			date = new Date(pass.getSatPassTime().getEndTime().getTime() + 1000L);
+		}
+	}
+
+	/**
+	 * Build the rotator commands for a pass as strings
+	 */
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public CommandSet rotatorCommandSet() {
+		return SatelliteUtils.getRotatorCommandSet(trajectory, trajectory.getStartTime(), TIME_STEP);
+	}
+
+	/**
+	 * Compile the rotator setpoints for a pass
+	 */
+	@Benchmark
+	public RotatorSetpoints rotatorSetpoints() {
+		return SatelliteUtils.getRotatorSetpoints(trajectory, trajectory.getStartTime(), TIME_STEP);
+	}
+}
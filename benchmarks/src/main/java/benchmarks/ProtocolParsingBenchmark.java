@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import api.OSBoard;
+import api.TS2000Radio;
+
+/**
+ * Parsing single responses from the devices: an OS board power panel reading, and a TS-2000 frequency
+ *
+ * @author Adam Campbell
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolParsingBenchmark {
+	public String powPanelResponse = "!RESPONSE,X,4.98,0.12,0.34,0,A0$";
+	public String frequencyResponse = "FA00145012345;";
+
+	private final OSBoard osBoard = new OSBoard(null);
+
+	@Benchmark
+	public OSBoard.PowPanelInfo powPanelInfo() {
+		return osBoard.parsePowPanelInfo(powPanelResponse);
+	}
+
+	@Benchmark
+	public int radioFrequency() {
+		return TS2000Radio.parseIntResponse(frequencyResponse, "FA([0-9]{11});");
+	}
+}
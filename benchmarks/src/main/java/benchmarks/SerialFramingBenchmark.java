@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import serial.server.SerialFramer;
+
+/**
+ * Splitting serial traffic into lines on the delimiters, as SerialDataReader does for every serial port, fed in reads of different sizes
+ *
+ * @author Adam Campbell
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialFramingBenchmark {
+	/**
+	 * The number of bytes each read hands the framer
+	 */
+	@Param({ "16", "256", "4096" })
+	public int readSize;
+
+	private byte[] traffic;
+	private Blackhole blackhole;
+	private SerialFramer framer;
+	private SerialFramer decodingFramer;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		this.blackhole = blackhole;
+		traffic = BenchmarkData.getSerialTraffic(1000);
+		framer = new SerialFramer("\r\n;$", new SerialFramer.FrameListener() {
+			@Override
+			public void frameReceived(byte[] buffer, int offset, int length) {
+				SerialFramingBenchmark.this.blackhole.consume(length);
+			}
+		});
+		decodingFramer = new SerialFramer("\r\n;$", new SerialFramer.FrameListener() {
+			@Override
+			public void frameReceived(byte[] buffer, int offset, int length) {
+				SerialFramingBenchmark.this.blackhole.consume(SerialFramer.toString(buffer, offset, length));
+			}
+		});
+	}
+
+	/**
+	 * Frame the traffic without decoding the lines
+	 */
+	@Benchmark
+	public void frame() throws IOException {
+		feed(framer);
+	}
+
+	/**
+	 * Frame the traffic and decode each line to a String, as the serial readers hand it on
+	 */
+	@Benchmark
+	public void frameAndDecode() throws IOException {
+		feed(decodingFramer);
+	}
+
+	private void feed(SerialFramer framer) throws IOException {
+		for (int offset = 0; offset < traffic.length; offset += readSize) {
+			framer.feed(traffic, offset, Math.min(readSize, traffic.length - offset));
+		}
+		framer.flush();
+	}
+}
@@ -1,18 +1,183 @@
 package api;
 
 import java.io.IOException;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import orbits.RotatorSetpoints;
 import serial.client.SerialTCPClient;
 import serial.client.SerialBufferedDataListener;
 
 /**
- * An API for the Antenna Rotator. We are using the Yaesu GS-232A
+ * An API for the Antenna Rotator. We are using the Yaesu GS-232A<br/>
+ * <br/>
+ * The rotator's position can be polled once with pollServer(), or streamed: startStreaming() polls it in the background at a fixed rate,
+ * and every position it reports is published as a timestamped snapshot that getPosition() reads without a round trip to the rotator.
+ * waitForPosition() and whenWithin() wait for the antenna to get within a tolerance of a position.
  * 
  * @author Adam Campbell
  */
 public class AntennaRotator {
+	/**
+	 * A position reported by the rotator, and when it was reported. Never changes once made.
+	 */
+	public static class Position {
+		private final int azimuth;
+		private final int elevation;
+		private final long time;
+
+		public Position(int azimuth, int elevation, long time) {
+			this.azimuth = azimuth;
+			this.elevation = elevation;
+			this.time = time;
+		}
+
+		/**
+		 * @return The azimuth, in degrees in the rotator's frame
+		 */
+		public int getAzimuth() {
+			return azimuth;
+		}
+
+		/**
+		 * @return The elevation, in degrees
+		 */
+		public int getElevation() {
+			return elevation;
+		}
+
+		/**
+		 * @return When the rotator was at this position, in ms since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return Whether the azimuth and elevation are both within the tolerance of the given position
+		 */
+		public boolean isWithin(int azimuth, int elevation, int tolerance) {
+			return Math.abs(this.azimuth - azimuth) <= tolerance && Math.abs(this.elevation - elevation) <= tolerance;
+		}
+
+		@Override
+		public String toString() {
+			return "Az: " + azimuth + ", El: " + elevation + " @ " + time;
+		}
+	}
+
+	/**
+	 * Waits for the antenna to get within a tolerance of a position, or just for the next position. Checked against every position
+	 * published until it's done.
+	 */
+	private class PositionWaiter implements Future<Position> {
+		private final int azimuth;
+		private final int elevation;
+		private final int tolerance;
+		private final boolean any;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Position position;
+		private boolean cancelled = false;
+
+		public PositionWaiter(int azimuth, int elevation, int tolerance) {
+			this.azimuth = azimuth;
+			this.elevation = elevation;
+			this.tolerance = tolerance;
+			this.any = false;
+		}
+
+		/**
+		 * Wait for the next position published, wherever it is
+		 */
+		public PositionWaiter() {
+			this.azimuth = 0;
+			this.elevation = 0;
+			this.tolerance = 0;
+			this.any = true;
+		}
+
+		/**
+		 * Finish if the position is close enough
+		 * 
+		 * @return True if this waiter is done
+		 */
+		public boolean check(Position position) {
+			if (position != null && (any || position.isWithin(azimuth, elevation, tolerance))) {
+				finish(position, false);
+			}
+			return isDone();
+		}
+
+		private void finish(Position position, boolean cancelled) {
+			synchronized (this) {
+				if (isDone()) {
+					return;
+				}
+				this.position = position;
+				this.cancelled = cancelled;
+				done.countDown();
+			}
+			waiters.remove(this);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			finish(null, true);
+			return isCancelled();
+		}
+
+		@Override
+		public synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Position get() throws InterruptedException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Position get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException(any ? "Rotator didn't report its position" : "Rotator didn't reach " + azimuth + ", " + elevation);
+			}
+			return result();
+		}
+
+		private synchronized Position result() {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			return position;
+		}
+	}
+
+	/**
+	 * The command that asks the rotator for its azimuth and elevation
+	 */
+	private static final String POSITION_QUERY = "C2\\r\n";
+
+	/**
+	 * The default time between position polls when streaming, in ms
+	 */
+	public static final long DEFAULT_STREAM_INTERVAL = 500L;
+
 	/**
 	 * The SerialClient used to talk to the rotator via the serial port
 	 */
@@ -24,14 +189,37 @@ public class AntennaRotator {
 	public static final int TIMEOUT_TIME = 5000;
 
 	/**
-	 * The azimuth of the antenna, in degress
+	 * The last position the rotator reported, or null if it hasn't reported one yet
+	 */
+	private volatile Position position;
+
+	/**
+	 * When the last position query was sent, in ms since the epoch, for timestamping the answer
+	 */
+	private volatile long querySentAt;
+
+	/**
+	 * Everything waiting for the antenna to reach a position
+	 */
+	private final List<PositionWaiter> waiters = new CopyOnWriteArrayList<PositionWaiter>();
+
+	/**
+	 * Publishes every position the rotator reports, whoever asked for it
 	 */
-	private int azimuth = -1;
+	private final SerialBufferedDataListener positionListener = new SerialBufferedDataListener() {
+		@Override
+		public void serialBufferedDataReceived(String serialData) {
+			int parsed = parsePosition(serialData);
+			if (parsed >= 0) {
+				publish(parsed >> 16, parsed & 0xFFFF);
+			}
+		}
+	};
 
 	/**
-	 * The elevation of the antenna, in degrees
+	 * Polls the rotator's position while streaming
 	 */
-	private int elevation = -1;
+	private ScheduledExecutorService streamExecutor;
 
 	/**
 	 * Construct a new antenna rotator to talk to the given client
@@ -41,6 +229,7 @@ public class AntennaRotator {
 	 */
 	public AntennaRotator(SerialTCPClient client) {
 		this.client = client;
+		client.addListener(positionListener);
 	}
 
 	/**
@@ -68,6 +257,25 @@ public class AntennaRotator {
 		client.write(cmd);
 	}
 
+	/**
+	 * Rotate the antenna to one of a pass's setpoints. Over a binary framing connection the setpoint's pre-encoded GS-232A command is
+	 * written as it is; otherwise it's sent like rotateTo().
+	 * 
+	 * @param setpoints
+	 *            The pass's setpoints
+	 * @param i
+	 *            The index of the setpoint
+	 * @throws IOException
+	 *             In the event of a read/write error
+	 */
+	public void rotateTo(RotatorSetpoints setpoints, int i) throws IOException {
+		if (client.isBinary()) {
+			client.writeBytes(setpoints.getFrame(i));
+		} else {
+			rotateTo(setpoints.getAzimuth(i), setpoints.getElevation(i));
+		}
+	}
+
 	/**
 	 * Rotate the antenna to a given azimuth. Valid ranges are:
 	 * <ul>
@@ -84,99 +292,236 @@ public class AntennaRotator {
 			throw new IllegalArgumentException("Invalid Azimuth value!");
 		}
 
-		String cmd = String.format("W%03d\\r\n", azimuth, elevation);
+		String cmd = String.format("W%03d\\r\n", azimuth);
 		client.write(cmd);
 	}
 
 	/**
 	 * Gets the current azimuth value for the antenna rotator. This method <i>does not poll the server</i> for an up to date azimuth value,
-	 * but merely returns the value that was stored during the last server poll. Because of this, you must call pollServer() if you wish to
-	 * get an up to date azimuth value.
+	 * but merely returns the last value the rotator reported. Call pollServer() or startStreaming() to keep it up to date.
 	 * 
-	 * @return The azimuth value recorded during the last call to pollServer()
+	 * @return The azimuth value last reported
 	 */
 	public int getCurrentAzimuth() {
-		if (azimuth < 0) {
+		Position position = this.position;
+		if (position == null) {
 			throw new IllegalStateException("You must poll the server before getting the azimuth!");
 		}
 
-		return azimuth;
+		return position.getAzimuth();
 	}
 
 	/**
 	 * Gets the current elevation value for the antenna rotator. This method <i>does not poll the server</i> for an up to date elevation
-	 * value, but merely returns the value that was stored during the last server poll. Because of this, you must call pollServer() if you
-	 * wish to get an up to date elevation value.
+	 * value, but merely returns the last value the rotator reported. Call pollServer() or startStreaming() to keep it up to date.
 	 * 
-	 * @return The elevation value recorded during the last call to pollServer()
+	 * @return The elevation value last reported
 	 */
 	public int getCurrentElevation() {
-		if (elevation < 0) {
+		Position position = this.position;
+		if (position == null) {
 			throw new IllegalStateException("You must poll the server before getting the elevation!");
 		}
 
-		return elevation;
+		return position.getElevation();
 	}
 
 	/**
-	 * Poll the server to update the azimuth and elevation values. This will send a "C2" command to the antenna rotator, and the response
-	 * will be parsed to obtain the azimuth and elevation values.
+	 * Get the last position the rotator reported, without polling it. The azimuth, elevation and time always go together.
 	 * 
+	 * @return The position, or null if the rotator hasn't reported one yet
+	 */
+	public Position getPosition() {
+		return position;
+	}
+
+	/**
+	 * Poll the server to update the azimuth and elevation values. This will send a "C2" command to the antenna rotator and wait for the
+	 * answer to be published.
+	 * 
+	 * @return The position published, or null if the rotator didn't answer in time
 	 * @throws IOException
 	 *             In the event of a read/write error
 	 */
-	public void pollServer() throws IOException {
-		final StringBuffer data = new StringBuffer();
-		SerialBufferedDataListener serialListener = new SerialBufferedDataListener() {
+	public Position pollServer() throws IOException {
+		// Start waiting before writing, so a quick answer can't be missed. The listener publishes it, so it's only published once.
+		PositionWaiter waiter = new PositionWaiter();
+		waiters.add(waiter);
+		try {
+			querySentAt = System.currentTimeMillis();
+			client.write(POSITION_QUERY);
+			return waiter.get(TIMEOUT_TIME, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			waiter.cancel(false);
+		}
+	}
+
+	/**
+	 * Start polling the rotator's position in the background, publishing every answer as it comes in
+	 * 
+	 * @param intervalMillis
+	 *            The time between polls, in ms
+	 */
+	public synchronized void startStreaming(long intervalMillis) {
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Invalid interval: " + intervalMillis);
+		} else if (streamExecutor != null) {
+			throw new IllegalStateException("Already streaming!");
+		}
+
+		streamExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Rotator position polling");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		streamExecutor.scheduleAtFixedRate(new Runnable() {
 			@Override
-			public void serialBufferedDataReceived(String serialData) {
-				data.append(serialData);
+			public void run() {
+				try {
+					querySentAt = System.currentTimeMillis();
+					client.write(POSITION_QUERY);
+				} catch (IOException e) {
+					System.err.println("Unable to poll rotator: " + e.getMessage());
+				}
 			}
-		};
-		client.addListener(serialListener);
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
 
-		// Send the C2 command
-		String cmd = String.format("C2\\r\n", azimuth, elevation);
-		client.write(cmd);
+	/**
+	 * Start polling the rotator's position in the background at the default rate
+	 */
+	public void startStreaming() {
+		startStreaming(DEFAULT_STREAM_INTERVAL);
+	}
 
-		long startTime = System.currentTimeMillis();
-		// Get the response and parse it
-		while (data.toString().isEmpty() && System.currentTimeMillis() - startTime < TIMEOUT_TIME) {
-			// Wait a little bit
-			try {
-				Thread.sleep(50);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+	/**
+	 * Stop polling the rotator's position in the background
+	 */
+	public synchronized void stopStreaming() {
+		if (streamExecutor != null) {
+			streamExecutor.shutdownNow();
+			streamExecutor = null;
 		}
+	}
 
-		client.removeListener(serialListener);
+	public synchronized boolean isStreaming() {
+		return streamExecutor != null;
+	}
 
-		if (!data.toString().isEmpty()) {
-			Scanner dataScanner = new Scanner(data.toString());
+	/**
+	 * Get a Future that completes with the first position the rotator reports within a tolerance of the given one. It's checked against
+	 * each new position, so something must be polling: startStreaming(), or calls to pollServer().
+	 * 
+	 * @param azimuth
+	 *            The azimuth, in degrees in the rotator's frame
+	 * @param elevation
+	 *            The elevation, in degrees
+	 * @param tolerance
+	 *            How close the azimuth and elevation must both be, in degrees
+	 * @return The position, once it's close enough
+	 */
+	public Future<Position> whenWithin(int azimuth, int elevation, int tolerance) {
+		if (tolerance < 0) {
+			throw new IllegalArgumentException("Invalid tolerance: " + tolerance);
+		}
 
-			// The data comes in as "+AAA+EEE"
-			Pattern dataPattern = Pattern.compile("\\+([0-9]{4})\\+([0-9]{4})");
-			if (dataScanner.hasNext(dataPattern)) {
-				try {
-					azimuth = Integer.parseInt(dataScanner.match().group(1));
-					elevation = Integer.parseInt(dataScanner.match().group(2));
-				} catch (Exception e) {
-					// If we did something wrong with the pattern
-					azimuth = -1;
-					elevation = -1;
+		PositionWaiter waiter = new PositionWaiter(azimuth, elevation, tolerance);
+		waiters.add(waiter);
+		// In case the antenna's there already
+		waiter.check(position);
+		return waiter;
+	}
+
+	/**
+	 * Block until the rotator reports a position within a tolerance of the given one. Something must be polling: startStreaming(), or
+	 * calls to pollServer() from another thread.
+	 * 
+	 * @param azimuth
+	 *            The azimuth, in degrees in the rotator's frame
+	 * @param elevation
+	 *            The elevation, in degrees
+	 * @param tolerance
+	 *            How close the azimuth and elevation must both be, in degrees
+	 * @param timeout
+	 *            How long to wait
+	 * @param unit
+	 *            The unit of the timeout
+	 * @return The position, once it's close enough
+	 * @throws TimeoutException
+	 *             If the antenna doesn't get there in time
+	 * @throws InterruptedException
+	 */
+	public Position waitForPosition(int azimuth, int elevation, int tolerance, long timeout, TimeUnit unit) throws TimeoutException,
+			InterruptedException {
+		Future<Position> waiter = whenWithin(azimuth, elevation, tolerance);
+		try {
+			return waiter.get(timeout, unit);
+		} catch (ExecutionException e) {
+			// Waiters never fail
+			throw new IllegalStateException(e);
+		} finally {
+			waiter.cancel(false);
+		}
+	}
+
+	/**
+	 * Publish a position the rotator reported, and wake up anything waiting for it
+	 */
+	private void publish(int azimuth, int elevation) {
+		// The rotator read its position somewhere between the query going out and the answer coming back
+		long now = System.currentTimeMillis();
+		long sentAt = querySentAt;
+		long time = now - sentAt < TIMEOUT_TIME ? (sentAt + now) / 2 : now;
+
+		Position position = new Position(azimuth, elevation, time);
+		this.position = position;
+		for (PositionWaiter waiter : waiters) {
+			waiter.check(position);
+		}
+	}
+
+	/**
+	 * Parse the rotator's answer to a position query, which comes in as "+0aaa+0eee", without allocating anything
+	 * 
+	 * @param data
+	 *            The data from the rotator
+	 * @return The azimuth in the top 16 bits and the elevation in the bottom 16, or -1 if the data isn't a position
+	 */
+	public static int parsePosition(CharSequence data) {
+		int length = data.length();
+		for (int i = 0; i + 10 <= length; i++) {
+			if (data.charAt(i) == '+' && data.charAt(i + 5) == '+') {
+				int azimuth = parseDigits(data, i + 1);
+				int elevation = parseDigits(data, i + 6);
+				if (azimuth >= 0 && elevation >= 0) {
+					return (azimuth << 16) | elevation;
 				}
-			} else {
-				// If the response is malformed
-				azimuth = -1;
-				elevation = -1;
 			}
-			dataScanner.close();
-		} else {
-			// If the read request timed out
-			azimuth = -1;
-			elevation = -1;
 		}
+		return -1;
+	}
+
+	/**
+	 * @return The value of the 4 digits starting at the given index, or -1 if they aren't all digits
+	 */
+	private static int parseDigits(CharSequence data, int start) {
+		int value = 0;
+		for (int i = start; i < start + 4; i++) {
+			char c = data.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
 	}
 
 	public static void main(String[] args) {
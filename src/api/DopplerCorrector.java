@@ -0,0 +1,277 @@
+package api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import orbits.PassTrajectory;
+
+/**
+ * Keeps the TS-2000 tuned to a satellite during a pass by correcting the downlink (VFO A) and uplink (VFO B) frequencies for Doppler
+ * shift, using the range rate along the pass trajectory.<br/>
+ * <br/>
+ * The corrected frequencies are worked out at a fixed rate, but only written to the radio by a separate thread, which always sends the
+ * latest frequency for each VFO and drops any it didn't get to in time. A slow CAT link therefore falls behind by at most one update
+ * rather than building up a backlog. Frequencies that haven't moved by at least the minimum step aren't sent at all.
+ *
+ * @author Adam Campbell
+ */
+public class DopplerCorrector {
+	/**
+	 * The speed of light, in km/s
+	 */
+	public static final double SPEED_OF_LIGHT = 299792.458;
+
+	/**
+	 * The default time between corrections, in ms
+	 */
+	public static final long DEFAULT_UPDATE_INTERVAL = 1000L;
+
+	/**
+	 * The default smallest change in frequency worth sending, in Hz
+	 */
+	public static final int DEFAULT_MIN_STEP = 10;
+
+	/**
+	 * Marks a VFO with nothing waiting to be sent
+	 */
+	private static final int NONE = -1;
+
+	private final TS2000Radio radio;
+	private final PassTrajectory trajectory;
+	private final int downlinkFrequency;
+	private final int uplinkFrequency;
+
+	private long updateInterval = DEFAULT_UPDATE_INTERVAL;
+	private int minStep = DEFAULT_MIN_STEP;
+
+	/**
+	 * Added to the clock before looking up the trajectory, so a pass can be replayed at a different time
+	 */
+	private long timeShift = 0;
+
+	private ScheduledExecutorService scheduler;
+	private ExecutorService writer;
+
+	/**
+	 * The latest frequencies waiting to be sent to each VFO
+	 */
+	private final AtomicInteger pendingA = new AtomicInteger(NONE);
+	private final AtomicInteger pendingB = new AtomicInteger(NONE);
+
+	/**
+	 * Whether the writer has been asked to send the pending frequencies
+	 */
+	private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+	/**
+	 * The last frequencies sent to each VFO - only touched by the writer
+	 */
+	private int sentA = NONE;
+	private int sentB = NONE;
+
+	/**
+	 * The number of frequency commands sent and dropped
+	 */
+	private final AtomicInteger sentCount = new AtomicInteger();
+	private final AtomicInteger droppedCount = new AtomicInteger();
+
+	/**
+	 * Construct a new Doppler corrector
+	 *
+	 * @param radio
+	 *            The radio to tune
+	 * @param trajectory
+	 *            The pass to correct for
+	 * @param downlinkFrequency
+	 *            The satellite's transmit frequency, in Hz, or 0 to leave VFO A alone
+	 * @param uplinkFrequency
+	 *            The satellite's receive frequency, in Hz, or 0 to leave VFO B alone
+	 */
+	public DopplerCorrector(TS2000Radio radio, PassTrajectory trajectory, int downlinkFrequency, int uplinkFrequency) {
+		if (radio == null || trajectory == null || trajectory.isEmpty()) {
+			throw new IllegalArgumentException("Radio and trajectory cannot be null or empty!");
+		} else if (downlinkFrequency < 0 || uplinkFrequency < 0) {
+			throw new IllegalArgumentException("Invalid frequencies: " + downlinkFrequency + ", " + uplinkFrequency);
+		}
+
+		this.radio = radio;
+		this.trajectory = trajectory;
+		this.downlinkFrequency = downlinkFrequency;
+		this.uplinkFrequency = uplinkFrequency;
+	}
+
+	/**
+	 * Set how often the frequencies are corrected
+	 *
+	 * @param updateInterval
+	 *            The time between corrections, in ms
+	 * @param minStep
+	 *            The smallest change in frequency worth sending, in Hz
+	 */
+	public void setUpdateRate(long updateInterval, int minStep) {
+		if (updateInterval <= 0 || minStep < 0) {
+			throw new IllegalArgumentException("Invalid update rate: " + updateInterval + ", " + minStep);
+		}
+
+		this.updateInterval = updateInterval;
+		this.minStep = minStep;
+	}
+
+	/**
+	 * Correct for the pass as if it started at the given time rather than its real AOS, e.g. to try out the radio
+	 *
+	 * @param aosTime
+	 *            The time to treat as AOS, in ms since the epoch
+	 */
+	public void setStartTime(long aosTime) {
+		timeShift = trajectory.getStartTime() - aosTime;
+	}
+
+	/**
+	 * The frequency to listen on to hear a transmission, given the rate the transmitter is moving away
+	 *
+	 * @param frequency
+	 *            The transmitted frequency, in Hz
+	 * @param rangeRate
+	 *            The range rate, in km/s
+	 * @return The received frequency, in Hz
+	 */
+	public static int getDownlinkFrequency(int frequency, double rangeRate) {
+		return (int) Math.round(frequency * (SPEED_OF_LIGHT - rangeRate) / SPEED_OF_LIGHT);
+	}
+
+	/**
+	 * The frequency to transmit on for a receiver to hear it at the given frequency, given the rate the receiver is moving away
+	 *
+	 * @param frequency
+	 *            The frequency the receiver is tuned to, in Hz
+	 * @param rangeRate
+	 *            The range rate, in km/s
+	 * @return The frequency to transmit on, in Hz
+	 */
+	public static int getUplinkFrequency(int frequency, double rangeRate) {
+		return (int) Math.round(frequency * (SPEED_OF_LIGHT + rangeRate) / SPEED_OF_LIGHT);
+	}
+
+	/**
+	 * Start correcting. The radio is tuned for AOS straight away, then follows the pass until LOS.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			throw new IllegalStateException("Doppler correction has already been started!");
+		}
+
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Doppler correction");
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		writer = Executors.newSingleThreadExecutor(threadFactory);
+		scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				update();
+			}
+		}, 0, updateInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop correcting, leaving the radio where it is
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			writer.shutdown();
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return scheduler != null && !scheduler.isShutdown();
+	}
+
+	/**
+	 * @return The number of frequency commands sent to the radio
+	 */
+	public int getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * @return The number of corrected frequencies replaced by a newer one before they could be sent
+	 */
+	public int getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Work out the corrected frequencies and hand them to the writer
+	 */
+	private void update() {
+		long now = System.currentTimeMillis() + timeShift;
+		if (now > trajectory.getEndTime()) {
+			stop();
+			return;
+		}
+
+		double rangeRate = trajectory.getRangeRateAt(now);
+		if (downlinkFrequency > 0) {
+			offer(pendingA, getDownlinkFrequency(downlinkFrequency, rangeRate));
+		}
+		if (uplinkFrequency > 0) {
+			offer(pendingB, getUplinkFrequency(uplinkFrequency, rangeRate));
+		}
+
+		if (writeScheduled.compareAndSet(false, true)) {
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					write();
+				}
+			});
+		}
+	}
+
+	private void offer(AtomicInteger pending, int frequency) {
+		if (pending.getAndSet(frequency) != NONE) {
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Send the latest pending frequencies
+	 */
+	private void write() {
+		writeScheduled.set(false);
+
+		int frequency = pendingA.getAndSet(NONE);
+		if (frequency != NONE && Math.abs(frequency - sentA) >= minStep) {
+			try {
+				radio.RadioSetFreqA(frequency);
+				sentA = frequency;
+				sentCount.incrementAndGet();
+			} catch (Exception e) {
+				System.err.println("Unable to set downlink frequency: " + e.getMessage());
+			}
+		}
+
+		frequency = pendingB.getAndSet(NONE);
+		if (frequency != NONE && Math.abs(frequency - sentB) >= minStep) {
+			try {
+				radio.RadioSetFreqB(frequency);
+				sentB = frequency;
+				sentCount.incrementAndGet();
+			} catch (Exception e) {
+				System.err.println("Unable to set uplink frequency: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -66,22 +66,33 @@ public class OSBoard {
 	public PowPanelInfo getPowPanelInfo(PowPanelAxis panel) {
 		String response = client.writeAndWaitForResponse("!QUERY,POW_PANEL," + panel.name() + ",A0$");
 		response = client.waitForResponse();
-		if (response != null) {
-			String[] fields = response.split(",");
-			if (fields.length != 7) {
-				return null;
-			}
-			
-			try {
-				PowPanelAxis axis = PowPanelAxis.valueOf(fields[1]);
-				double voltage = Double.parseDouble(fields[2]);
-				double minusCurrent = Double.parseDouble(fields[3]);
-				double plusCurrent = Double.parseDouble(fields[4]);
-				return new PowPanelInfo(axis, voltage, minusCurrent, plusCurrent);
-			} catch (NumberFormatException e) {
-				return null;
-			}
-		} else {
+		return parsePowPanelInfo(response);
+	}
+
+	/**
+	 * Parse the OS board's response to a POW_PANEL query
+	 * 
+	 * @param response
+	 *            The response, like "!RESPONSE,X,4.98,0.12,0.34,0,A0$"
+	 * @return The panel info, or null if the response is missing or malformed
+	 */
+	public PowPanelInfo parsePowPanelInfo(String response) {
+		if (response == null) {
+			return null;
+		}
+
+		String[] fields = response.split(",");
+		if (fields.length != 7) {
+			return null;
+		}
+
+		try {
+			PowPanelAxis axis = PowPanelAxis.valueOf(fields[1]);
+			double voltage = Double.parseDouble(fields[2]);
+			double minusCurrent = Double.parseDouble(fields[3]);
+			double plusCurrent = Double.parseDouble(fields[4]);
+			return new PowPanelInfo(axis, voltage, minusCurrent, plusCurrent);
+		} catch (IllegalArgumentException e) {
 			return null;
 		}
 	}
@@ -94,7 +105,7 @@ public class OSBoard {
 			client = new SerialTCPClient("10.24.223.109", 2809, "joe", "password23", 0);
 		} else {
 			try {
-				client = new SerialLocalClient("COM5", 9600, "\r\n$");
+				client = new SerialLocalClient("COM5", 9600, "\r\n$", SerialLocalClient.ReadMode.EVENT);
 			} catch (SerialPortException e) {
 				e.printStackTrace();
 			}
@@ -3,10 +3,15 @@ package api;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import serial.client.SerialTCPClient;
 import serial.client.SerialBufferedDataListener;
+import serial.packet.AX25Decoder;
+import serial.packet.AX25Listener;
+import serial.packet.KissDeframer;
 
 /**
  * An API for communicating with the TS-2000 Radio
@@ -39,6 +44,11 @@ public class TS2000Radio {
 	 */
 	private SerialTCPClient client;
 
+	/**
+	 * The KISS deframer feeding each packet listener
+	 */
+	private ConcurrentMap<AX25Listener, KissDeframer> packetListeners = new ConcurrentHashMap<AX25Listener, KissDeframer>();
+
 	/**
 	 * Construct a new radio object to talk to the given client
 	 * 
@@ -66,7 +76,7 @@ public class TS2000Radio {
 			throw new IllegalArgumentException("Invalid frequency: " + frequency);
 		}
 
-		String cmd = String.format("FA%011d;", frequency);
+		String cmd = String.format("FA%011d;\n", frequency);
 		client.write(cmd);
 	}
 
@@ -86,7 +96,7 @@ public class TS2000Radio {
 			throw new IllegalArgumentException("Invalid frequency: " + frequency);
 		}
 
-		String cmd = String.format("FB%011d;", frequency);
+		String cmd = String.format("FB%011d;\n", frequency);
 		client.write(cmd);
 	}
 
@@ -106,7 +116,7 @@ public class TS2000Radio {
 			throw new IllegalArgumentException("Invalid frequency: " + frequency);
 		}
 
-		String cmd = String.format("FC%011d;", frequency);
+		String cmd = String.format("FC%011d;\n", frequency);
 		client.write(cmd);
 	}
 
@@ -121,7 +131,7 @@ public class TS2000Radio {
 		if (currentMode != STATUS_MODE)
 			throw new IllegalStateException("Radio must be in the status mode to deal with frequency!");
 
-		String cmd = String.format("FA;");
+		String cmd = String.format("FA;\n");
 		String result = "FA([0-9]{11});";
 		return getIntFromRadio(cmd, result);
 	}
@@ -137,7 +147,7 @@ public class TS2000Radio {
 		if (currentMode != STATUS_MODE)
 			throw new IllegalStateException("Radio must be in the status mode to deal with frequency!");
 
-		String cmd = String.format("FB;");
+		String cmd = String.format("FB;\n");
 		String result = "FB([0-9]{11});";
 		return getIntFromRadio(cmd, result);
 	}
@@ -153,7 +163,7 @@ public class TS2000Radio {
 		if (currentMode != STATUS_MODE)
 			throw new IllegalStateException("Radio must be in the status mode to deal with frequency!");
 
-		String cmd = String.format("FC;");
+		String cmd = String.format("FC;\n");
 		String result = "FC([0-9]{11});";
 		return getIntFromRadio(cmd, result);
 	}
@@ -196,15 +206,27 @@ public class TS2000Radio {
 
 		client.removeListener(serialListener);
 
-		// Parse the data string for the frequency
+		return parseIntResponse(data.toString(), expectedResultFormat);
+	}
+
+	/**
+	 * Parse an int value out of the radio's response to a command
+	 * 
+	 * @param data
+	 *            The response
+	 * @param expectedResultFormat
+	 *            The expected format (in regex) of the response, with a single grouping containing the integer result
+	 * @return The int value, or -1 if the response isn't in the expected format
+	 */
+	public static int parseIntResponse(String data, String expectedResultFormat) {
 		int result = -1;
 		try {
-			Scanner dataScanner = new Scanner(data.toString());
+			Scanner dataScanner = new Scanner(data);
 			Pattern dataPattern = Pattern.compile(expectedResultFormat);
 			if (dataScanner.hasNext(dataPattern)) {
 				result = Integer.parseInt(dataScanner.match().group(1));
 			} else {
-				System.out.println("INVALID DATA RECEIVED: " + data + " (" + Arrays.toString(data.toString().getBytes()) + ")");
+				System.out.println("INVALID DATA RECEIVED: " + data + " (" + Arrays.toString(data.getBytes()) + ")");
 			}
 
 			dataScanner.close();
@@ -241,7 +263,7 @@ public class TS2000Radio {
 					throw new IllegalStateException("Already in packet mode!");
 				}
 
-				String cmd = String.format("%dTC 0;\n");
+				String cmd = "TC 0;\n";
 				client.write(cmd);
 				client.write("\n");
 				client.write("\n");
@@ -264,4 +286,50 @@ public class TS2000Radio {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Add a listener to be notified of every AX.25 packet the radio's TNC receives in packet mode. The TNC must be in KISS mode, and the
+	 * client should be in binary mode, since text mode can't carry KISS frames. Packets are decoded on the client's reader thread as the
+	 * bytes arrive.
+	 * 
+	 * @param l
+	 */
+	public void addPacketListener(AX25Listener l) {
+		if (l == null) {
+			throw new IllegalArgumentException("Listener cannot be null!");
+		}
+
+		KissDeframer deframer = new KissDeframer(new AX25Decoder(l));
+		if (packetListeners.putIfAbsent(l, deframer) == null) {
+			client.addRawListener(deframer);
+		}
+	}
+
+	/**
+	 * Remove a packet listener so it's no longer notified of packets received
+	 * 
+	 * @param l
+	 */
+	public void removePacketListener(AX25Listener l) {
+		KissDeframer deframer = packetListeners.remove(l);
+		if (deframer != null) {
+			client.removeRawListener(deframer);
+		}
+	}
+
+	/**
+	 * Send an AX.25 frame over the air. The radio must be in packet mode with its TNC in KISS mode, and the client in binary mode.
+	 * 
+	 * @param frame
+	 *            The frame, without the FCS, which the TNC adds
+	 * @throws IOException
+	 *             If a write error occurs
+	 */
+	public void sendPacket(byte[] frame) throws IOException {
+		if (currentMode != PACKET_MODE) {
+			throw new IllegalStateException("Radio must be in packet mode to send packets!");
+		}
+
+		client.writeBytes(KissDeframer.encode(0, frame));
+	}
 }
@@ -0,0 +1,498 @@
+package api;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import orbits.PassTrajectory;
+import orbits.RotatorSetpoints;
+
+/**
+ * Points the antenna rotator along a pass trajectory. The pass is compiled into RotatorSetpoints up front, one a second with moves of less
+ * than a degree dropped. Several times a second the engine works out when the antenna could actually get anywhere - the command's latency
+ * plus the time the rotator needs to slew from where it is now - and sends the setpoint nearest that time whenever it changes. Meanwhile the rotator's real position is polled (or read from its stream,
+ * if it's streaming), which corrects the engine's estimate of where the antenna is and measures the pointing error against the predicted
+ * position. If it's given a radio, the engine also keeps it tuned to the satellite for the same pass with a DopplerCorrector.<br/>
+ * <br/>
+ * Positions sent to the rotator are in the rotator's frame, which has its azimuth turned 180 degrees from true azimuth. If the pass would
+ * cross the rotator's end stop, the setpoints flip it, sending the elevation over 90 degrees instead.
+ *
+ * @author Adam Campbell
+ */
+public class TrackingEngine {
+	/**
+	 * Gets told what the engine is doing. Methods are called from the engine's threads.
+	 */
+	public static interface Listener {
+		/**
+		 * Called every update before AOS
+		 *
+		 * @param millisToAos
+		 *            The time left until AOS, in ms
+		 */
+		public void waitingForAos(long millisToAos);
+
+		/**
+		 * Called whenever the rotator is sent a new position
+		 *
+		 * @param azimuth
+		 *            The azimuth sent, in the rotator's frame
+		 * @param elevation
+		 *            The elevation sent
+		 */
+		public void commandSent(int azimuth, int elevation);
+
+		/**
+		 * Called whenever the rotator reports its position
+		 *
+		 * @param azimuth
+		 *            The azimuth reported, in the rotator's frame
+		 * @param elevation
+		 *            The elevation reported
+		 * @param error
+		 *            The angle between where the antenna is pointing and where the satellite is, in degrees
+		 */
+		public void positionReported(int azimuth, int elevation, double error);
+
+		/**
+		 * Called once the pass is over, or tracking was stopped
+		 */
+		public void trackingFinished();
+	}
+
+	/**
+	 * The default time between updates, in ms
+	 */
+	public static final long DEFAULT_UPDATE_INTERVAL = 250L;
+
+	/**
+	 * The default time between polls of the rotator's position, in ms
+	 */
+	public static final long DEFAULT_POLL_INTERVAL = 1000L;
+
+	/**
+	 * The default time from sending a command to the rotator starting to move, in ms
+	 */
+	public static final long DEFAULT_COMMAND_LATENCY = 300L;
+
+	/**
+	 * The default azimuth slew rate, in degrees per second. The G-5500 takes about a minute to turn 360 degrees.
+	 */
+	public static final double DEFAULT_AZIMUTH_RATE = 6.0;
+
+	/**
+	 * The default elevation slew rate, in degrees per second. The G-5500 takes about 70 seconds to turn 180 degrees.
+	 */
+	public static final double DEFAULT_ELEVATION_RATE = 2.6;
+
+	/**
+	 * The furthest ahead of the satellite the antenna is ever aimed, in ms
+	 */
+	private static final long MAX_LEAD = 30000L;
+
+	/**
+	 * The time between the samples the setpoints are compiled from, in seconds
+	 */
+	private static final int SETPOINT_STEP = 1;
+
+	private final AntennaRotator rotator;
+	private final PassTrajectory trajectory;
+	private final RotatorSetpoints setpoints;
+	private final Listener listener;
+
+	private long updateInterval = DEFAULT_UPDATE_INTERVAL;
+	private long pollInterval = DEFAULT_POLL_INTERVAL;
+	private long commandLatency = DEFAULT_COMMAND_LATENCY;
+	private double azimuthRate = DEFAULT_AZIMUTH_RATE;
+	private double elevationRate = DEFAULT_ELEVATION_RATE;
+
+	/**
+	 * Added to the clock before looking up the trajectory, so a pass can be replayed at a different time
+	 */
+	private long timeShift = 0;
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Keeps the radio tuned during the pass, or null if there's no radio
+	 */
+	private DopplerCorrector doppler;
+
+	/**
+	 * Where the antenna is estimated to be, in the rotator's frame, and when
+	 */
+	private double estAzimuth = Double.NaN;
+	private double estElevation = Double.NaN;
+	private long estTime;
+
+	/**
+	 * When the last position the rotator reported was read, so the same one isn't counted twice. Only used by the polling task.
+	 */
+	private long lastPositionTime = Long.MIN_VALUE;
+
+	/**
+	 * The last setpoint sent to the rotator, and its position
+	 */
+	private int commandIndex = -1;
+	private int commandAzimuth = -1;
+	private int commandElevation = -1;
+
+	/**
+	 * Pointing error statistics, in degrees
+	 */
+	private double lastError = Double.NaN;
+	private double maxError = 0;
+	private double sumSquaredError = 0;
+	private int errorCount = 0;
+
+	/**
+	 * Construct a new tracking engine
+	 *
+	 * @param rotator
+	 *            The rotator to point
+	 * @param trajectory
+	 *            The pass to track
+	 * @param listener
+	 *            Gets told what the engine is doing, or null
+	 */
+	public TrackingEngine(AntennaRotator rotator, PassTrajectory trajectory, Listener listener) {
+		if (rotator == null || trajectory == null || trajectory.isEmpty()) {
+			throw new IllegalArgumentException("Rotator and trajectory cannot be null or empty!");
+		}
+
+		this.rotator = rotator;
+		this.trajectory = trajectory;
+		this.listener = listener;
+		setpoints = new RotatorSetpoints.Compiler().compile(trajectory, trajectory.getStartTime(), SETPOINT_STEP);
+	}
+
+	/**
+	 * @return The setpoints the rotator is sent, which say whether the pass is flipped
+	 */
+	public RotatorSetpoints getSetpoints() {
+		return setpoints;
+	}
+
+	/**
+	 * Set how often the aim is updated
+	 *
+	 * @param updateInterval
+	 *            The time between updates, in ms
+	 * @param pollInterval
+	 *            The time between polls of the rotator's position, in ms
+	 */
+	public void setIntervals(long updateInterval, long pollInterval) {
+		if (updateInterval <= 0 || pollInterval <= 0) {
+			throw new IllegalArgumentException("Invalid intervals: " + updateInterval + ", " + pollInterval);
+		}
+
+		this.updateInterval = updateInterval;
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Set what the engine compensates for
+	 *
+	 * @param commandLatency
+	 *            The time from sending a command to the rotator starting to move, in ms
+	 * @param azimuthRate
+	 *            The azimuth slew rate, in degrees per second
+	 * @param elevationRate
+	 *            The elevation slew rate, in degrees per second
+	 */
+	public void setCompensation(long commandLatency, double azimuthRate, double elevationRate) {
+		if (commandLatency < 0 || azimuthRate <= 0 || elevationRate <= 0) {
+			throw new IllegalArgumentException("Invalid compensation: " + commandLatency + ", " + azimuthRate + ", " + elevationRate);
+		}
+
+		this.commandLatency = commandLatency;
+		this.azimuthRate = azimuthRate;
+		this.elevationRate = elevationRate;
+	}
+
+	/**
+	 * Track the pass as if it started at the given time rather than its real AOS, e.g. to try out the rotator
+	 *
+	 * @param aosTime
+	 *            The time to treat as AOS, in ms since the epoch
+	 */
+	public void setStartTime(long aosTime) {
+		timeShift = trajectory.getStartTime() - aosTime;
+	}
+
+	/**
+	 * Keep a radio tuned to the satellite while tracking, correcting its frequencies for Doppler shift along the pass. Must be called
+	 * before starting.
+	 *
+	 * @param radio
+	 *            The radio to tune, or null for none
+	 * @param downlinkFrequency
+	 *            The satellite's transmit frequency, in Hz, or 0 to leave VFO A alone
+	 * @param uplinkFrequency
+	 *            The satellite's receive frequency, in Hz, or 0 to leave VFO B alone
+	 */
+	public synchronized void setRadio(TS2000Radio radio, int downlinkFrequency, int uplinkFrequency) {
+		if (executor != null) {
+			throw new IllegalStateException("Tracking has already been started!");
+		}
+
+		doppler = radio != null ? new DopplerCorrector(radio, trajectory, downlinkFrequency, uplinkFrequency) : null;
+	}
+
+	/**
+	 * @return The Doppler corrector tuning the radio, or null if there's no radio
+	 */
+	public synchronized DopplerCorrector getDopplerCorrector() {
+		return doppler;
+	}
+
+	/**
+	 * Start tracking. The antenna is pointed at the AOS position straight away, then follows the satellite from AOS to LOS. The radio, if
+	 * there is one, is tuned for AOS straight away too.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			throw new IllegalStateException("Tracking has already been started!");
+		}
+
+		if (doppler != null) {
+			doppler.setStartTime(trajectory.getStartTime() - timeShift);
+			doppler.start();
+		}
+
+		executor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Rotator tracking");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				update();
+			}
+		}, 0, updateInterval, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop tracking, leaving the antenna and the radio where they are
+	 */
+	public void stop() {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = this.executor;
+			if (executor == null || executor.isShutdown()) {
+				return;
+			}
+			executor.shutdownNow();
+			if (doppler != null) {
+				doppler.stop();
+			}
+		}
+
+		if (listener != null) {
+			listener.trackingFinished();
+		}
+	}
+
+	public synchronized boolean isTracking() {
+		return executor != null && !executor.isShutdown();
+	}
+
+	/**
+	 * @return The pointing error at the last poll, in degrees, or NaN if the rotator hasn't reported its position yet
+	 */
+	public synchronized double getLastPointingError() {
+		return lastError;
+	}
+
+	/**
+	 * @return The largest pointing error during the pass so far, in degrees
+	 */
+	public synchronized double getMaxPointingError() {
+		return maxError;
+	}
+
+	/**
+	 * @return The RMS pointing error during the pass so far, in degrees, or NaN if the rotator hasn't reported its position yet
+	 */
+	public synchronized double getRmsPointingError() {
+		return errorCount == 0 ? Double.NaN : Math.sqrt(sumSquaredError / errorCount);
+	}
+
+	/**
+	 * Work out where to aim and send it if it's changed
+	 */
+	private void update() {
+		long now = System.currentTimeMillis() + timeShift;
+		if (now > trajectory.getEndTime()) {
+			stop();
+			return;
+		}
+
+		int index;
+		synchronized (this) {
+			advanceEstimate(now);
+
+			// Aim where the satellite will be once the command has arrived and the antenna has had time to get there
+			long arrival = now + commandLatency;
+			for (int i = 0; i < 2; i++) {
+				int setpoint = nearestSetpoint(arrival);
+				long slew = slewTime(setpoints.getAzimuth(setpoint), setpoints.getElevation(setpoint));
+				arrival = now + commandLatency + Math.min(MAX_LEAD, slew);
+			}
+
+			index = nearestSetpoint(arrival);
+			if (index == commandIndex) {
+				index = -1;
+			} else {
+				commandIndex = index;
+				commandAzimuth = setpoints.getAzimuth(index);
+				commandElevation = setpoints.getElevation(index);
+			}
+		}
+
+		if (index >= 0) {
+			try {
+				rotator.rotateTo(setpoints, index);
+				if (listener != null) {
+					listener.commandSent(setpoints.getAzimuth(index), setpoints.getElevation(index));
+				}
+			} catch (Exception e) {
+				System.err.println("Unable to send rotator command: " + e.getMessage());
+				synchronized (this) {
+					// Try again next update
+					commandIndex = -1;
+					commandAzimuth = -1;
+				}
+			}
+		}
+
+		if (listener != null && now < trajectory.getStartTime()) {
+			listener.waitingForAos(trajectory.getStartTime() - now);
+		}
+	}
+
+	/**
+	 * Ask the rotator where it is and compare that to where the satellite is. If the rotator is streaming its position, the latest one is
+	 * used instead of polling.
+	 */
+	private void poll() {
+		AntennaRotator.Position position;
+		if (rotator.isStreaming()) {
+			position = rotator.getPosition();
+		} else {
+			try {
+				position = rotator.pollServer();
+			} catch (Exception e) {
+				System.err.println("Unable to poll rotator: " + e.getMessage());
+				return;
+			}
+		}
+
+		// No valid response, or nothing new since the last poll
+		if (position == null || position.getTime() <= lastPositionTime) {
+			return;
+		}
+		lastPositionTime = position.getTime();
+
+		int azimuth = position.getAzimuth();
+		int elevation = position.getElevation();
+		long time = position.getTime() + timeShift;
+		double error = Double.NaN;
+		synchronized (this) {
+			estAzimuth = azimuth;
+			estElevation = elevation;
+			estTime = time;
+
+			if (time >= trajectory.getStartTime()) {
+				// Over the top, the rotator points the same way as its azimuth turned another 180 degrees and its elevation brought back
+				double az = elevation > 90 ? azimuth : fromRotatorAzimuth(azimuth);
+				double el = elevation > 90 ? 180 - elevation : elevation;
+				error = separation(az, el, trajectory.getAzimuthAt(time), trajectory.getElevationAt(time));
+				lastError = error;
+				maxError = Math.max(maxError, error);
+				sumSquaredError += error * error;
+				errorCount++;
+			}
+		}
+
+		if (listener != null) {
+			listener.positionReported(azimuth, elevation, error);
+		}
+	}
+
+	/**
+	 * Move the estimate of where the antenna is towards the last position sent, as far as it could have slewed since the last estimate
+	 */
+	private void advanceEstimate(long now) {
+		if (commandAzimuth < 0) {
+			return;
+		} else if (Double.isNaN(estAzimuth)) {
+			// Nothing to go on yet, so assume it's already there
+			estAzimuth = commandAzimuth;
+			estElevation = commandElevation;
+			estTime = now;
+			return;
+		}
+
+		double seconds = Math.max(0, now - estTime) / 1000.0;
+		estAzimuth = approach(estAzimuth, commandAzimuth, azimuthRate * seconds);
+		estElevation = approach(estElevation, commandElevation, elevationRate * seconds);
+		estTime = now;
+	}
+
+	/**
+	 * The time for the antenna to slew from where it's estimated to be to a position in the rotator's frame, in ms. The rotator can't turn
+	 * past its end stop, so azimuth doesn't wrap around.
+	 */
+	private long slewTime(double azimuth, double elevation) {
+		if (Double.isNaN(estAzimuth)) {
+			return 0;
+		}
+
+		double azSeconds = Math.abs(azimuth - estAzimuth) / azimuthRate;
+		double elSeconds = Math.abs(elevation - estElevation) / elevationRate;
+		return (long) (1000 * Math.max(azSeconds, elSeconds));
+	}
+
+	/**
+	 * Find the setpoint due nearest a time, or the first one if it's before AOS
+	 */
+	private int nearestSetpoint(long time) {
+		int i = setpoints.indexAt(time);
+		if (i < 0) {
+			return 0;
+		} else if (i + 1 < setpoints.size() && setpoints.getTime(i + 1) - time < time - setpoints.getTime(i)) {
+			return i + 1;
+		}
+		return i;
+	}
+
+	private static double approach(double from, double to, double maxStep) {
+		return Math.abs(to - from) <= maxStep ? to : from + Math.signum(to - from) * maxStep;
+	}
+
+	private static double fromRotatorAzimuth(double azimuth) {
+		return (azimuth + 180) % 360;
+	}
+
+	/**
+	 * The angle between two directions in the sky, in degrees
+	 */
+	private static double separation(double az1, double el1, double az2, double el2) {
+		double a1 = Math.toRadians(az1), e1 = Math.toRadians(el1);
+		double a2 = Math.toRadians(az2), e2 = Math.toRadians(el2);
+		double cos = Math.sin(e1) * Math.sin(e2) + Math.cos(e1) * Math.cos(e2) * Math.cos(a1 - a2);
+		return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cos))));
+	}
+}
@@ -172,7 +172,7 @@ public class CySatDataTab extends JPanel {
 	private void ensureOSBoardInitialized() {
 		if (client == null) {
 			try {
-				client = new SerialLocalClient("COM5", 9600, "$\n");
+				client = new SerialLocalClient("COM5", 9600, "$\n", SerialLocalClient.ReadMode.EVENT);
 			} catch (SerialPortException e) {
 				e.printStackTrace();
 			}
@@ -12,14 +12,9 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -27,23 +22,26 @@ import javax.swing.JComboBox;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 
 import orbits.CelestrakSatellite;
-import orbits.CommandSet;
+import orbits.PassTrajectory;
 import orbits.SatellitePass;
 import serial.client.SerialTCPClient;
 import uk.me.g4dpz.satellite.SatPassTime;
-import uk.me.g4dpz.satellite.SatPos;
 import util.SatelliteUtils;
 import worldwind.ClippingBasicOrbitView;
 import api.AntennaRotator;
+import api.DopplerCorrector;
+import api.TS2000Radio;
+import api.TrackingEngine;
 
 public class CySatMapTab extends JPanel {
 	private static final long serialVersionUID = 1L;
-	private CommandSet cmdSet = null;
-	private Timer timer = new Timer();
-	private static final int timeStep = 5;
+	private PassTrajectory trajectory = null;
+	private TrackingEngine tracker = null;
 	private static final boolean startTrackingImmediately = false;
+	private static final int RADIO_SERIAL_PORT = 1;
 	private final int BASE_LAYERS;
 	private final CySatGUI gui;
 	private final WorldWindowGLCanvas worldWindCanvas;
@@ -52,6 +50,9 @@ public class CySatMapTab extends JPanel {
 
 	private AntennaRotator rotator = null;
 	private SerialTCPClient client = null;
+	private TS2000Radio radio = null;
+	private int downlinkFrequency = 0;
+	private int uplinkFrequency = 0;
 
 	public CySatMapTab(final CySatGUI gui) {
 		this.gui = gui;
@@ -138,8 +139,18 @@ public class CySatMapTab extends JPanel {
 				pathButton.setEnabled(true);
 				getPasses.setEnabled(true);
 
-				timer.cancel();
-				timer = new Timer();
+				if (tracker != null) {
+					TrackingEngine t = tracker;
+					tracker = null;
+					t.stop();
+					System.out.println(String.format("Pointing error: %.2f\u00B0 RMS, %.2f\u00B0 max", t.getRmsPointingError(),
+							t.getMaxPointingError()));
+					DopplerCorrector doppler = t.getDopplerCorrector();
+					if (doppler != null) {
+						System.out.println("Doppler correction: " + doppler.getSentCount() + " frequencies sent, " + doppler.getDroppedCount()
+								+ " dropped");
+					}
+				}
 
 				topPanel2.remove(status);
 				topPanel2.remove(stop);
@@ -151,9 +162,12 @@ public class CySatMapTab extends JPanel {
 			public void actionPerformed(ActionEvent e) {
 				if (rotator == null) {
 					JOptionPane.showMessageDialog(null, "You need to connect to the rotator first, or nothing will happen!");
+					return;
 				}
 
-				if (cmdSet != null && cmdSet.getBase() != null) {
+				if (trajectory != null && !trajectory.isEmpty()) {
+					boolean correctDoppler = radio != null && askForFrequencies();
+
 					status = new JTextArea("   Waiting for AOS...");
 					status.setBackground(null);
 					status.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 15));
@@ -161,7 +175,7 @@ public class CySatMapTab extends JPanel {
 					status.setEditable(false);
 					status.setFocusable(false);
 
-					updateStatus = new JTextArea("Next update in: 0 seconds");
+					updateStatus = new JTextArea("AOS in: 0 seconds");
 					updateStatus.setBackground(null);
 					updateStatus.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 15));
 					updateStatus.setForeground(Color.WHITE);
@@ -187,69 +201,49 @@ public class CySatMapTab extends JPanel {
 					topPanel2.add(updateStatus);
 					repaint();
 
-					// System.out.println(new SimpleDateFormat("hh:mm:ss").format(new Date().getTime()));
-					// System.out.println(new SimpleDateFormat("hh:mm:ss").format(cmdSet.base));
-					// System.out.println(new SimpleDateFormat("yyyy/MM/dd hh:mm:ss").format(cmdSet.base));
-					if (startTrackingImmediately) {
-						cmdSet.base = new Date();
-					}
-					timer.schedule(new TimerTask() {
-						private Iterator<String> iter;
-						private int count = 0;
-						private boolean started = false;
-						private int offset = 0;
-
+					tracker = new TrackingEngine(rotator, trajectory, new TrackingEngine.Listener() {
 						@Override
-						public synchronized void run() {
-							if (iter == null)
-								iter = cmdSet.iterator();
-
-							if (!iter.hasNext()) {
-								finishTracking();
-								return;
-							}
-
-							if (started) {
-								if (++count == cmdSet.getTimeStep()) {
-									count = 0;
-
-									String cmd = iter.next();
-									issueCommand(cmd);
-								}
-							} else {
-								Date now = new Date();
-								if (cmdSet.getBase().before(now)) {
-									started = true;
-									offset = 0;
-									count = 0;
-
-									String cmd = iter.next();
-									issueCommand(cmd);
-								} else {
-									offset = (int) ((cmdSet.getBase().getTime() - now.getTime()) / 1000) - cmdSet.getTimeStep() + 1;
-								}
-							}
-
-							String text = "   Next update in: " + (offset + cmdSet.getTimeStep() - count) + " seconds";
+						public void waitingForAos(long millisToAos) {
+							String text = "   AOS in: " + (millisToAos + 999) / 1000 + " seconds";
 							updateStatus.setText(text);
 							CurrentStatePanel.up2.setText(text);
-							// System.out.println(text);
 						}
 
-						private void issueCommand(String cmd) {
-							String text = "   Az: " + cmd.substring(0, 3) + "; El: " + cmd.substring(4);
+						@Override
+						public void commandSent(int azimuth, int elevation) {
+							String text = String.format("   Az: %03d; El: %03d", azimuth, elevation);
 							status.setText(text);
 							CurrentStatePanel.status2.setText(text);
-							System.out.println(text);
+						}
 
-							try {
-								if (rotator != null)
-									rotator.rotateTo(Integer.parseInt(cmd.substring(0, 3)), Integer.parseInt(cmd.substring(4)));
-							} catch (NumberFormatException | IOException e) {
-								e.printStackTrace();
+						@Override
+						public void positionReported(int azimuth, int elevation, double error) {
+							if (!Double.isNaN(error)) {
+								String text = String.format("   Pointing error: %.1f\u00B0", error);
+								updateStatus.setText(text);
+								CurrentStatePanel.up2.setText(text);
 							}
 						}
-					}, 0, 1000);
+
+						@Override
+						public void trackingFinished() {
+							SwingUtilities.invokeLater(new Runnable() {
+								@Override
+								public void run() {
+									if (tracker != null) {
+										finishTracking();
+									}
+								}
+							});
+						}
+					});
+					if (startTrackingImmediately) {
+						tracker.setStartTime(System.currentTimeMillis());
+					}
+					if (correctDoppler) {
+						tracker.setRadio(radio, downlinkFrequency, uplinkFrequency);
+					}
+					tracker.start();
 				}
 			}
 		});
@@ -317,21 +311,22 @@ public class CySatMapTab extends JPanel {
 		worldWindCanvas.getModel().getLayers().add(layer);
 	}
 
-	private void addPath(WorldWindowGLCanvas worldWindCanvas, List<SatPos> list) {
+	private void addPath(WorldWindowGLCanvas worldWindCanvas, PassTrajectory trajectory) {
 		List<Position> positions = new ArrayList<Position>();
 		List<Position> belowMinElevAsc = new ArrayList<Position>();
 		List<Position> belowMinElevDesc = new ArrayList<Position>();
 		boolean rising = true;
-		for (SatPos satPos : list) {
-			if (satPos.getElevation() < SatelliteUtils.MIN_ELEV) {
+		for (int i = 0; i < trajectory.size(); i++) {
+			Position position = Position.fromDegrees(trajectory.getElevation(i), -trajectory.getAzimuth(i), 1000000);
+			if (trajectory.getElevation(i) < SatelliteUtils.MIN_ELEV) {
 				if (rising) {
-					belowMinElevAsc.add(Position.fromDegrees(satPos.getElevation(), -satPos.getAzimuth(), 1000000));
+					belowMinElevAsc.add(position);
 				} else {
-					belowMinElevDesc.add(Position.fromDegrees(satPos.getElevation(), -satPos.getAzimuth(), 1000000));
+					belowMinElevDesc.add(position);
 				}
 			} else {
 				rising = false;
-				positions.add(Position.fromDegrees(satPos.getElevation(), -satPos.getAzimuth(), 1000000));
+				positions.add(position);
 			}
 		}
 
@@ -386,9 +381,8 @@ public class CySatMapTab extends JPanel {
 
 				worldWindCanvas.setView(new ClippingBasicOrbitView());
 
-				List<SatPos> passPoints = satPass.getPassPoints(SatelliteUtils.MIN_ELEV);
-				cmdSet = SatelliteUtils.getRotatorCommandSet(passPoints, passPoints.get(0).getTime().getTime(), timeStep);
-				addPath(worldWindCanvas, satPass.getPassPoints());
+				trajectory = satPass.getTrajectory(SatelliteUtils.MIN_ELEV);
+				addPath(worldWindCanvas, satPass.getTrajectory());
 
 				startTracking.setEnabled(true);
 			} else {
@@ -401,6 +395,39 @@ public class CySatMapTab extends JPanel {
 		}
 	}
 
+	/**
+	 * Ask for the satellite's frequencies to correct the radio for Doppler shift
+	 *
+	 * @return True if the radio should be corrected, false if it should be left alone
+	 */
+	private boolean askForFrequencies() {
+		String downlink = JOptionPane.showInputDialog(null, new LabelText("Enter downlink frequency in Hz (0 for none): "),
+				Integer.toString(downlinkFrequency));
+		if (downlink == null) {
+			return false;
+		}
+		String uplink = JOptionPane.showInputDialog(null, new LabelText("Enter uplink frequency in Hz (0 for none): "),
+				Integer.toString(uplinkFrequency));
+		if (uplink == null) {
+			return false;
+		}
+
+		try {
+			int down = Integer.parseInt(downlink.trim());
+			int up = Integer.parseInt(uplink.trim());
+			if (down < 0 || up < 0) {
+				throw new NumberFormatException();
+			}
+			downlinkFrequency = down;
+			uplinkFrequency = up;
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(null, "Invalid frequencies, the radio won't be corrected for Doppler shift");
+			return false;
+		}
+
+		return downlinkFrequency > 0 || uplinkFrequency > 0;
+	}
+
 	private void connectToServer() {
 		String serverIP = JOptionPane.showInputDialog(null, new LabelText("Enter server IP: "), "penthouse.aere.iastate.edu");
 		if (serverIP != null) {
@@ -413,6 +440,13 @@ public class CySatMapTab extends JPanel {
 						client = new SerialTCPClient(serverIP, Integer.parseInt(portNum), username, password, 0);
 						if (client.getState() == SerialTCPClient.State.ALIVE) {
 							rotator = new AntennaRotator(client);
+							SerialTCPClient radioClient = new SerialTCPClient(serverIP, Integer.parseInt(portNum), username, password,
+									RADIO_SERIAL_PORT);
+							if (radioClient.getState() == SerialTCPClient.State.ALIVE) {
+								radio = new TS2000Radio(radioClient);
+							} else {
+								System.err.println("Unable to connect to the radio, frequencies won't be corrected for Doppler shift");
+							}
 							JOptionPane.showMessageDialog(null, "Success! Server connection established :D");
 							connectButton.setEnabled(false);
 						} else if (client.getState() == SerialTCPClient.State.DEAD) {
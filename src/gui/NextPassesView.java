@@ -9,6 +9,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +19,7 @@ import javax.swing.BorderFactory;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 
+import orbits.PassTrajectory;
 import orbits.SatellitePass;
 
 import org.jfree.chart.ChartFactory;
@@ -32,7 +34,6 @@ import org.jfree.data.time.TimeSeries;
 import org.jfree.data.time.TimeSeriesCollection;
 import org.jfree.ui.HorizontalAlignment;
 
-import uk.me.g4dpz.satellite.SatPos;
 import util.SatelliteUtils;
 
 @SuppressWarnings("serial")
@@ -101,22 +102,34 @@ public class NextPassesView extends JScrollPane {
 		repaint();
 	}
 
+	/**
+	 * Build the dataset for a pass's elevation chart
+	 * 
+	 * @param trajectory
+	 *            The pass trajectory
+	 * @return The elevation at each point of the trajectory, over time
+	 */
+	public static TimeSeriesCollection createElevationDataset(PassTrajectory trajectory) {
+		TimeSeries ts = new TimeSeries("Pass Info");
+		for (int i = 0; i < trajectory.size(); i++) {
+			ts.add(new FixedMillisecond(trajectory.getTime(i)), trajectory.getElevation(i));
+		}
+
+		TimeSeriesCollection dataset = new TimeSeriesCollection();
+		dataset.addSeries(ts);
+		return dataset;
+	}
+
 	private void doNextPass(SatellitePass pass, int timeStep) {
 		if (pass != null) {
-			List<SatPos> passPoints = pass.getPassPoints(SatelliteUtils.MIN_ELEV);
-
-			if (passPoints != null && !passPoints.isEmpty()) {
-				TimeSeries ts = new TimeSeries("Pass Info");
-				for (int i = 0; i < passPoints.size(); i++) {
-					ts.add(new FixedMillisecond(passPoints.get(i).getTime()), passPoints.get(i).getElevation());
-				}
+			PassTrajectory trajectory = pass.getTrajectory(SatelliteUtils.MIN_ELEV);
 
-				TimeSeriesCollection dataset = new TimeSeriesCollection();
-				dataset.addSeries(ts);
+			if (trajectory != null && !trajectory.isEmpty()) {
+				TimeSeriesCollection dataset = createElevationDataset(trajectory);
 
 				SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 				sdf.setTimeZone(TimeZone.getTimeZone("US/Central"));
-				String title = sdf.format(passPoints.get(0).getTime());
+				String title = sdf.format(new Date(trajectory.getStartTime()));
 				System.out.println(title);
 				final JFreeChart chart = ChartFactory.createTimeSeriesChart(title, "Time", "Elevation", dataset, false, false, false);
 
@@ -0,0 +1,257 @@
+package orbits;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatNotFoundException;
+import uk.me.g4dpz.satellite.SatPassTime;
+import uk.me.g4dpz.satellite.TLE;
+
+/**
+ * Caches predicted satellite passes so that refreshing the pass list, or setting up tracking for a pass that was just listed, doesn't
+ * re-run the predictor. Passes are cached per (satellite, TLE epoch, ground station, minimum elevation, time step) as a timeline of
+ * consecutive passes, along with the PassSearch that produced them. Once a newer TLE shows up for a satellite, everything cached for its
+ * older TLEs is thrown out. The least recently used timelines are evicted once the cache is full.
+ *
+ * @author Adam Campbell
+ */
+public class PassCache {
+	/**
+	 * Identifies a pass timeline
+	 */
+	private static class Key {
+		private final String satName;
+		private final double tleEpoch;
+		private final double latitude;
+		private final double longitude;
+		private final double height;
+		private final double minElev;
+		private final int timeStep;
+
+		public Key(String satName, TLE tle, GroundStationPosition gsp, double minElev, int timeStep) {
+			this.satName = satName.trim();
+			this.tleEpoch = tle.getEpoch();
+			this.latitude = gsp.getLatitude();
+			this.longitude = gsp.getLongitude();
+			this.height = gsp.getHeightAMSL();
+			this.minElev = minElev;
+			this.timeStep = timeStep;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key k = (Key) o;
+			return satName.equals(k.satName) && tleEpoch == k.tleEpoch && latitude == k.latitude && longitude == k.longitude
+					&& height == k.height && minElev == k.minElev && timeStep == k.timeStep;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = satName.hashCode();
+			hash = 31 * hash + Double.valueOf(tleEpoch).hashCode();
+			hash = 31 * hash + Double.valueOf(latitude).hashCode();
+			hash = 31 * hash + Double.valueOf(longitude).hashCode();
+			hash = 31 * hash + Double.valueOf(height).hashCode();
+			hash = 31 * hash + Double.valueOf(minElev).hashCode();
+			return 31 * hash + timeStep;
+		}
+	}
+
+	/**
+	 * Consecutive passes of a satellite over a ground station. No pass that's high enough starts between the origin and the first pass, or
+	 * between any two consecutive passes.
+	 */
+	private static class Timeline {
+		private final PassSearch search;
+		private long origin;
+		private final List<SatellitePass> passes = new ArrayList<SatellitePass>();
+
+		public Timeline(PassSearch search) {
+			this.search = search;
+		}
+	}
+
+	/**
+	 * The default number of timelines kept
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The most passes kept in one timeline - the oldest are dropped past this
+	 */
+	public static final int MAX_PASSES_PER_TIMELINE = 64;
+
+	/**
+	 * The gap left after the end of a pass before searching for the next one, in ms
+	 */
+	private static final long PASS_GAP_MILLIS = 1000L;
+
+	/**
+	 * The cached timelines, least recently used first
+	 */
+	private final LinkedHashMap<Key, Timeline> timelines;
+
+	/**
+	 * The newest TLE epoch seen for each satellite
+	 */
+	private final Map<String, Double> latestEpochs = new LinkedHashMap<String, Double>();
+
+	/**
+	 * Construct a new pass cache
+	 *
+	 * @param capacity
+	 *            The number of timelines to keep before evicting the least recently used
+	 */
+	public PassCache(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+
+		timelines = new LinkedHashMap<Key, Timeline>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Timeline> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Get the next pass of a satellite over a ground station that starts at or after the given date and gets at least minElev degrees
+	 * above the horizon, predicting it only if it isn't already cached
+	 *
+	 * @param satellite
+	 *            The satellite
+	 * @param tle
+	 *            The satellite's current TLE
+	 * @param gsp
+	 *            The ground station
+	 * @param date
+	 *            The date to search from
+	 * @param minElev
+	 *            The minimum elevation of the pass, in degrees
+	 * @param timeStep
+	 *            The time step of the commands built from the pass, in seconds
+	 * @return The next pass
+	 * @throws SatNotFoundException
+	 */
+	public SatellitePass getNextPass(CelestrakSatellite satellite, TLE tle, GroundStationPosition gsp, Date date, double minElev,
+			int timeStep) throws SatNotFoundException {
+		Key key = new Key(satellite.getSatName(), tle, gsp, minElev, timeStep);
+		Timeline timeline;
+		synchronized (this) {
+			invalidateOlderThan(key.satName, key.tleEpoch);
+			timeline = timelines.get(key);
+			if (timeline == null) {
+				timeline = new Timeline(new PassSearch(tle, gsp));
+				timeline.origin = Long.MAX_VALUE;
+				timelines.put(key, timeline);
+			}
+		}
+
+		synchronized (timeline) {
+			return getNextPass(timeline, satellite, gsp, date.getTime(), minElev, timeStep);
+		}
+	}
+
+	/**
+	 * Throw out everything cached for a satellite
+	 *
+	 * @param satName
+	 *            The satellite's name
+	 */
+	public synchronized void invalidate(String satName) {
+		Iterator<Key> iter = timelines.keySet().iterator();
+		while (iter.hasNext()) {
+			if (iter.next().satName.equals(satName.trim())) {
+				iter.remove();
+			}
+		}
+		latestEpochs.remove(satName.trim());
+	}
+
+	/**
+	 * Throw out everything in the cache
+	 */
+	public synchronized void clear() {
+		timelines.clear();
+		latestEpochs.clear();
+	}
+
+	/**
+	 * @return The number of timelines cached
+	 */
+	public synchronized int size() {
+		return timelines.size();
+	}
+
+	/**
+	 * Throw out a satellite's timelines if its TLE has been superseded
+	 */
+	private void invalidateOlderThan(String satName, double tleEpoch) {
+		Double latest = latestEpochs.get(satName);
+		if (latest == null || tleEpoch > latest) {
+			if (latest != null) {
+				invalidate(satName);
+			}
+			latestEpochs.put(satName, tleEpoch);
+		}
+	}
+
+	private static SatellitePass getNextPass(Timeline timeline, CelestrakSatellite satellite, GroundStationPosition gsp, long time,
+			double minElev, int timeStep) throws SatNotFoundException {
+		List<SatellitePass> passes = timeline.passes;
+		if (time >= timeline.origin) {
+			long gapStart = timeline.origin;
+			for (SatellitePass pass : passes) {
+				long start = pass.getSatPassTime().getStartTime().getTime();
+				long end = pass.getSatPassTime().getEndTime().getTime();
+				if (time <= start) {
+					// Nothing high enough starts between the end of the last pass and this one
+					return pass;
+				} else if (time <= end) {
+					// Searching from the middle of a pass might not find the same pass, so don't use the cache
+					return predictPass(timeline.search, satellite, gsp, time, minElev, timeStep);
+				}
+				gapStart = end + PASS_GAP_MILLIS;
+			}
+
+			if (time <= gapStart) {
+				// Carry on from the end of the timeline
+				SatellitePass pass = predictPass(timeline.search, satellite, gsp, gapStart, minElev, timeStep);
+				passes.add(pass);
+				if (passes.size() > MAX_PASSES_PER_TIMELINE) {
+					timeline.origin = passes.remove(0).getSatPassTime().getEndTime().getTime() + PASS_GAP_MILLIS;
+				}
+				return pass;
+			}
+		}
+
+		// Start the timeline over from here
+		SatellitePass pass = predictPass(timeline.search, satellite, gsp, time, minElev, timeStep);
+		passes.clear();
+		passes.add(pass);
+		timeline.origin = time;
+		return pass;
+	}
+
+	/**
+	 * Predict the next pass that gets at least minElev degrees above the horizon, along with its points
+	 */
+	private static SatellitePass predictPass(PassSearch search, CelestrakSatellite satellite, GroundStationPosition gsp, long time,
+			double minElev, int timeStep) throws SatNotFoundException {
+		SatPassTime spt = search.nextPass(new Date(time), minElev);
+		PassTrajectory trajectory = search.samplePass(spt, PassSearch.DEFAULT_MAX_SAMPLE_STEP, PassSearch.DEFAULT_SAMPLE_TOLERANCE);
+		return new SatellitePass(satellite, trajectory, timeStep, gsp, spt);
+	}
+}
@@ -0,0 +1,367 @@
+package orbits;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatPassTime;
+import uk.me.g4dpz.satellite.TLE;
+
+/**
+ * Works out every pass of a set of satellites over a set of ground stations within a time window, spreading the prediction across all
+ * cores with a fork/join pool. The result is a single timeline sorted by start time, along with every pair of passes over the same ground
+ * station that overlap - only one of them can have the antenna.
+ *
+ * @author Adam Campbell
+ */
+public class PassScheduler {
+	/**
+	 * A pass of a satellite over a ground station
+	 */
+	public static class ScheduledPass {
+		private final TLE tle;
+		private final GroundStationPosition groundStation;
+		private final SatPassTime spt;
+
+		public ScheduledPass(TLE tle, GroundStationPosition groundStation, SatPassTime spt) {
+			this.tle = tle;
+			this.groundStation = groundStation;
+			this.spt = spt;
+		}
+
+		public String getSatName() {
+			return tle.getName().trim();
+		}
+
+		public TLE getTLE() {
+			return tle;
+		}
+
+		public GroundStationPosition getGroundStation() {
+			return groundStation;
+		}
+
+		public SatPassTime getSatPassTime() {
+			return spt;
+		}
+
+		public long getStartTime() {
+			return spt.getStartTime().getTime();
+		}
+
+		public long getEndTime() {
+			return spt.getEndTime().getTime();
+		}
+
+		@Override
+		public String toString() {
+			return getSatName() + ": " + spt.getStartTime() + " - " + spt.getEndTime() + String.format(" (max el %.1f)", spt.getMaxEl());
+		}
+	}
+
+	/**
+	 * Two passes over the same ground station that overlap
+	 */
+	public static class Conflict {
+		private final ScheduledPass first;
+		private final ScheduledPass second;
+
+		public Conflict(ScheduledPass first, ScheduledPass second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		/**
+		 * @return The pass that starts first
+		 */
+		public ScheduledPass getFirst() {
+			return first;
+		}
+
+		/**
+		 * @return The pass that starts second
+		 */
+		public ScheduledPass getSecond() {
+			return second;
+		}
+
+		public long getOverlapStart() {
+			return second.getStartTime();
+		}
+
+		public long getOverlapEnd() {
+			return Math.min(first.getEndTime(), second.getEndTime());
+		}
+
+		@Override
+		public String toString() {
+			return first.getSatName() + " overlaps " + second.getSatName() + " for " + (getOverlapEnd() - getOverlapStart()) / 1000 + "s from "
+					+ new Date(getOverlapStart());
+		}
+	}
+
+	/**
+	 * The passes within a time window and the conflicts between them
+	 */
+	public static class Schedule {
+		private final List<ScheduledPass> passes;
+		private final List<Conflict> conflicts;
+
+		public Schedule(List<ScheduledPass> passes, List<Conflict> conflicts) {
+			this.passes = Collections.unmodifiableList(passes);
+			this.conflicts = Collections.unmodifiableList(conflicts);
+		}
+
+		/**
+		 * @return Every pass, sorted by start time
+		 */
+		public List<ScheduledPass> getPasses() {
+			return passes;
+		}
+
+		/**
+		 * @return Every pair of overlapping passes over the same ground station, sorted by the start of the overlap
+		 */
+		public List<Conflict> getConflicts() {
+			return conflicts;
+		}
+	}
+
+	/**
+	 * Predicts the passes of a range of (satellite, ground station) pairs, splitting the range in half until there's only one pair left
+	 */
+	private class ScheduleTask extends RecursiveTask<List<ScheduledPass>> {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		public ScheduleTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<ScheduledPass> compute() {
+			if (to - from == 1) {
+				TLE tle = tles.get(from / stations.size());
+				GroundStationPosition gsp = stations.get(from % stations.size());
+				return predictPasses(tle, gsp);
+			}
+
+			int mid = (from + to) >>> 1;
+			ScheduleTask left = new ScheduleTask(from, mid);
+			left.fork();
+			List<ScheduledPass> right = new ScheduleTask(mid, to).compute();
+			return merge(left.join(), right);
+		}
+	}
+
+	/**
+	 * Predicts the next pass of each of a range of satellites, splitting the range in half until there's only one satellite left
+	 */
+	private static class NextPassTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<TLE> tles;
+		private final GroundStationPosition gsp;
+		private final Date date;
+		private final ScheduledPass[] results;
+		private final int from;
+		private final int to;
+
+		public NextPassTask(List<TLE> tles, GroundStationPosition gsp, Date date, ScheduledPass[] results, int from, int to) {
+			this.tles = tles;
+			this.gsp = gsp;
+			this.date = date;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				TLE tle = tles.get(from);
+				try {
+					results[from] = new ScheduledPass(tle, gsp, new PassSearch(tle, gsp).nextPass(date, 0));
+				} catch (Exception e) {
+					System.err.println("Unable to predict passes for " + tle.getName().trim() + ": " + e.getMessage());
+				}
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new NextPassTask(tles, gsp, date, results, from, mid), new NextPassTask(tles, gsp, date, results, mid, to));
+		}
+	}
+
+	/**
+	 * The pool all schedules are computed in, one thread per core
+	 */
+	private static final ForkJoinPool pool = new ForkJoinPool();
+
+	/**
+	 * The gap left after the end of a pass before searching for the next one, in ms
+	 */
+	private static final long PASS_GAP_MILLIS = 1000L;
+
+	private final List<TLE> tles;
+	private final List<GroundStationPosition> stations;
+	private final long windowStart;
+	private final long windowEnd;
+	private final double minElev;
+
+	/**
+	 * Construct a new pass scheduler
+	 *
+	 * @param tles
+	 *            The satellites to schedule
+	 * @param stations
+	 *            The ground stations to schedule passes over
+	 * @param windowStart
+	 *            The start of the time window
+	 * @param windowEnd
+	 *            The end of the time window
+	 * @param minElev
+	 *            The minimum elevation of a pass worth scheduling, in degrees
+	 */
+	public PassScheduler(List<TLE> tles, List<GroundStationPosition> stations, Date windowStart, Date windowEnd, double minElev) {
+		if (tles == null || stations == null || stations.isEmpty()) {
+			throw new IllegalArgumentException("Satellites and ground stations cannot be null or empty!");
+		} else if (!windowEnd.after(windowStart)) {
+			throw new IllegalArgumentException("Invalid time window: " + windowStart + " - " + windowEnd);
+		}
+
+		this.tles = new ArrayList<TLE>(tles);
+		this.stations = new ArrayList<GroundStationPosition>(stations);
+		this.windowStart = windowStart.getTime();
+		this.windowEnd = windowEnd.getTime();
+		this.minElev = minElev;
+	}
+
+	/**
+	 * Get the TLEs of a list of satellites, leaving out any that aren't available
+	 *
+	 * @param satellites
+	 *            The satellites
+	 * @return Their TLEs
+	 */
+	public static List<TLE> getTLEs(List<CelestrakSatellite> satellites) {
+		List<TLE> tles = new ArrayList<TLE>();
+		for (CelestrakSatellite satellite : satellites) {
+			TLE tle = satellite.getTLE();
+			if (tle != null) {
+				tles.add(tle);
+			} else {
+				System.err.println("No TLE for satellite: " + satellite.getSatName());
+			}
+		}
+
+		return tles;
+	}
+
+	/**
+	 * Work out every pass in the window and the conflicts between them
+	 *
+	 * @return The schedule
+	 */
+	public Schedule schedule() {
+		List<ScheduledPass> passes = tles.isEmpty() ? new ArrayList<ScheduledPass>() : pool.invoke(new ScheduleTask(0, tles.size()
+				* stations.size()));
+		return new Schedule(passes, findConflicts(passes));
+	}
+
+	/**
+	 * Predict the next pass of each satellite over a ground station, in parallel
+	 *
+	 * @param tles
+	 *            The satellites
+	 * @param gsp
+	 *            The ground station
+	 * @param date
+	 *            The date to search from
+	 * @return The next pass of each satellite, in the same order as the satellites - null for any whose pass couldn't be predicted
+	 */
+	public static List<ScheduledPass> nextPasses(List<TLE> tles, GroundStationPosition gsp, Date date) {
+		ScheduledPass[] results = new ScheduledPass[tles.size()];
+		if (!tles.isEmpty()) {
+			pool.invoke(new NextPassTask(new ArrayList<TLE>(tles), gsp, date, results, 0, results.length));
+		}
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Predict every pass of a satellite over a ground station that starts within the window and is high enough
+	 */
+	private List<ScheduledPass> predictPasses(TLE tle, GroundStationPosition gsp) {
+		List<ScheduledPass> passes = new ArrayList<ScheduledPass>();
+		try {
+			PassSearch search = new PassSearch(tle, gsp);
+			Date date = new Date(windowStart);
+			while (true) {
+				SatPassTime spt = search.nextPass(date, minElev);
+				if (spt.getStartTime().getTime() >= windowEnd) {
+					break;
+				}
+				passes.add(new ScheduledPass(tle, gsp, spt));
+				date = new Date(spt.getEndTime().getTime() + PASS_GAP_MILLIS);
+			}
+		} catch (Exception e) {
+			// e.g. a geostationary satellite that never rises
+			System.err.println("Unable to predict passes for " + tle.getName().trim() + ": " + e.getMessage());
+		}
+
+		return passes;
+	}
+
+	/**
+	 * Merge two timelines that are each sorted by start time
+	 */
+	private static List<ScheduledPass> merge(List<ScheduledPass> a, List<ScheduledPass> b) {
+		List<ScheduledPass> merged = new ArrayList<ScheduledPass>(a.size() + b.size());
+		int i = 0, j = 0;
+		while (i < a.size() && j < b.size()) {
+			merged.add(a.get(i).getStartTime() <= b.get(j).getStartTime() ? a.get(i++) : b.get(j++));
+		}
+		merged.addAll(a.subList(i, a.size()));
+		merged.addAll(b.subList(j, b.size()));
+		return merged;
+	}
+
+	/**
+	 * Sweep through the timeline, keeping track of the passes in progress over each ground station
+	 */
+	private List<Conflict> findConflicts(List<ScheduledPass> passes) {
+		List<Conflict> conflicts = new ArrayList<Conflict>();
+		List<LinkedList<ScheduledPass>> inProgress = new ArrayList<LinkedList<ScheduledPass>>();
+		for (int i = 0; i < stations.size(); i++) {
+			inProgress.add(new LinkedList<ScheduledPass>());
+		}
+
+		for (ScheduledPass pass : passes) {
+			LinkedList<ScheduledPass> active = inProgress.get(stations.indexOf(pass.getGroundStation()));
+			Iterator<ScheduledPass> iter = active.iterator();
+			while (iter.hasNext()) {
+				ScheduledPass other = iter.next();
+				if (other.getEndTime() <= pass.getStartTime()) {
+					iter.remove();
+				} else {
+					conflicts.add(new Conflict(other, pass));
+				}
+			}
+			active.add(pass);
+		}
+
+		return conflicts;
+	}
+}
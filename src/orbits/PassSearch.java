@@ -0,0 +1,333 @@
+package orbits;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatNotFoundException;
+import uk.me.g4dpz.satellite.SatPassTime;
+import uk.me.g4dpz.satellite.SatPos;
+import uk.me.g4dpz.satellite.Satellite;
+import uk.me.g4dpz.satellite.SatelliteFactory;
+import uk.me.g4dpz.satellite.TLE;
+
+/**
+ * Finds satellite passes and samples their positions with as few SGP4 propagations as possible. Below the horizon the search steps as far
+ * ahead as the satellite's orbital rate allows without skipping a rise. AOS and LOS are then bracketed with coarse steps and refined by
+ * bisection, and the time of closest approach is found with a golden-section search. Positions are sampled by subdividing the pass only
+ * where a straight line between samples would be off by more than the tolerance, so samples bunch up near zenith, where the satellite moves
+ * fastest across the sky, and spread out near the horizon.<br/>
+ * <br/>
+ * Not thread safe - each thread needs its own PassSearch.
+ *
+ * @author Adam Campbell
+ */
+public class PassSearch {
+	/**
+	 * How closely AOS, LOS and TCA are found, in ms
+	 */
+	public static final long TIME_TOLERANCE = 1000L;
+
+	/**
+	 * The default longest time between samples, in seconds
+	 */
+	public static final int DEFAULT_MAX_SAMPLE_STEP = 60;
+
+	/**
+	 * The default largest pointing error allowed between samples, in degrees
+	 */
+	public static final double DEFAULT_SAMPLE_TOLERANCE = 0.25;
+
+	/**
+	 * The furthest ahead a search looks for a pass before giving up, in ms
+	 */
+	private static final long SEARCH_LIMIT = TimeUnit.DAYS.toMillis(30);
+
+	/**
+	 * The shortest step taken while searching, in ms - a pass shorter than this may be missed
+	 */
+	private static final long MIN_STEP = 5000L;
+
+	/**
+	 * The gap left after the end of a pass before searching for the next one, in ms
+	 */
+	private static final long PASS_GAP_MILLIS = 1000L;
+
+	/**
+	 * The golden ratio's reciprocal, for the golden-section search
+	 */
+	private static final double INV_PHI = (Math.sqrt(5) - 1) / 2;
+
+	private final Satellite satellite;
+	private final GroundStationPosition gsp;
+
+	/**
+	 * The fastest the elevation can change while the satellite is below the horizon, in radians per ms. This is about the satellite's
+	 * angular rate around the Earth, plus the Earth's rotation, with a factor of two to spare.
+	 */
+	private final double maxBelowHorizonRate;
+
+	/**
+	 * The step taken while the satellite is above the horizon, looking for LOS, in ms
+	 */
+	private final long aboveHorizonStep;
+
+	/**
+	 * The number of SGP4 propagations done so far
+	 */
+	private long propagations = 0;
+
+	/**
+	 * Construct a new pass search
+	 *
+	 * @param tle
+	 *            The satellite's TLE
+	 * @param gsp
+	 *            The ground station
+	 * @throws SatNotFoundException
+	 *             If the satellite will never be seen from the ground station
+	 */
+	public PassSearch(TLE tle, GroundStationPosition gsp) throws SatNotFoundException {
+		if (tle == null || gsp == null) {
+			throw new IllegalArgumentException("TLE and ground station cannot be null!");
+		}
+
+		this.satellite = SatelliteFactory.createSatellite(tle);
+		this.gsp = gsp;
+		if (satellite == null) {
+			throw new SatNotFoundException("Satellite has not been created");
+		} else if (!satellite.willBeSeen(gsp)) {
+			throw new SatNotFoundException("Satellite will never appear above the horizon");
+		}
+
+		double periodMillis = TimeUnit.DAYS.toMillis(1) / tle.getMeanmo();
+		maxBelowHorizonRate = 2 * (2 * Math.PI / periodMillis + 2 * Math.PI / TimeUnit.DAYS.toMillis(1));
+		aboveHorizonStep = Math.max(MIN_STEP, (long) (periodMillis / 200));
+	}
+
+	/**
+	 * @return The number of SGP4 propagations done so far
+	 */
+	public long getPropagationCount() {
+		return propagations;
+	}
+
+	/**
+	 * Find the next pass that starts after the given date and gets at least minElev degrees above the horizon. If the satellite is already
+	 * up at the given date, that pass is skipped, the same as PassPredictor.nextSatPass().
+	 *
+	 * @param date
+	 *            The date to search from
+	 * @param minElev
+	 *            The minimum elevation of the pass, in degrees
+	 * @return The pass
+	 * @throws SatNotFoundException
+	 *             If no such pass comes within the search limit, or the satellite stays up past it (e.g. a geostationary satellite)
+	 */
+	public SatPassTime nextPass(Date date, double minElev) throws SatNotFoundException {
+		long limit = date.getTime() + SEARCH_LIMIT;
+		long t = date.getTime();
+		SatPos pos = position(t);
+
+		// Let the pass in progress finish first
+		while (pos.getElevation() > 0) {
+			if (t >= limit) {
+				throw new SatNotFoundException("Satellite doesn't set before " + new Date(limit));
+			}
+			t += aboveHorizonStep;
+			pos = position(t);
+		}
+
+		while (t < limit) {
+			// Step ahead until the satellite is up, never further than it could have risen in the meantime
+			long below = t;
+			while (pos.getElevation() <= 0) {
+				if (t >= limit) {
+					throw new SatNotFoundException("No pass found before " + new Date(limit));
+				}
+				below = t;
+				t += Math.max(MIN_STEP, (long) (-pos.getElevation() / maxBelowHorizonRate));
+				pos = position(t);
+			}
+			long aos = findHorizonCrossing(below, t, false);
+
+			// Step ahead until it's down again
+			long above = t;
+			while (pos.getElevation() > 0) {
+				if (t >= limit) {
+					throw new SatNotFoundException("Satellite doesn't set before " + new Date(limit));
+				}
+				above = t;
+				t += aboveHorizonStep;
+				pos = position(t);
+			}
+			long los = findHorizonCrossing(above, t, true);
+
+			long tca = findMaxElevation(aos, los);
+			SatPos tcaPos = position(tca);
+			double maxEl = Math.toDegrees(tcaPos.getElevation());
+			if (maxEl >= minElev) {
+				SatPos aosPos = position(aos);
+				SatPos losPos = position(los);
+				String polePassed = findPolePassed(aosPos, tcaPos, losPos);
+				return new SatPassTime(new Date(aos), new Date(los), new Date(tca), polePassed, (int) Math.toDegrees(aosPos.getAzimuth()),
+						(int) Math.toDegrees(losPos.getAzimuth()), maxEl);
+			}
+
+			// Too low, try the next one
+			t = los + PASS_GAP_MILLIS;
+			pos = position(t);
+		}
+
+		throw new SatNotFoundException("No pass found before " + new Date(limit));
+	}
+
+	/**
+	 * Sample the satellite's positions over a pass. Samples are placed so that a straight line between any two neighbouring ones is never
+	 * more than the tolerance off from where the satellite actually is.
+	 *
+	 * @param spt
+	 *            The pass
+	 * @param maxStepSeconds
+	 *            The longest time between samples, in seconds
+	 * @param tolerance
+	 *            The largest pointing error allowed between samples, in degrees
+	 * @return The trajectory, from AOS to LOS
+	 */
+	public PassTrajectory samplePass(SatPassTime spt, int maxStepSeconds, double tolerance) {
+		if (maxStepSeconds <= 0) {
+			throw new IllegalArgumentException("Invalid max step: " + maxStepSeconds);
+		}
+
+		long start = spt.getStartTime().getTime();
+		long end = spt.getEndTime().getTime();
+		long maxStep = TimeUnit.SECONDS.toMillis(maxStepSeconds);
+		double toleranceRad = Math.toRadians(tolerance);
+
+		PassTrajectory.Builder samples = new PassTrajectory.Builder((int) ((end - start) / maxStep) * 2 + 2);
+		SatPos prev = position(start);
+		samples.add(prev, true);
+		for (long t = start; t < end;) {
+			long next = Math.min(end, t + maxStep);
+			SatPos nextPos = position(next);
+			subdivide(t, prev, next, nextPos, toleranceRad, samples);
+			t = next;
+			prev = nextPos;
+		}
+
+		return samples.build();
+	}
+
+	/**
+	 * Add the samples needed between two positions, then the second position, to the trajectory
+	 */
+	private void subdivide(long t1, SatPos p1, long t2, SatPos p2, double toleranceRad, PassTrajectory.Builder samples) {
+		if (t2 - t1 > TIME_TOLERANCE) {
+			long mid = (t1 + t2) / 2;
+			SatPos midPos = position(mid);
+
+			// Where a straight line between the ends puts the satellite halfway
+			double az = p1.getAzimuth() + wrap(p2.getAzimuth() - p1.getAzimuth()) / 2;
+			double el = (p1.getElevation() + p2.getElevation()) / 2;
+			if (separation(az, el, midPos.getAzimuth(), midPos.getElevation()) > toleranceRad) {
+				subdivide(t1, p1, mid, midPos, toleranceRad, samples);
+				subdivide(mid, midPos, t2, p2, toleranceRad, samples);
+				return;
+			}
+		}
+
+		samples.add(p2, true);
+	}
+
+	/**
+	 * Find the time the satellite crosses the horizon between two times, one with it up and one with it down
+	 */
+	private long findHorizonCrossing(long t1, long t2, boolean upAtStart) {
+		while (t2 - t1 > TIME_TOLERANCE) {
+			long mid = (t1 + t2) / 2;
+			if ((position(mid).getElevation() > 0) == upAtStart) {
+				t1 = mid;
+			} else {
+				t2 = mid;
+			}
+		}
+
+		// Round towards the time the satellite is up
+		return upAtStart ? t1 : t2;
+	}
+
+	/**
+	 * Find the time of highest elevation between AOS and LOS with a golden-section search
+	 */
+	private long findMaxElevation(long aos, long los) {
+		double a = aos;
+		double b = los;
+		double c = b - INV_PHI * (b - a);
+		double d = a + INV_PHI * (b - a);
+		double fc = position((long) c).getElevation();
+		double fd = position((long) d).getElevation();
+		while (b - a > TIME_TOLERANCE) {
+			if (fc > fd) {
+				b = d;
+				d = c;
+				fd = fc;
+				c = b - INV_PHI * (b - a);
+				fc = position((long) c).getElevation();
+			} else {
+				a = c;
+				c = d;
+				fc = fd;
+				d = a + INV_PHI * (b - a);
+				fd = position((long) d).getElevation();
+			}
+		}
+
+		return (long) ((a + b) / 2);
+	}
+
+	/**
+	 * Work out which pole, if either, the satellite passes between AOS and LOS, the way PassPredictor does
+	 */
+	private static String findPolePassed(SatPos aos, SatPos tca, SatPos los) {
+		double az1 = Math.toDegrees(aos.getAzimuth());
+		double az2 = Math.toDegrees(tca.getAzimuth());
+		double az3 = Math.toDegrees(los.getAzimuth());
+
+		// Azimuth only ever sweeps one way during a pass, so it passes north if it wraps around 0 and south if it crosses 180
+		boolean clockwise = wrap(Math.toRadians(az2 - az1)) + wrap(Math.toRadians(az3 - az2)) > 0;
+		double sweep = clockwise ? (az3 - az1 + 360) % 360 : (az1 - az3 + 360) % 360;
+		double toNorth = clockwise ? (360 - az1) % 360 : az1;
+		double toSouth = clockwise ? (180 - az1 + 360) % 360 : (az1 - 180 + 360) % 360;
+		if (toNorth > 0 && toNorth < sweep) {
+			return "north";
+		} else if (toSouth > 0 && toSouth < sweep) {
+			return "south";
+		}
+
+		return "none";
+	}
+
+	private SatPos position(long time) {
+		propagations++;
+		return satellite.getPosition(gsp, new Date(time));
+	}
+
+	/**
+	 * Wrap an angle difference into [-PI, PI)
+	 */
+	private static double wrap(double angle) {
+		angle = (angle + Math.PI) % (2 * Math.PI);
+		if (angle < 0) {
+			angle += 2 * Math.PI;
+		}
+		return angle - Math.PI;
+	}
+
+	/**
+	 * The angle between two directions in the sky, in radians
+	 */
+	private static double separation(double az1, double el1, double az2, double el2) {
+		double cos = Math.sin(el1) * Math.sin(el2) + Math.cos(el1) * Math.cos(el2) * Math.cos(az1 - az2);
+		return Math.acos(Math.max(-1, Math.min(1, cos)));
+	}
+}
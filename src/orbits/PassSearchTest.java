@@ -0,0 +1,64 @@
+package orbits;
+
+import java.util.Date;
+
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatNotFoundException;
+import uk.me.g4dpz.satellite.SatPassTime;
+import uk.me.g4dpz.satellite.TLE;
+
+/**
+ * Runs PassSearch over Ames for a low orbit satellite, which must come back with a pass, and for a geostationary one that sits 40 degrees up
+ * and never sets, which must give up at the search limit instead of searching forever.
+ *
+ * @author Adam Campbell
+ */
+public class PassSearchTest {
+	private static final GroundStationPosition AMES = new GroundStationPosition(42.03472, -93.62, 287);
+
+	private static final String[] ISS = { "ISS (ZARYA)", "1 25544U 98067A   08264.51782528 -.00002182  00000-0 -11606-4 0  2927",
+			"2 25544  51.6416 247.4627 0006703 130.5360 325.0288 15.72125391563537" };
+	private static final long ISS_EPOCH = 1221912000000L; // 2008-09-20 12:00 UTC
+
+	private static final String[] GEO = { "GEO TEST", "1 99999U 16071A   23001.50000000 -.00000100  00000-0  00000-0 0  9993",
+			"2 99999   0.0500 180.0000 0001000  90.0000 270.0000  1.00270000 22004" };
+	private static final long GEO_EPOCH = 1672574400000L; // 2023-01-01 12:00 UTC
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		try {
+			PassSearch iss = new PassSearch(new TLE(ISS), AMES);
+			SatPassTime spt = iss.nextPass(new Date(ISS_EPOCH), 0);
+			System.out.println("Next pass of " + ISS[0] + ": " + spt.getStartTime() + " to " + spt.getEndTime() + ", max el "
+					+ String.format("%.2f", spt.getMaxEl()));
+			check("Pass found after the search date", spt.getStartTime().getTime() > ISS_EPOCH);
+			check("AOS before TCA before LOS", spt.getStartTime().before(spt.getTCA()) && spt.getTCA().before(spt.getEndTime()));
+			check("Pass goes above the horizon", spt.getMaxEl() > 0);
+
+			PassSearch geo = new PassSearch(new TLE(GEO), AMES);
+			long start = System.currentTimeMillis();
+			try {
+				spt = geo.nextPass(new Date(GEO_EPOCH), 0);
+				check("Satellite that never sets has no pass, but got " + spt.getStartTime(), false);
+			} catch (SatNotFoundException e) {
+				System.out.println(GEO[0] + ": " + e.getMessage() + " (" + (System.currentTimeMillis() - start) + " ms, "
+						+ geo.getPropagationCount() + " propagations)");
+				check("Satellite that never sets has no pass", true);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			failures++;
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "PASSED: " : "FAILED: ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
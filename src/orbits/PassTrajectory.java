@@ -0,0 +1,307 @@
+package orbits;
+
+import java.util.Arrays;
+import java.util.List;
+
+import uk.me.g4dpz.satellite.SatPos;
+
+/**
+ * A satellite's path across the sky during a pass, stored as parallel primitive arrays (time, azimuth, elevation, range, range rate) rather
+ * than a list of SatPos objects. Angles are in degrees, range in km and range rate in km/s. Samples don't need to be evenly spaced - the
+ * position at any time in between is interpolated.<br/>
+ * <br/>
+ * A trajectory never changes once built, so views of part of it (like the part above some elevation) share its arrays instead of copying
+ * them.
+ *
+ * @author Adam Campbell
+ */
+public class PassTrajectory {
+	/**
+	 * Builds a trajectory one sample at a time
+	 */
+	public static class Builder {
+		private long[] epochMillis;
+		private double[] az;
+		private double[] el;
+		private double[] range;
+		private double[] rangeRate;
+		private int size = 0;
+
+		public Builder(int initialCapacity) {
+			int capacity = Math.max(1, initialCapacity);
+			epochMillis = new long[capacity];
+			az = new double[capacity];
+			el = new double[capacity];
+			range = new double[capacity];
+			rangeRate = new double[capacity];
+		}
+
+		/**
+		 * Add a sample, which must not be earlier than the last one
+		 *
+		 * @param time
+		 *            The time of the sample, in ms since the epoch
+		 * @param azimuth
+		 *            Azimuth, in degrees
+		 * @param elevation
+		 *            Elevation, in degrees
+		 * @param range
+		 *            Range, in km
+		 * @param rangeRate
+		 *            Range rate, in km/s
+		 * @return This builder
+		 */
+		public Builder add(long time, double azimuth, double elevation, double range, double rangeRate) {
+			if (size > 0 && time < epochMillis[size - 1]) {
+				throw new IllegalArgumentException("Samples must be added in time order!");
+			}
+
+			if (size == epochMillis.length) {
+				int capacity = size * 2;
+				epochMillis = Arrays.copyOf(epochMillis, capacity);
+				az = Arrays.copyOf(az, capacity);
+				el = Arrays.copyOf(el, capacity);
+				this.range = Arrays.copyOf(this.range, capacity);
+				this.rangeRate = Arrays.copyOf(this.rangeRate, capacity);
+			}
+
+			epochMillis[size] = time;
+			az[size] = azimuth;
+			el[size] = elevation;
+			this.range[size] = range;
+			this.rangeRate[size] = rangeRate;
+			size++;
+			return this;
+		}
+
+		/**
+		 * Add a position from the predictor
+		 *
+		 * @param satPos
+		 *            The position
+		 * @param inRad
+		 *            Whether the position's azimuth and elevation are in radians rather than degrees
+		 * @return This builder
+		 */
+		public Builder add(SatPos satPos, boolean inRad) {
+			double azimuth = inRad ? Math.toDegrees(satPos.getAzimuth()) : satPos.getAzimuth();
+			double elevation = inRad ? Math.toDegrees(satPos.getElevation()) : satPos.getElevation();
+			return add(satPos.getTime().getTime(), azimuth, elevation, satPos.getRange(), satPos.getRangeRate());
+		}
+
+		public PassTrajectory build() {
+			return new PassTrajectory(Arrays.copyOf(epochMillis, size), Arrays.copyOf(az, size), Arrays.copyOf(el, size), Arrays.copyOf(
+					range, size), Arrays.copyOf(rangeRate, size), 0, size);
+		}
+	}
+
+	private final long[] epochMillis;
+	private final double[] az;
+	private final double[] el;
+	private final double[] range;
+	private final double[] rangeRate;
+
+	/**
+	 * The part of the arrays this trajectory covers
+	 */
+	private final int offset;
+	private final int length;
+
+	private PassTrajectory(long[] epochMillis, double[] az, double[] el, double[] range, double[] rangeRate, int offset, int length) {
+		this.epochMillis = epochMillis;
+		this.az = az;
+		this.el = el;
+		this.range = range;
+		this.rangeRate = rangeRate;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Build a trajectory from a list of positions from the predictor
+	 *
+	 * @param positions
+	 *            The positions, in time order
+	 * @param inRad
+	 *            Whether the positions' azimuths and elevations are in radians rather than degrees
+	 * @return The trajectory
+	 */
+	public static PassTrajectory fromPositions(List<SatPos> positions, boolean inRad) {
+		Builder builder = new Builder(positions.size());
+		for (SatPos satPos : positions) {
+			builder.add(satPos, inRad);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * @return The number of samples
+	 */
+	public int size() {
+		return length;
+	}
+
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	public long getTime(int i) {
+		return epochMillis[index(i)];
+	}
+
+	public double getAzimuth(int i) {
+		return az[index(i)];
+	}
+
+	public double getElevation(int i) {
+		return el[index(i)];
+	}
+
+	public double getRange(int i) {
+		return range[index(i)];
+	}
+
+	public double getRangeRate(int i) {
+		return rangeRate[index(i)];
+	}
+
+	public long getStartTime() {
+		return getTime(0);
+	}
+
+	public long getEndTime() {
+		return getTime(length - 1);
+	}
+
+	/**
+	 * Get a view of some of the samples, sharing this trajectory's arrays
+	 *
+	 * @param from
+	 *            The first sample, inclusive
+	 * @param to
+	 *            The last sample, exclusive
+	 * @return The view
+	 */
+	public PassTrajectory subRange(int from, int to) {
+		if (from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid range: " + from + " - " + to + " of " + length);
+		}
+
+		return new PassTrajectory(epochMillis, az, el, range, rangeRate, offset + from, to - from);
+	}
+
+	/**
+	 * Get a view of the part of the pass that's at least minElev degrees up, from the first sample that high to the last, sharing this
+	 * trajectory's arrays
+	 *
+	 * @param minElev
+	 *            The minimum elevation, in degrees
+	 * @return The view - empty if the pass never gets that high
+	 */
+	public PassTrajectory aboveElevation(double minElev) {
+		int from = 0;
+		while (from < length && el[offset + from] < minElev) {
+			from++;
+		}
+
+		int to = length;
+		while (to > from && el[offset + to - 1] < minElev) {
+			to--;
+		}
+
+		return subRange(from, to);
+	}
+
+	/**
+	 * Interpolate the azimuth at a time, taking the short way around north. Times outside the trajectory get the nearest end's azimuth.
+	 *
+	 * @param time
+	 *            The time, in ms since the epoch
+	 * @return The azimuth, in degrees
+	 */
+	public double getAzimuthAt(long time) {
+		int i = segment(time);
+		double f = fraction(i, time);
+		if (f == 0) {
+			return az[i];
+		}
+
+		double dAz = ((az[i + 1] - az[i]) % 360 + 540) % 360 - 180;
+		return (az[i] + f * dAz + 360) % 360;
+	}
+
+	/**
+	 * Interpolate the elevation at a time. Times outside the trajectory get the nearest end's elevation.
+	 *
+	 * @param time
+	 *            The time, in ms since the epoch
+	 * @return The elevation, in degrees
+	 */
+	public double getElevationAt(long time) {
+		return interpolate(el, time);
+	}
+
+	/**
+	 * Interpolate the range at a time. Times outside the trajectory get the nearest end's range.
+	 *
+	 * @param time
+	 *            The time, in ms since the epoch
+	 * @return The range, in km
+	 */
+	public double getRangeAt(long time) {
+		return interpolate(range, time);
+	}
+
+	/**
+	 * Interpolate the range rate at a time. Times outside the trajectory get the nearest end's range rate.
+	 *
+	 * @param time
+	 *            The time, in ms since the epoch
+	 * @return The range rate, in km/s
+	 */
+	public double getRangeRateAt(long time) {
+		return interpolate(rangeRate, time);
+	}
+
+	private double interpolate(double[] values, long time) {
+		int i = segment(time);
+		double f = fraction(i, time);
+		return f == 0 ? values[i] : values[i] + f * (values[i + 1] - values[i]);
+	}
+
+	/**
+	 * Find the array index of the sample at or before a time, clamped to the trajectory
+	 */
+	private int segment(long time) {
+		if (length == 0) {
+			throw new IllegalStateException("Trajectory is empty!");
+		}
+
+		int i = Arrays.binarySearch(epochMillis, offset, offset + length, time);
+		if (i < 0) {
+			i = -i - 2;
+		}
+
+		return Math.max(offset, Math.min(offset + length - 1, i));
+	}
+
+	/**
+	 * How far a time is between the sample at an array index and the next one, from 0 to 1
+	 */
+	private double fraction(int i, long time) {
+		if (i + 1 >= offset + length || time <= epochMillis[i]) {
+			return 0;
+		}
+
+		return Math.min(1, (double) (time - epochMillis[i]) / (epochMillis[i + 1] - epochMillis[i]));
+	}
+
+	private int index(int i) {
+		if (i < 0 || i >= length) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + length);
+		}
+
+		return offset + i;
+	}
+}
@@ -0,0 +1,251 @@
+package orbits;
+
+import java.util.Arrays;
+
+/**
+ * The positions to send the antenna rotator during a pass, each tagged with the time to send it. Positions are in the rotator's frame
+ * (azimuth turned 180 degrees from true azimuth, see TrackingEngine) as whole degrees, stored as parallel primitive arrays, and each one is
+ * already encoded as the GS-232A command that moves the rotator there, ready to be written to the serial port as it is.<br/>
+ * <br/>
+ * Setpoints are compiled from a trajectory by a Compiler, which drops any that are within a deadband of the last one kept, so the rotator is
+ * never told to make a move too small to matter. If the pass would make the rotator cross its end stop - swinging all the way round in the
+ * middle of the pass - the compiler can flip the pass instead: turn the azimuth another 180 degrees and bring the elevation over the top,
+ * past 90 degrees, which points the antenna the same way without crossing the end stop.
+ *
+ * @author Adam Campbell
+ */
+public class RotatorSetpoints {
+	/**
+	 * Compiles a trajectory into setpoints
+	 */
+	public static class Compiler {
+		/**
+		 * The default deadband, in degrees. A setpoint is only kept if its azimuth or elevation is at least this far from the last one.
+		 */
+		public static final int DEFAULT_DEADBAND = 1;
+
+		private int deadband = DEFAULT_DEADBAND;
+		private boolean flipAllowed = true;
+
+		/**
+		 * @param deadband
+		 *            How far the azimuth or elevation must move from the last setpoint kept before another is, in degrees
+		 * @return This compiler
+		 */
+		public Compiler setDeadband(int deadband) {
+			if (deadband < 1) {
+				throw new IllegalArgumentException("Invalid deadband: " + deadband);
+			}
+
+			this.deadband = deadband;
+			return this;
+		}
+
+		public int getDeadband() {
+			return deadband;
+		}
+
+		/**
+		 * @param flipAllowed
+		 *            Whether passes that cross the rotator's end stop may be flipped, with the elevation going over 90 degrees
+		 * @return This compiler
+		 */
+		public Compiler setFlipAllowed(boolean flipAllowed) {
+			this.flipAllowed = flipAllowed;
+			return this;
+		}
+
+		public boolean isFlipAllowed() {
+			return flipAllowed;
+		}
+
+		/**
+		 * Compile the setpoints for a pass, sampling the trajectory every timeStep seconds from baseTime to LOS. The first and last samples
+		 * are always kept.
+		 *
+		 * @param trajectory
+		 *            The pass trajectory
+		 * @param baseTime
+		 *            The time of the first sample, in ms since the epoch
+		 * @param timeStep
+		 *            The time between samples, in seconds
+		 * @return The setpoints
+		 */
+		public RotatorSetpoints compile(PassTrajectory trajectory, long baseTime, int timeStep) {
+			if (timeStep <= 0) {
+				throw new IllegalArgumentException("Invalid time step: " + timeStep);
+			}
+
+			long endTime = trajectory.getEndTime();
+			int nSamples = trajectory.isEmpty() || baseTime > endTime ? 0 : (int) ((endTime - baseTime) / (timeStep * 1000L)) + 1;
+
+			// Sample the trajectory in the rotator's frame
+			long[] times = new long[nSamples];
+			double[] az = new double[nSamples];
+			double[] el = new double[nSamples];
+			for (int i = 0; i < nSamples; i++) {
+				times[i] = baseTime + i * timeStep * 1000L;
+				az[i] = (trajectory.getAzimuthAt(times[i]) + 180) % 360;
+				el[i] = Math.max(0, Math.min(90, trajectory.getElevationAt(times[i])));
+			}
+
+			// Flip the pass if that stops it crossing the end stop
+			boolean flipped = false;
+			if (flipAllowed && countEndStopCrossings(az, false) > countEndStopCrossings(az, true)) {
+				flipped = true;
+				for (int i = 0; i < nSamples; i++) {
+					az[i] = (az[i] + 180) % 360;
+					el[i] = 180 - el[i];
+				}
+			}
+
+			// Keep only the setpoints that move far enough
+			long[] keptTimes = new long[nSamples];
+			short[] keptAz = new short[nSamples];
+			short[] keptEl = new short[nSamples];
+			int size = 0;
+			for (int i = 0; i < nSamples; i++) {
+				short azimuth = (short) Math.round(az[i]);
+				short elevation = (short) Math.round(el[i]);
+				boolean moved = size == 0 || Math.abs(azimuth - keptAz[size - 1]) >= deadband
+						|| Math.abs(elevation - keptEl[size - 1]) >= deadband;
+				boolean last = i == nSamples - 1 && size > 0 && (azimuth != keptAz[size - 1] || elevation != keptEl[size - 1]);
+				if (moved || last) {
+					keptTimes[size] = times[i];
+					keptAz[size] = azimuth;
+					keptEl[size] = elevation;
+					size++;
+				}
+			}
+
+			return new RotatorSetpoints(Arrays.copyOf(keptTimes, size), Arrays.copyOf(keptAz, size), Arrays.copyOf(keptEl, size), flipped,
+					nSamples);
+		}
+
+		/**
+		 * Count how many times the rotator would have to swing round past its end stop (at 0/360 degrees) to follow the azimuths
+		 */
+		private static int countEndStopCrossings(double[] az, boolean flip) {
+			int crossings = 0;
+			for (int i = 1; i < az.length; i++) {
+				double from = flip ? (az[i - 1] + 180) % 360 : az[i - 1];
+				double to = flip ? (az[i] + 180) % 360 : az[i];
+				if (Math.abs(to - from) > 180) {
+					crossings++;
+				}
+			}
+			return crossings;
+		}
+	}
+
+	private final long[] times;
+	private final short[] azimuths;
+	private final short[] elevations;
+	private final byte[][] frames;
+	private final boolean flipped;
+	private final int nSamples;
+
+	private RotatorSetpoints(long[] times, short[] azimuths, short[] elevations, boolean flipped, int nSamples) {
+		this.times = times;
+		this.azimuths = azimuths;
+		this.elevations = elevations;
+		this.flipped = flipped;
+		this.nSamples = nSamples;
+
+		frames = new byte[times.length][];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = encodeMove(azimuths[i], elevations[i]);
+		}
+	}
+
+	/**
+	 * Encode the GS-232A command that moves the rotator to a position, <i>Waaa eee</i> followed by a carriage return
+	 *
+	 * @param azimuth
+	 *            The azimuth, in degrees in the rotator's frame [0, 360]
+	 * @param elevation
+	 *            The elevation, in degrees [0, 180]
+	 * @return The command, as written to the serial port
+	 */
+	public static byte[] encodeMove(int azimuth, int elevation) {
+		if (azimuth < 0 || azimuth > 360) {
+			throw new IllegalArgumentException("Invalid Azimuth value!");
+		} else if (elevation < 0 || elevation > 180) {
+			throw new IllegalArgumentException("Invalid Elevation value!");
+		}
+
+		return new byte[] { 'W', digit(azimuth / 100), digit(azimuth / 10), digit(azimuth), ' ', digit(elevation / 100),
+				digit(elevation / 10), digit(elevation), '\r' };
+	}
+
+	private static byte digit(int value) {
+		return (byte) ('0' + value % 10);
+	}
+
+	/**
+	 * @return The number of setpoints
+	 */
+	public int size() {
+		return times.length;
+	}
+
+	public boolean isEmpty() {
+		return times.length == 0;
+	}
+
+	/**
+	 * @return The number of samples the setpoints were compiled from, before the deadband dropped any
+	 */
+	public int getSampleCount() {
+		return nSamples;
+	}
+
+	/**
+	 * @return Whether the pass was flipped to stay clear of the end stop, so the elevation goes over 90 degrees
+	 */
+	public boolean isFlipped() {
+		return flipped;
+	}
+
+	/**
+	 * @return When to send a setpoint, in ms since the epoch
+	 */
+	public long getTime(int i) {
+		return times[i];
+	}
+
+	/**
+	 * @return A setpoint's azimuth, in degrees in the rotator's frame
+	 */
+	public int getAzimuth(int i) {
+		return azimuths[i];
+	}
+
+	/**
+	 * @return A setpoint's elevation, in degrees
+	 */
+	public int getElevation(int i) {
+		return elevations[i];
+	}
+
+	/**
+	 * Get the GS-232A command for a setpoint. The array is shared, so it mustn't be changed.
+	 *
+	 * @return The command, as written to the serial port
+	 */
+	public byte[] getFrame(int i) {
+		return frames[i];
+	}
+
+	/**
+	 * Find the setpoint in effect at a time: the last one due at or before it
+	 *
+	 * @param time
+	 *            The time, in ms since the epoch
+	 * @return The setpoint's index, or -1 if the first one isn't due yet
+	 */
+	public int indexAt(long time) {
+		int i = Arrays.binarySearch(times, time);
+		return i >= 0 ? i : -i - 2;
+	}
+}
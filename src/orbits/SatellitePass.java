@@ -1,6 +1,5 @@
 package orbits;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import uk.me.g4dpz.satellite.GroundStationPosition;
@@ -9,7 +8,7 @@ import uk.me.g4dpz.satellite.SatPos;
 
 public class SatellitePass {
 	private CelestrakSatellite satellite;
-	private List<SatPos> passPoints;
+	private PassTrajectory trajectory;
 	private int timeStep;
 	private GroundStationPosition groundStation;
 	private SatPassTime spt;
@@ -20,15 +19,16 @@ public class SatellitePass {
 
 	public SatellitePass(CelestrakSatellite satellite, List<SatPos> passPoints, boolean inRad, int timeStep,
 			GroundStationPosition groundStation, SatPassTime spt) {
+		this(satellite, PassTrajectory.fromPositions(passPoints, inRad), timeStep, groundStation, spt);
+	}
+
+	public SatellitePass(CelestrakSatellite satellite, PassTrajectory trajectory, int timeStep, GroundStationPosition groundStation,
+			SatPassTime spt) {
 		this.satellite = satellite;
+		this.trajectory = trajectory;
 		this.timeStep = timeStep;
 		this.groundStation = groundStation;
 		this.spt = spt;
-
-		if (inRad) {
-			radToDegrees(passPoints);
-		}
-		this.passPoints = passPoints;
 	}
 
 	public SatPassTime getSatPassTime() {
@@ -47,26 +47,24 @@ public class SatellitePass {
 		this.satellite = satellite;
 	}
 
-	public List<SatPos> getPassPoints() {
-		return passPoints;
+	/**
+	 * @return The satellite's path across the sky, in degrees
+	 */
+	public PassTrajectory getTrajectory() {
+		return trajectory;
 	}
 
-	public List<SatPos> getPassPoints(double minElev) {
-		List<SatPos> ret = new ArrayList<>();
-		for (SatPos sp : passPoints) {
-			if (sp.getElevation() >= minElev) {
-				ret.add(sp);
-			}
-		}
-
-		return ret;
+	/**
+	 * @param minElev
+	 *            The minimum elevation, in degrees
+	 * @return The part of the satellite's path that's at least minElev degrees up - a view, not a copy
+	 */
+	public PassTrajectory getTrajectory(double minElev) {
+		return trajectory.aboveElevation(minElev);
 	}
 
-	public void setPassPoints(List<SatPos> passPoints, boolean inRad) {
-		if (inRad) {
-			radToDegrees(passPoints);
-		}
-		this.passPoints = passPoints;
+	public void setTrajectory(PassTrajectory trajectory) {
+		this.trajectory = trajectory;
 	}
 
 	public long getBaseTime() {
@@ -92,11 +90,4 @@ public class SatellitePass {
 	public void setGroundStation(GroundStationPosition groundStation) {
 		this.groundStation = groundStation;
 	}
-
-	private static void radToDegrees(List<SatPos> list) {
-		for (int i = 0; i < list.size(); i++) {
-			list.get(i).setElevation(Math.toDegrees(list.get(i).getElevation()));
-			list.get(i).setAzimuth(Math.toDegrees(list.get(i).getAzimuth()));
-		}
-	}
 }
@@ -0,0 +1,571 @@
+package orbits;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.me.g4dpz.satellite.TLE;
+
+/**
+ * A local store of the TLE pages listed in res/satellites.txt. Each page is kept on disk along with its Last-Modified and ETag headers, and
+ * indexed in memory by satellite name and NORAD catalog number, so looking up a TLE never touches the network. Pages are refreshed with a
+ * conditional GET once they're older than the max age; until the refresh comes back, lookups keep getting the stale copy
+ * (stale-while-revalidate). Only a page that has never been downloaded is fetched while the caller waits.
+ *
+ * @author Adam Campbell
+ */
+public class TLECatalog {
+	/**
+	 * The TLEs from one page, indexed by name and catalog number. Never changed once built - a refresh swaps in a new one.
+	 */
+	private static class Index {
+		private final Map<String, TLE> byName;
+		private final Map<Integer, TLE> byCatnum;
+		private final List<TLE> tles;
+
+		public Index(List<TLE> tles) {
+			Map<String, TLE> byName = new HashMap<String, TLE>();
+			Map<Integer, TLE> byCatnum = new HashMap<Integer, TLE>();
+			for (TLE tle : tles) {
+				byName.put(tle.getName().trim(), tle);
+				byCatnum.put(tle.getCatnum(), tle);
+			}
+
+			this.byName = Collections.unmodifiableMap(byName);
+			this.byCatnum = Collections.unmodifiableMap(byCatnum);
+			this.tles = Collections.unmodifiableList(tles);
+		}
+	}
+
+	/**
+	 * What's known about one TLE page
+	 */
+	private class Page {
+		private final String url;
+		private final File dataFile;
+		private final File metaFile;
+
+		/**
+		 * The current index, and when it was last confirmed against the server
+		 */
+		private volatile Index index;
+		private volatile long fetchedAt = 0;
+
+		/**
+		 * When a download was last tried, successful or not
+		 */
+		private volatile long attemptedAt = 0;
+		private String lastModified;
+		private String etag;
+
+		/**
+		 * Whether a refresh is already under way
+		 */
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+		public Page(String url) {
+			this.url = url;
+			String fileName = url.replaceAll("^[a-zA-Z]+://", "").replaceAll("[^a-zA-Z0-9._-]", "_");
+			this.dataFile = new File(cacheDir, fileName);
+			this.metaFile = new File(cacheDir, fileName + ".meta");
+		}
+	}
+
+	/**
+	 * The default age after which a page is refreshed, in ms. Celestrak updates its pages a few times a day.
+	 */
+	public static final long DEFAULT_MAX_AGE = TimeUnit.HOURS.toMillis(2);
+
+	/**
+	 * The default directory the pages are kept in
+	 */
+	public static final String DEFAULT_CACHE_DIR = "res/tle-cache/";
+
+	/**
+	 * How long to wait after a failed download before trying again, in ms
+	 */
+	private static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * The most redirects followed when downloading a page
+	 */
+	private static final int MAX_REDIRECTS = 5;
+
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 30000;
+
+	private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+	/**
+	 * The catalog used by TLEInfoPage
+	 */
+	private static TLECatalog defaultCatalog;
+
+	/**
+	 * Runs the background refreshes
+	 */
+	private static final ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "TLECatalog-Refresh");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * The directory the pages are kept in
+	 */
+	private final File cacheDir;
+
+	/**
+	 * The age after which a page is refreshed, in ms
+	 */
+	private volatile long maxAgeMillis;
+
+	/**
+	 * Whether pages may be downloaded at all
+	 */
+	private volatile boolean offline = false;
+
+	/**
+	 * The pages, keyed by URL
+	 */
+	private final Map<String, Page> pages = new ConcurrentHashMap<String, Page>();
+
+	/**
+	 * Construct a new TLE catalog
+	 *
+	 * @param cacheDir
+	 *            The directory to keep the pages in
+	 * @param maxAgeMillis
+	 *            The age after which a page is refreshed, in ms
+	 */
+	public TLECatalog(File cacheDir, long maxAgeMillis) {
+		if (cacheDir == null) {
+			throw new IllegalArgumentException("Cache directory cannot be null!");
+		}
+
+		this.cacheDir = cacheDir;
+		setMaxAge(maxAgeMillis);
+	}
+
+	/**
+	 * Get the shared catalog, kept in res/tle-cache/
+	 *
+	 * @return The shared catalog
+	 */
+	public static synchronized TLECatalog getDefault() {
+		if (defaultCatalog == null) {
+			defaultCatalog = new TLECatalog(new File(DEFAULT_CACHE_DIR), DEFAULT_MAX_AGE);
+		}
+
+		return defaultCatalog;
+	}
+
+	public long getMaxAge() {
+		return maxAgeMillis;
+	}
+
+	public void setMaxAge(long maxAgeMillis) {
+		if (maxAgeMillis < 0) {
+			throw new IllegalArgumentException("Invalid max age: " + maxAgeMillis);
+		}
+
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Set whether the catalog may download pages. While offline, only what's already on disk is used.
+	 *
+	 * @param offline
+	 */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	/**
+	 * Get a satellite's TLE from a page
+	 *
+	 * @param url
+	 *            The page's URL
+	 * @param satName
+	 *            The satellite's name, as listed on the page
+	 * @return The TLE, or null if the page doesn't list the satellite
+	 */
+	public TLE getTLE(String url, String satName) {
+		Index index = getIndex(url);
+		return index != null ? index.byName.get(satName.trim()) : null;
+	}
+
+	/**
+	 * Get a satellite's TLE from a page by its NORAD catalog number
+	 *
+	 * @param url
+	 *            The page's URL
+	 * @param catnum
+	 *            The satellite's catalog number
+	 * @return The TLE, or null if the page doesn't list the satellite
+	 */
+	public TLE getTLE(String url, int catnum) {
+		Index index = getIndex(url);
+		return index != null ? index.byCatnum.get(catnum) : null;
+	}
+
+	/**
+	 * Get every TLE on a page
+	 *
+	 * @param url
+	 *            The page's URL
+	 * @return The TLEs, in the order they're listed - empty if the page isn't available
+	 */
+	public List<TLE> getTLEs(String url) {
+		Index index = getIndex(url);
+		return index != null ? index.tles : Collections.<TLE> emptyList();
+	}
+
+	/**
+	 * Get a satellite's TLE from any page that's been loaded
+	 *
+	 * @param satName
+	 *            The satellite's name
+	 * @return The TLE, or null if no loaded page lists the satellite
+	 */
+	public TLE getTLE(String satName) {
+		for (Page page : pages.values()) {
+			Index index = page.index;
+			if (index != null && index.byName.containsKey(satName.trim())) {
+				return index.byName.get(satName.trim());
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get a satellite's TLE from any page that's been loaded by its NORAD catalog number
+	 *
+	 * @param catnum
+	 *            The satellite's catalog number
+	 * @return The TLE, or null if no loaded page lists the satellite
+	 */
+	public TLE getTLE(int catnum) {
+		for (Page page : pages.values()) {
+			Index index = page.index;
+			if (index != null && index.byCatnum.containsKey(catnum)) {
+				return index.byCatnum.get(catnum);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Refresh a page now, waiting for the result
+	 *
+	 * @param url
+	 *            The page's URL
+	 * @return True if the page changed
+	 * @throws IOException
+	 *             If the page can't be downloaded
+	 */
+	public boolean refresh(String url) throws IOException {
+		Page page = getPage(url);
+		synchronized (page) {
+			return fetch(page);
+		}
+	}
+
+	/**
+	 * Get a page's index, loading it from disk the first time and refreshing it if it's too old
+	 */
+	private Index getIndex(String url) {
+		Page page = getPage(url);
+		if (page.index == null) {
+			synchronized (page) {
+				if (page.index == null) {
+					loadFromDisk(page);
+					if (page.index == null && canAttempt(page)) {
+						// Nothing to serve yet, so this one time the caller has to wait
+						try {
+							fetch(page);
+						} catch (IOException e) {
+							System.err.println("Unable to download TLE page: " + url);
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		}
+
+		if (System.currentTimeMillis() - page.fetchedAt > maxAgeMillis && canAttempt(page)) {
+			refreshInBackground(page);
+		}
+
+		return page.index;
+	}
+
+	/**
+	 * Check whether a page may be downloaded now, which it can't be while offline or right after a failed download
+	 */
+	private boolean canAttempt(Page page) {
+		return !offline && System.currentTimeMillis() - page.attemptedAt > RETRY_INTERVAL;
+	}
+
+	private Page getPage(String url) {
+		Page page = pages.get(url);
+		if (page == null) {
+			synchronized (pages) {
+				page = pages.get(url);
+				if (page == null) {
+					page = new Page(url);
+					pages.put(url, page);
+				}
+			}
+		}
+
+		return page;
+	}
+
+	private void refreshInBackground(final Page page) {
+		if (!page.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+
+		refresher.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (page) {
+						fetch(page);
+					}
+				} catch (IOException e) {
+					System.err.println("Unable to refresh TLE page: " + page.url);
+				} finally {
+					page.refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Download a page if it's changed since it was last downloaded, saving it to disk
+	 *
+	 * @return True if the page changed
+	 * @throws IOException
+	 */
+	private boolean fetch(Page page) throws IOException {
+		page.attemptedAt = System.currentTimeMillis();
+		URL url = new URL(page.url);
+		HttpURLConnection conn = null;
+		for (int redirects = 0;; redirects++) {
+			URLConnection urlConn = url.openConnection();
+			if (!(urlConn instanceof HttpURLConnection)) {
+				// Not HTTP (e.g. a local file), so there's nothing to be conditional about
+				try (InputStream in = urlConn.getInputStream()) {
+					return update(page, readFully(in), null, null);
+				}
+			}
+
+			conn = (HttpURLConnection) urlConn;
+			conn.setConnectTimeout(CONNECT_TIMEOUT);
+			conn.setReadTimeout(READ_TIMEOUT);
+			conn.setInstanceFollowRedirects(false);
+			if (page.index != null) {
+				if (page.etag != null) {
+					conn.setRequestProperty("If-None-Match", page.etag);
+				}
+				if (page.lastModified != null) {
+					conn.setRequestProperty("If-Modified-Since", page.lastModified);
+				}
+			}
+
+			int code = conn.getResponseCode();
+			if (code >= 300 && code < 400 && code != HttpURLConnection.HTTP_NOT_MODIFIED && conn.getHeaderField("Location") != null) {
+				// HttpURLConnection won't follow redirects from http to https on its own
+				if (redirects >= MAX_REDIRECTS) {
+					throw new IOException("Too many redirects: " + page.url);
+				}
+				url = new URL(url, conn.getHeaderField("Location"));
+				conn.disconnect();
+				continue;
+			}
+			break;
+		}
+
+		try {
+			int code = conn.getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				page.fetchedAt = System.currentTimeMillis();
+				saveMetadata(page);
+				return false;
+			} else if (code != HttpURLConnection.HTTP_OK) {
+				throw new IOException("HTTP " + code + " from " + page.url);
+			}
+
+			try (InputStream in = conn.getInputStream()) {
+				return update(page, readFully(in), conn.getHeaderField("Last-Modified"), conn.getHeaderField("ETag"));
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Swap in a newly downloaded copy of a page and save it to disk. A copy with no TLEs on it (an error page, or a truncated download) is
+	 * treated as a failed download: the previous copy and its validators are kept, so the page is tried again later.
+	 *
+	 * @return True if the page changed
+	 * @throws IOException
+	 *             If the copy has no TLEs on it, or can't be saved
+	 */
+	private boolean update(Page page, byte[] data, String lastModified, String etag) throws IOException {
+		List<TLE> tles = parse(new String(data, CHARSET));
+		if (tles.isEmpty()) {
+			throw new IOException("No TLEs on page: " + page.url);
+		}
+
+		page.index = new Index(tles);
+		page.lastModified = lastModified;
+		page.etag = etag;
+		page.fetchedAt = System.currentTimeMillis();
+
+		if (!cacheDir.exists()) {
+			cacheDir.mkdirs();
+		}
+
+		// Write to a temporary file first so a crash can't leave half a page on disk
+		File tmp = new File(cacheDir, page.dataFile.getName() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			out.write(data);
+		}
+		if (page.dataFile.exists() && !page.dataFile.delete()) {
+			throw new IOException("Unable to replace " + page.dataFile);
+		}
+		if (!tmp.renameTo(page.dataFile)) {
+			throw new IOException("Unable to replace " + page.dataFile);
+		}
+		saveMetadata(page);
+		return true;
+	}
+
+	private void loadFromDisk(Page page) {
+		if (!page.dataFile.exists()) {
+			return;
+		}
+
+		try (InputStream in = new FileInputStream(page.dataFile)) {
+			page.index = new Index(parse(new String(readFully(in), CHARSET)));
+		} catch (IOException e) {
+			System.err.println("Unable to read cached TLE page: " + page.dataFile);
+			return;
+		}
+
+		Properties meta = new Properties();
+		if (page.metaFile.exists()) {
+			try (InputStream in = new FileInputStream(page.metaFile)) {
+				meta.load(in);
+			} catch (IOException e) {
+				System.err.println("Unable to read cached TLE page info: " + page.metaFile);
+			}
+		}
+
+		page.lastModified = meta.getProperty("lastModified");
+		page.etag = meta.getProperty("etag");
+		try {
+			page.fetchedAt = Long.parseLong(meta.getProperty("fetchedAt", "0"));
+		} catch (NumberFormatException e) {
+			page.fetchedAt = 0;
+		}
+	}
+
+	private void saveMetadata(Page page) throws IOException {
+		Properties meta = new Properties();
+		meta.setProperty("url", page.url);
+		meta.setProperty("fetchedAt", Long.toString(page.fetchedAt));
+		if (page.lastModified != null) {
+			meta.setProperty("lastModified", page.lastModified);
+		}
+		if (page.etag != null) {
+			meta.setProperty("etag", page.etag);
+		}
+
+		try (OutputStream out = new FileOutputStream(page.metaFile)) {
+			meta.store(out, null);
+		}
+	}
+
+	/**
+	 * Parse the three-line TLEs on a page, skipping anything that isn't one
+	 *
+	 * @param text
+	 *            The page
+	 * @return The TLEs, in the order they're listed
+	 */
+	public static List<TLE> parse(String text) {
+		List<String> lines = new ArrayList<String>();
+		try (BufferedReader br = new BufferedReader(new StringReader(text))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					lines.add(line);
+				}
+			}
+		} catch (IOException e) {
+			// Can't happen reading from a String
+		}
+
+		List<TLE> tles = new ArrayList<TLE>();
+		for (int i = 0; i + 2 < lines.size(); i++) {
+			String line1 = lines.get(i + 1);
+			String line2 = lines.get(i + 2);
+			if (line1.startsWith("1 ") && line2.startsWith("2 ")) {
+				try {
+					tles.add(new TLE(new String[] { lines.get(i).trim(), line1, line2 }));
+					i += 2;
+				} catch (IllegalArgumentException e) {
+					System.err.println("Skipping bad TLE: " + lines.get(i).trim());
+				}
+			}
+		}
+
+		return tles;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+}
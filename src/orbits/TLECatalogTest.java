@@ -0,0 +1,127 @@
+package orbits;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+import uk.me.g4dpz.satellite.TLE;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs a TLECatalog against a local HTTP server that can be told to serve a page, answer 304 Not Modified, serve an empty page or fail,
+ * and checks that the catalog keeps serving the last good copy of the page throughout.
+ *
+ * @author Adam Campbell
+ */
+public class TLECatalogTest {
+	private static final String SAT_NAME = "ISS (ZARYA)";
+	private static final String PAGE = SAT_NAME + "\r\n"
+			+ "1 25544U 98067A   08264.51782528 -.00002182  00000-0 -11606-4 0  2927\r\n"
+			+ "2 25544  51.6416 247.4627 0006703 130.5360 325.0288 15.72125391563537\r\n";
+	private static final String ETAG = "\"v1\"";
+
+	private enum Mode {
+		OK, EMPTY, FAIL
+	}
+
+	private static volatile Mode mode = Mode.OK;
+	private static volatile String lastIfNoneMatch;
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		HttpServer server = null;
+		try {
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.createContext("/tle.txt", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					lastIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+					if (mode == Mode.FAIL) {
+						exchange.sendResponseHeaders(500, -1);
+					} else if (mode == Mode.OK && ETAG.equals(lastIfNoneMatch)) {
+						exchange.sendResponseHeaders(304, -1);
+					} else {
+						byte[] body = (mode == Mode.OK ? PAGE : "").getBytes(Charset.forName("US-ASCII"));
+						exchange.getResponseHeaders().set("ETag", mode == Mode.OK ? ETAG : "\"v2\"");
+						exchange.sendResponseHeaders(200, body.length > 0 ? body.length : -1);
+						try (OutputStream out = exchange.getResponseBody()) {
+							out.write(body);
+						}
+					}
+					exchange.close();
+				}
+			});
+			server.start();
+			String url = "http://localhost:" + server.getAddress().getPort() + "/tle.txt";
+
+			File cacheDir = new File(System.getProperty("java.io.tmpdir"), "tlecatalogtest-" + System.nanoTime());
+			cacheDir.deleteOnExit();
+			TLECatalog catalog = new TLECatalog(cacheDir, TLECatalog.DEFAULT_MAX_AGE);
+
+			// 200: the page is downloaded and indexed
+			mode = Mode.OK;
+			check("200 changes the page", catalog.refresh(url));
+			check("200 indexes the page", catalog.getTLE(url, SAT_NAME) != null);
+
+			// 304: the page is confirmed without being downloaded again
+			check("304 leaves the page unchanged", !catalog.refresh(url));
+			check("304 was asked for with the ETag", ETAG.equals(lastIfNoneMatch));
+			check("304 keeps the page", catalog.getTLE(url, SAT_NAME) != null);
+
+			// An empty 200: treated as a failure, keeping the previous page and its ETag
+			mode = Mode.EMPTY;
+			check("Empty page fails", refreshFails(catalog, url));
+			check("Empty page keeps the previous page", catalog.getTLE(url, SAT_NAME) != null);
+			TLECatalog reloaded = new TLECatalog(cacheDir, TLECatalog.DEFAULT_MAX_AGE);
+			reloaded.setOffline(true);
+			check("Empty page keeps the previous page on disk", reloaded.getTLE(url, SAT_NAME) != null);
+			mode = Mode.OK;
+			check("Empty page keeps the previous ETag", !catalog.refresh(url) && ETAG.equals(lastIfNoneMatch));
+
+			// A failed fetch: the previous page is still served
+			mode = Mode.FAIL;
+			check("Failed fetch fails", refreshFails(catalog, url));
+			TLE tle = catalog.getTLE(url, SAT_NAME);
+			check("Failed fetch keeps the previous page", tle != null && tle.getCatnum() == 25544);
+
+			// A failed first fetch: nothing to serve, but the caller doesn't see an error
+			TLECatalog empty = new TLECatalog(new File(cacheDir, "empty"), TLECatalog.DEFAULT_MAX_AGE);
+			check("Failed first fetch serves nothing", empty.getTLE(url, SAT_NAME) == null && empty.getTLEs(url).isEmpty());
+
+			for (File file : cacheDir.listFiles()) {
+				file.delete();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			failures++;
+		} finally {
+			if (server != null) {
+				server.stop(0);
+			}
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static boolean refreshFails(TLECatalog catalog, String url) {
+		try {
+			catalog.refresh(url);
+			return false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "PASSED: " : "FAILED: ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
@@ -1,18 +1,13 @@
 package orbits;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.TimeZone;
 
+import orbits.PassScheduler.ScheduledPass;
 import uk.me.g4dpz.satellite.GroundStationPosition;
-import uk.me.g4dpz.satellite.PassPredictor;
-import uk.me.g4dpz.satellite.SatPassTime;
 import uk.me.g4dpz.satellite.TLE;
 
 public class TLEInfoPage {
@@ -26,47 +21,30 @@ public class TLEInfoPage {
 		return url.toString();
 	}
 
+	/**
+	 * Get a satellite's TLE from the local TLE catalog, which keeps this page up to date in the background
+	 * 
+	 * @param satName
+	 *            The satellite's name, as listed on the page
+	 * @return The TLE, or null if the page doesn't list the satellite
+	 */
 	public TLE getTLEForSatellite(String satName) {
-		try {
-			BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()));
-			String line = null;
-			while ((line = br.readLine().trim()) != null) {
-				if (line.equals(satName.trim())) {
-					String tleLine1 = br.readLine();
-					String tleLine2 = br.readLine();
-
-					return new TLE(new String[] { line, tleLine1, tleLine2 });
-				}
-			}
-		} catch (Exception e) {
-			return null;
-		}
-
-		return null;
+		return TLECatalog.getDefault().getTLE(url.toString(), satName);
 	}
 
+	/**
+	 * Get the next pass of every satellite on this page over a ground station, predicted in parallel
+	 * 
+	 * @param gsp
+	 *            The ground station
+	 * @return The next passes, in the order the satellites are listed
+	 */
 	public List<SatInfo> getAllNextPasses(GroundStationPosition gsp) {
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd hh:mm:ss");
-		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
 		ArrayList<SatInfo> sptList = new ArrayList<SatInfo>();
-
-		try {
-			BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()));
-			String line = null;
-			while ((line = br.readLine()) != null) {
-				line = line.trim();
-				String tleLine1 = br.readLine();
-				String tleLine2 = br.readLine();
-
-				TLE tle = new TLE(new String[] { line, tleLine1, tleLine2 });
-				PassPredictor pp = new PassPredictor(tle, gsp);
-				SatPassTime spt = pp.nextSatPass(new Date());
-
-				sptList.add(new SatInfo(line, spt));
+		for (ScheduledPass pass : PassScheduler.nextPasses(TLECatalog.getDefault().getTLEs(url.toString()), gsp, new Date())) {
+			if (pass != null) {
+				sptList.add(new SatInfo(pass.getSatName(), pass.getSatPassTime()));
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-			return null;
 		}
 
 		return sptList;
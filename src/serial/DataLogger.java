@@ -0,0 +1,403 @@
+package serial;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import serial.archive.TelemetryArchiveWriter;
+import serial.archive.TelemetryRecord;
+import serial.archive.TelemetryRecord.Direction;
+
+/**
+ * Appends serial and client data to the daily log files without ever blocking the caller on the disk. Log entries are handed off through a
+ * lock-free queue to a single writer thread, which keeps each day's file open, writes the entries in batches and flushes them either once
+ * enough have piled up or every flush interval. Files roll over at midnight UTC. If the disk falls so far behind that the queue fills up,
+ * new entries are dropped and counted rather than letting the queue grow without bound.<br/>
+ * <br/>
+ * Data logged along with its serial port number and direction also goes into the binary telemetry archive, stamped with the time it was
+ * logged.
+ *
+ * @author Adam Campbell
+ */
+public class DataLogger {
+	/**
+	 * A line of data waiting to be logged
+	 */
+	private static class LogEntry {
+		private final String logBaseString;
+		private final String data;
+		private final long timeMillis;
+		private final long timestampNanos;
+		private final int serialPortNum;
+		private final Direction direction;
+
+		public LogEntry(String logBaseString, String data, int serialPortNum, Direction direction) {
+			this.logBaseString = logBaseString;
+			this.data = data;
+			this.timeMillis = System.currentTimeMillis();
+			this.timestampNanos = direction != null ? TelemetryArchiveWriter.nowNanos() : 0;
+			this.serialPortNum = serialPortNum;
+			this.direction = direction;
+		}
+	}
+
+	/**
+	 * An open log file and the UTC day it's for
+	 */
+	private static class LogFile {
+		private final long day;
+		private final Writer out;
+
+		public LogFile(long day, Writer out) {
+			this.day = day;
+			this.out = out;
+		}
+	}
+
+	/**
+	 * The number of milliseconds in a day
+	 */
+	private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * The default number of entries that triggers an early flush
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/**
+	 * The default longest time an entry waits before it's written, in ms
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * The default most entries that can be waiting to be written before new ones are dropped
+	 */
+	public static final int DEFAULT_MAX_QUEUED = 65536;
+
+	/**
+	 * The logger used by SerialUtils.backupData()
+	 */
+	private static DataLogger instance;
+
+	/**
+	 * Entries waiting to be written
+	 */
+	private final Queue<LogEntry> queue = new ConcurrentLinkedQueue<LogEntry>();
+
+	/**
+	 * The number of entries waiting to be written
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * The most entries that can be waiting to be written before new ones are dropped
+	 */
+	private final int maxQueued;
+
+	/**
+	 * The number of entries dropped because the queue was full
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * The number of dropped entries already reported. Only touched by the writer thread.
+	 */
+	private long droppedReported = 0;
+
+	/**
+	 * The number of entries that triggers an early flush
+	 */
+	private final int batchSize;
+
+	/**
+	 * The longest time an entry waits before it's written, in ms
+	 */
+	private final long flushIntervalMillis;
+
+	/**
+	 * The open log files, keyed by log base directory. Only touched by the writer thread.
+	 */
+	private final Map<String, LogFile> openFiles = new HashMap<String, LogFile>();
+
+	/**
+	 * Formats the log file names. Only touched by the writer thread.
+	 */
+	private final SimpleDateFormat logsdf = new SimpleDateFormat("yyyy-MM-dd");
+
+	/**
+	 * The telemetry archive, or null if there isn't one. Only touched by the writer thread.
+	 */
+	private final TelemetryArchiveWriter archive;
+
+	/**
+	 * The writer thread
+	 */
+	private final Thread writer;
+
+	/**
+	 * Whether the logger has been shut down
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Construct a new data logger and start its writer thread
+	 *
+	 * @param batchSize
+	 *            The number of entries that triggers an early flush
+	 * @param flushIntervalMillis
+	 *            The longest time an entry waits before it's written, in ms
+	 * @param archive
+	 *            The telemetry archive for data logged with a serial port and direction, or null for none
+	 */
+	public DataLogger(int batchSize, long flushIntervalMillis, TelemetryArchiveWriter archive) {
+		this(batchSize, flushIntervalMillis, DEFAULT_MAX_QUEUED, archive);
+	}
+
+	/**
+	 * Construct a new data logger and start its writer thread
+	 *
+	 * @param batchSize
+	 *            The number of entries that triggers an early flush
+	 * @param flushIntervalMillis
+	 *            The longest time an entry waits before it's written, in ms
+	 * @param maxQueued
+	 *            The most entries that can be waiting to be written before new ones are dropped
+	 * @param archive
+	 *            The telemetry archive for data logged with a serial port and direction, or null for none
+	 */
+	public DataLogger(int batchSize, long flushIntervalMillis, int maxQueued, TelemetryArchiveWriter archive) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		} else if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("Invalid flush interval: " + flushIntervalMillis);
+		} else if (maxQueued < batchSize) {
+			throw new IllegalArgumentException("Invalid queue size: " + maxQueued);
+		}
+
+		this.batchSize = batchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxQueued = maxQueued;
+		this.archive = archive;
+		logsdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "DataLogger");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Get the shared data logger, starting it (and a shutdown hook that flushes it) the first time
+	 *
+	 * @return The shared data logger
+	 */
+	public static synchronized DataLogger getInstance() {
+		if (instance == null) {
+			TelemetryArchiveWriter archive = new TelemetryArchiveWriter(new File(SerialUtils.getJarDirectory() + "Data-Logs/Archive/"),
+					TelemetryArchiveWriter.DEFAULT_SEGMENT_SIZE);
+			instance = new DataLogger(DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, archive);
+			final DataLogger logger = instance;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					logger.shutdown();
+				}
+			}));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @return The number of entries dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Queue a line of data to be appended to today's log file in the given directory. This never blocks on the disk.
+	 *
+	 * @param data
+	 *            The data to log
+	 * @param logBaseString
+	 *            The log file base directory
+	 */
+	public void log(String data, String logBaseString) {
+		log(data, logBaseString, -1, null);
+	}
+
+	/**
+	 * Queue a line of data to be appended to today's log file in the given directory, and to the telemetry archive. This never blocks on
+	 * the disk; if the queue is full, the entry is dropped.
+	 *
+	 * @param data
+	 *            The data to log
+	 * @param logBaseString
+	 *            The log file base directory
+	 * @param serialPortNum
+	 *            The serial port the data came from or went to
+	 * @param direction
+	 *            Which way the data was going, or null to leave it out of the archive
+	 */
+	public void log(String data, String logBaseString, int serialPortNum, Direction direction) {
+		if (!running) {
+			return;
+		}
+
+		int n = queued.incrementAndGet();
+		if (n > maxQueued) {
+			queued.decrementAndGet();
+			dropped.incrementAndGet();
+			LockSupport.unpark(writer);
+			return;
+		}
+
+		queue.add(new LogEntry(logBaseString, data, serialPortNum, direction));
+		if (n >= batchSize) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Write everything that's queued, close the log files and stop the writer thread
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(flushIntervalMillis * 5);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+		while (running) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+			writeQueued();
+		}
+
+		// Write anything that came in while shutting down
+		writeQueued();
+		for (LogFile logFile : openFiles.values()) {
+			try {
+				logFile.out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		openFiles.clear();
+
+		if (archive != null) {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Write all of the queued entries and flush the files they went to. An entry that can't be written is reported and skipped, so one bad
+	 * entry never stops the writer thread.
+	 */
+	private void writeQueued() {
+		LogEntry entry;
+		boolean wroteAny = false;
+		while ((entry = queue.poll()) != null) {
+			queued.decrementAndGet();
+			try {
+				if (entry.data.length() > 0) {
+					getLogFile(entry.logBaseString, entry.timeMillis).write(entry.data.trim() + "\r\n");
+					wroteAny = true;
+				}
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Error writing to log file!");
+				e.printStackTrace();
+			}
+
+			if (archive != null && entry.direction != null) {
+				try {
+					archive.append(entry.timestampNanos, entry.serialPortNum, entry.direction, entry.data.getBytes(TelemetryRecord.CHARSET));
+				} catch (IOException | RuntimeException e) {
+					System.err.println("Error writing to telemetry archive!");
+					e.printStackTrace();
+				}
+			}
+		}
+
+		long nDropped = dropped.get();
+		if (nDropped > droppedReported) {
+			System.err.println("Data logger queue full, dropped " + (nDropped - droppedReported) + " entries!");
+			droppedReported = nDropped;
+		}
+
+		if (wroteAny) {
+			for (LogFile logFile : openFiles.values()) {
+				try {
+					logFile.out.flush();
+				} catch (IOException e) {
+					System.err.println("Error writing to log file!");
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the open log file in the given directory for the UTC day of the given time, rolling over to a new file if the day has changed.
+	 * The file name will be <i>logBaseString/yyyy-MM-dd.txt</i>.
+	 *
+	 * @param logBaseString
+	 *            The log file base directory
+	 * @param timeMillis
+	 *            The time of the entry being logged
+	 * @return The log file's writer
+	 * @throws IOException
+	 *             If the file can't be opened
+	 */
+	private Writer getLogFile(String logBaseString, long timeMillis) throws IOException {
+		long day = timeMillis / MILLIS_PER_DAY;
+		LogFile logFile = openFiles.get(logBaseString);
+		if (logFile != null && logFile.day == day) {
+			return logFile.out;
+		}
+
+		if (logFile != null) {
+			openFiles.remove(logBaseString);
+			try {
+				logFile.out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		File logDir = new File(logBaseString);
+		if (!logDir.exists() || !logDir.isDirectory()) {
+			logDir.mkdirs();
+		}
+
+		String logTimeStamp = logsdf.format(new Date(day * MILLIS_PER_DAY));
+		Writer out = new BufferedWriter(new FileWriter(new File(logBaseString + logTimeStamp + ".txt"), true));
+		openFiles.put(logBaseString, new LogFile(day, out));
+		return out;
+	}
+}
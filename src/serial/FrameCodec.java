@@ -0,0 +1,239 @@
+package serial;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes the binary framing used between the serial server and its clients once a client has switched to binary mode.<br/>
+ * <br/>
+ * A client asks for binary mode by sending the line <i>#BINARY</i> (SerialUtils.BINARY_COMMAND, ended by a single '\n') after logging
+ * in, then waits for the server to send the same line back. Everything after that, both ways, is frames. A server that doesn't support
+ * binary mode, or doesn't allow it, never answers, and the client carries on in text mode.<br/>
+ * <br/>
+ * Every frame is an 8 byte big-endian header followed by the payload, byte for byte:
+ * <ul>
+ * <li><b>port</b> (1 byte) - the serial port number the payload is to or from</li>
+ * <li><b>flags</b> (1 byte) - FLAG_CONTROL marks a server command like "#SUBSCRIBE 0 1" rather than serial data</li>
+ * <li><b>sequence</b> (2 bytes) - counts up from 0 and wraps. From the server it counts the data read from each serial port, so a gap
+ * on a subscribed port means data was dropped for a slow client. From a client it counts the frames the client has sent.</li>
+ * <li><b>length</b> (4 bytes) - the payload length, at most MAX_PAYLOAD_LENGTH</li>
+ * </ul>
+ * A decoder is fed the bytes as they arrive and hands each complete frame to its listener. Frames that arrive whole in one read are handed
+ * over in place without copying.
+ *
+ * @author Adam Campbell
+ */
+public class FrameCodec {
+	/**
+	 * Gets each frame as it's decoded
+	 */
+	public static interface FrameListener {
+		/**
+		 * Handle a frame. The payload is only valid until this returns.
+		 *
+		 * @param port
+		 *            The serial port number
+		 * @param sequence
+		 *            The sequence number
+		 * @param flags
+		 *            The flags
+		 * @param payload
+		 *            The buffer holding the payload
+		 * @param offset
+		 *            Where the payload starts in the buffer
+		 * @param length
+		 *            The payload length
+		 * @throws IOException
+		 */
+		public void frameReceived(int port, int sequence, int flags, byte[] payload, int offset, int length) throws IOException;
+	}
+
+	/**
+	 * The length of a frame header
+	 */
+	public static final int HEADER_LENGTH = 8;
+
+	/**
+	 * The longest payload allowed in a frame
+	 */
+	public static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+
+	/**
+	 * Marks a frame carrying a server command rather than serial data
+	 */
+	public static final int FLAG_CONTROL = 0x01;
+
+	private final FrameListener listener;
+
+	/**
+	 * The header of the frame being decoded, and how much of it has arrived
+	 */
+	private final byte[] header = new byte[HEADER_LENGTH];
+	private int headerLength = 0;
+
+	/**
+	 * The payload of the frame being decoded, if it's spread over more than one read, and how much of it has arrived
+	 */
+	private byte[] payload = new byte[SerialUtils.BUFFER_SIZE];
+	private int payloadLength = 0;
+
+	/**
+	 * Scratch space for copying out of direct buffers
+	 */
+	private byte[] scratch;
+
+	/**
+	 * Construct a new decoder
+	 *
+	 * @param listener
+	 *            Gets each frame as it's decoded
+	 */
+	public FrameCodec(FrameListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null!");
+		}
+
+		this.listener = listener;
+	}
+
+	/**
+	 * Encode a frame
+	 *
+	 * @param port
+	 *            The serial port number
+	 * @param sequence
+	 *            The sequence number - only the low 16 bits are used
+	 * @param flags
+	 *            The flags
+	 * @param payload
+	 *            The buffer holding the payload
+	 * @param offset
+	 *            Where the payload starts in the buffer
+	 * @param length
+	 *            The payload length
+	 * @return The frame
+	 */
+	public static byte[] encode(int port, int sequence, int flags, byte[] payload, int offset, int length) {
+		if (port < 0 || port > 0xFF) {
+			throw new IllegalArgumentException("Invalid serial port number: " + port);
+		} else if (flags < 0 || flags > 0xFF) {
+			throw new IllegalArgumentException("Invalid flags: " + flags);
+		} else if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+			throw new IllegalArgumentException("Invalid payload length: " + length);
+		}
+
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + length);
+		frame.put((byte) port).put((byte) flags).putShort((short) sequence).putInt(length);
+		frame.put(payload, offset, length);
+		return frame.array();
+	}
+
+	/**
+	 * Encode a frame
+	 *
+	 * @param port
+	 *            The serial port number
+	 * @param sequence
+	 *            The sequence number - only the low 16 bits are used
+	 * @param flags
+	 *            The flags
+	 * @param payload
+	 *            The payload
+	 * @return The frame
+	 */
+	public static byte[] encode(int port, int sequence, int flags, byte[] payload) {
+		return encode(port, sequence, flags, payload, 0, payload.length);
+	}
+
+	/**
+	 * Feed bytes to the decoder, handing every frame they complete to the listener
+	 *
+	 * @param buffer
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            Where the bytes start in the buffer
+	 * @param length
+	 *            The number of bytes
+	 * @throws IOException
+	 *             If a frame is malformed, or the listener throws
+	 */
+	public void feed(byte[] buffer, int offset, int length) throws IOException {
+		int end = offset + length;
+		while (offset < end) {
+			if (headerLength < HEADER_LENGTH) {
+				int n = Math.min(HEADER_LENGTH - headerLength, end - offset);
+				System.arraycopy(buffer, offset, header, headerLength, n);
+				headerLength += n;
+				offset += n;
+				if (headerLength < HEADER_LENGTH) {
+					return;
+				}
+			}
+
+			int frameLength = getPayloadLength();
+			if (payloadLength == 0 && end - offset >= frameLength) {
+				// The whole payload is here, so hand it over in place
+				frameDecoded(buffer, offset, frameLength);
+				offset += frameLength;
+				continue;
+			}
+
+			if (payload.length < frameLength) {
+				payload = Arrays.copyOf(payload, Math.max(frameLength, payload.length * 2));
+			}
+			int n = Math.min(frameLength - payloadLength, end - offset);
+			System.arraycopy(buffer, offset, payload, payloadLength, n);
+			payloadLength += n;
+			offset += n;
+			if (payloadLength == frameLength) {
+				frameDecoded(payload, 0, frameLength);
+			}
+		}
+	}
+
+	/**
+	 * Feed all of a buffer's remaining bytes to the decoder, handing every frame they complete to the listener
+	 *
+	 * @param buffer
+	 *            The buffer
+	 * @throws IOException
+	 *             If a frame is malformed, or the listener throws
+	 */
+	public void feed(ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+
+		if (scratch == null) {
+			scratch = new byte[SerialUtils.BUFFER_SIZE];
+		}
+		while (buffer.hasRemaining()) {
+			int n = Math.min(scratch.length, buffer.remaining());
+			buffer.get(scratch, 0, n);
+			feed(scratch, 0, n);
+		}
+	}
+
+	private int getPayloadLength() throws IOException {
+		int length = ByteBuffer.wrap(header, 4, 4).getInt();
+		if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+
+		return length;
+	}
+
+	private void frameDecoded(byte[] buffer, int offset, int length) throws IOException {
+		int port = header[0] & 0xFF;
+		int flags = header[1] & 0xFF;
+		int sequence = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+
+		// Reset before handing it over, in case the listener throws
+		headerLength = 0;
+		payloadLength = 0;
+		listener.frameReceived(port, sequence, flags, buffer, offset, length);
+	}
+}
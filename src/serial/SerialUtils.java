@@ -1,13 +1,9 @@
 package serial;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
+
+import serial.archive.TelemetryRecord.Direction;
 
 import serial.server.SerialServer;
 
@@ -27,6 +23,21 @@ public class SerialUtils {
 	 */
 	public static final String INVALID_USER_MESSAGE = "BAD";
 
+	/**
+	 * Sent by a client to start receiving all data from the listed serial ports, e.g. "#SUBSCRIBE 0 1"
+	 */
+	public static final String SUBSCRIBE_COMMAND = "#SUBSCRIBE";
+
+	/**
+	 * Sent by a client to stop receiving data from the listed serial ports, e.g. "#UNSUBSCRIBE 1"
+	 */
+	public static final String UNSUBSCRIBE_COMMAND = "#UNSUBSCRIBE";
+
+	/**
+	 * Sent by a client to switch the connection to binary framing, and echoed back by the server once it has (see FrameCodec)
+	 */
+	public static final String BINARY_COMMAND = "#BINARY";
+
 	/**
 	 * The size of the buffer to be used for reading/writing
 	 */
@@ -73,7 +84,9 @@ public class SerialUtils {
 
 	/**
 	 * Backup an array of byte data to a file. The data will be appended to the log file, and if the file does not exist, it shall be
-	 * created. The file name will be <i>logBaseString/yyyy-MM-dd.txt</i>, where yyyy-MM-dd is the date at which the file is created.
+	 * created. The file name will be <i>logBaseString/yyyy-MM-dd.txt</i>, where yyyy-MM-dd is the UTC date at which the data is logged.<br/>
+	 * <br/>
+	 * The data is only queued here and written by the shared DataLogger's writer thread, so this never blocks on the disk.
 	 * 
 	 * @param buffer
 	 *            The byte data to be appended to the file
@@ -81,31 +94,23 @@ public class SerialUtils {
 	 *            The name of the file base directory.
 	 */
 	public static void backupData(String data, String logBaseString) {
-		// //Get a timestamp to attach to the message (in local time)
-		// SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-		// String timeStamp = sdf.format(new Date());
-
-		// Get a timestamp from the log entry, so that it can be put in the
-		// appropriate log file
-		SimpleDateFormat logsdf = new SimpleDateFormat("yyyy-MM-dd");
-		logsdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-		String logTimeStamp = logsdf.format(new Date());
-
-		// Get a text log and append the message to it
-		BufferedWriter out;
-		File logDir = new File(logBaseString);
-		if (!logDir.exists() || !logDir.isDirectory()) {
-			logDir.mkdirs();
-		}
-		try {
-			out = new BufferedWriter(new FileWriter(new File(logBaseString + logTimeStamp + ".txt"), true));
-			if (data.length() > 0) {
-				out.write(data.trim() + "\r\n");
-			}
-			out.close();
-		} catch (Exception e) {
-			System.err.println("Error writing to log file!");
-			e.printStackTrace();
-		}
+		DataLogger.getInstance().log(data, logBaseString);
+	}
+
+	/**
+	 * Backup data the same way as backupData(), and also record it in the binary telemetry archive (<i>Data-Logs/Archive/</i>) with a
+	 * timestamp, its serial port number and which way it was going.
+	 * 
+	 * @param data
+	 *            The data to be appended to the file
+	 * @param logBaseString
+	 *            The name of the file base directory.
+	 * @param serialPortNum
+	 *            The serial port the data came from or went to
+	 * @param direction
+	 *            Which way the data was going
+	 */
+	public static void backupData(String data, String logBaseString, int serialPortNum, Direction direction) {
+		DataLogger.getInstance().log(data, logBaseString, serialPortNum, direction);
 	}
 }
@@ -0,0 +1,192 @@
+package serial.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import serial.archive.TelemetryRecord.Direction;
+
+/**
+ * Reads records back out of the telemetry archive. Segments are picked by the timestamp in their name and the sparse index is used to
+ * jump straight to the first record of a time range, so only the records in (or just before) the range are ever touched.
+ *
+ * @author Adam Campbell
+ */
+public class TelemetryArchiveReader {
+	/**
+	 * Receives the records read from the archive
+	 */
+	public interface RecordVisitor {
+		/**
+		 * Called for each record in the requested range, in time order
+		 *
+		 * @param record
+		 *            The record
+		 * @return True to keep reading, false to stop
+		 */
+		boolean visit(TelemetryRecord record);
+	}
+
+	/**
+	 * The archive directory
+	 */
+	private File dir;
+
+	/**
+	 * Construct a reader for the given archive directory
+	 *
+	 * @param dir
+	 *            The archive directory
+	 */
+	public TelemetryArchiveReader(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Read all of the records in a time range
+	 *
+	 * @param fromNanos
+	 *            The start of the range (inclusive), in nanoseconds since the epoch
+	 * @param toNanos
+	 *            The end of the range (exclusive), in nanoseconds since the epoch
+	 * @return The records in the range, in time order
+	 * @throws IOException
+	 *             If a segment can't be read
+	 */
+	public List<TelemetryRecord> read(long fromNanos, long toNanos) throws IOException {
+		final List<TelemetryRecord> records = new ArrayList<TelemetryRecord>();
+		read(fromNanos, toNanos, new RecordVisitor() {
+			@Override
+			public boolean visit(TelemetryRecord record) {
+				records.add(record);
+				return true;
+			}
+		});
+
+		return records;
+	}
+
+	/**
+	 * Read the records in a time range, handing each one to the visitor
+	 *
+	 * @param fromNanos
+	 *            The start of the range (inclusive), in nanoseconds since the epoch
+	 * @param toNanos
+	 *            The end of the range (exclusive), in nanoseconds since the epoch
+	 * @param visitor
+	 *            Receives the records
+	 * @throws IOException
+	 *             If a segment can't be read
+	 */
+	public void read(long fromNanos, long toNanos, RecordVisitor visitor) throws IOException {
+		File[] segments = TelemetrySegment.listSegments(dir);
+
+		// Start at the last segment that begins at or before the start of the range
+		int first = 0;
+		for (int i = 0; i < segments.length; i++) {
+			if (TelemetrySegment.firstTimestamp(segments[i]) <= fromNanos) {
+				first = i;
+			} else {
+				break;
+			}
+		}
+
+		for (int i = first; i < segments.length; i++) {
+			if (TelemetrySegment.firstTimestamp(segments[i]) >= toNanos) {
+				return;
+			}
+			if (!readSegment(segments[i], fromNanos, toNanos, visitor)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the records in a time range from one segment
+	 *
+	 * @return False if the visitor asked to stop or the end of the range was reached, true otherwise
+	 * @throws IOException
+	 */
+	private boolean readSegment(File segmentFile, long fromNanos, long toNanos, RecordVisitor visitor) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (segment.limit() < TelemetrySegment.HEADER_SIZE || segment.getInt(0) != TelemetrySegment.MAGIC) {
+				System.err.println("Not a telemetry archive segment: " + segmentFile);
+				return true;
+			}
+
+			int offset = seek(TelemetrySegment.indexFile(segmentFile), fromNanos);
+			while (offset + TelemetrySegment.RECORD_HEADER_SIZE <= segment.limit()) {
+				int length = segment.getInt(offset);
+				if (length <= 0 || offset + TelemetrySegment.RECORD_HEADER_SIZE + length > segment.limit()) {
+					// The end of the written data
+					return true;
+				}
+
+				long timestamp = segment.getLong(offset + 4);
+				if (timestamp >= toNanos) {
+					return false;
+				}
+
+				if (timestamp >= fromNanos) {
+					int serialPortNum = segment.get(offset + 12);
+					Direction direction = Direction.values()[segment.get(offset + 13)];
+					byte[] data = new byte[length];
+					segment.position(offset + TelemetrySegment.RECORD_HEADER_SIZE);
+					segment.get(data);
+					if (!visitor.visit(new TelemetryRecord(timestamp, serialPortNum, direction, data))) {
+						return false;
+					}
+				}
+
+				offset += TelemetrySegment.RECORD_HEADER_SIZE + length;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Use a segment's sparse index to find the offset of the last indexed record before the given time
+	 *
+	 * @return The offset to start scanning the segment at
+	 * @throws IOException
+	 */
+	private int seek(File indexFile, long fromNanos) throws IOException {
+		if (!indexFile.exists()) {
+			return TelemetrySegment.HEADER_SIZE;
+		}
+
+		ByteBuffer index;
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r"); FileChannel channel = raf.getChannel()) {
+			index = ByteBuffer.allocate((int) channel.size());
+			while (index.hasRemaining()) {
+				if (channel.read(index) < 0) {
+					break;
+				}
+			}
+		}
+
+		// Binary search for the last entry with a timestamp before the start of the range
+		int lo = 0;
+		int hi = index.capacity() / TelemetrySegment.INDEX_ENTRY_SIZE - 1;
+		int offset = TelemetrySegment.HEADER_SIZE;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int entry = mid * TelemetrySegment.INDEX_ENTRY_SIZE;
+			if (index.getLong(entry) < fromNanos) {
+				offset = index.getInt(entry + 8);
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		return offset;
+	}
+}
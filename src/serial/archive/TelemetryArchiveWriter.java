@@ -0,0 +1,205 @@
+package serial.archive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import serial.archive.TelemetryRecord.Direction;
+
+/**
+ * Appends records to the telemetry archive through memory-mapped segment files. Each segment is mapped in full when it's created, so
+ * appending a record is just a few puts into the mapped buffer; a new segment is started once the current one is full. Closing a segment
+ * trims it to the records actually written.<br/>
+ * <br/>
+ * Not thread safe - the archive is meant to have a single writer thread.
+ *
+ * @author Adam Campbell
+ */
+public class TelemetryArchiveWriter implements Closeable {
+	/**
+	 * The default size of each segment file
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The archive directory
+	 */
+	private File dir;
+
+	/**
+	 * The size of each segment file
+	 */
+	private int segmentSize;
+
+	/**
+	 * The segment currently being written
+	 */
+	private FileChannel segmentChannel;
+	private MappedByteBuffer segment;
+
+	/**
+	 * The current segment's sparse index
+	 */
+	private FileChannel indexChannel;
+	private ByteBuffer indexEntry = ByteBuffer.allocate(TelemetrySegment.INDEX_ENTRY_SIZE);
+
+	/**
+	 * The offset of the last record that went in the index
+	 */
+	private int lastIndexedOffset;
+
+	/**
+	 * The timestamp of the last record written
+	 */
+	private long lastTimestampNanos = Long.MIN_VALUE;
+
+	/**
+	 * Construct a new archive writer
+	 *
+	 * @param dir
+	 *            The archive directory
+	 * @param segmentSize
+	 *            The size of each segment file
+	 */
+	public TelemetryArchiveWriter(File dir, int segmentSize) {
+		if (segmentSize <= TelemetrySegment.HEADER_SIZE + TelemetrySegment.RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		}
+
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Get the current time in the archive's clock
+	 *
+	 * @return The current time, in nanoseconds since the epoch
+	 */
+	public static long nowNanos() {
+		return TelemetrySegment.nowNanos();
+	}
+
+	/**
+	 * Append a record stamped with the current time
+	 *
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @param direction
+	 *            Which way the data was going
+	 * @param data
+	 *            The data
+	 * @throws IOException
+	 *             If a new segment can't be created
+	 */
+	public void append(int serialPortNum, Direction direction, byte[] data) throws IOException {
+		append(nowNanos(), serialPortNum, direction, data);
+	}
+
+	/**
+	 * Append a record. Records must be in time order for the reader and the sparse index, so a timestamp earlier than the last record's
+	 * (data logged on several threads can reach the writer slightly out of order) is moved up to the last record's. Empty records are
+	 * skipped, since a zero length marks the end of a segment's written data.
+	 *
+	 * @param timestampNanos
+	 *            The time the data went through the server, in nanoseconds since the epoch
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @param direction
+	 *            Which way the data was going
+	 * @param data
+	 *            The data
+	 * @throws IOException
+	 *             If a new segment can't be created
+	 */
+	public void append(long timestampNanos, int serialPortNum, Direction direction, byte[] data) throws IOException {
+		if (data.length == 0) {
+			return;
+		}
+		if (timestampNanos < lastTimestampNanos) {
+			timestampNanos = lastTimestampNanos;
+		}
+
+		int recordSize = TelemetrySegment.RECORD_HEADER_SIZE + data.length;
+		if (recordSize + TelemetrySegment.HEADER_SIZE + 4 > segmentSize) {
+			throw new IllegalArgumentException("Record too large for the archive: " + data.length + " bytes");
+		}
+
+		// Leave room for the zero length that marks the end of the segment
+		if (segment == null || segment.remaining() < recordSize + 4) {
+			startSegment(timestampNanos);
+		}
+
+		int offset = segment.position();
+		if (offset == TelemetrySegment.HEADER_SIZE || offset - lastIndexedOffset >= TelemetrySegment.INDEX_INTERVAL) {
+			indexEntry.clear();
+			indexEntry.putLong(timestampNanos).putInt(offset).flip();
+			indexChannel.write(indexEntry);
+			lastIndexedOffset = offset;
+		}
+
+		// Write the body first and the length last, so a reader never sees a half written record
+		segment.position(offset + 4);
+		segment.putLong(timestampNanos);
+		segment.put((byte) serialPortNum);
+		segment.put((byte) direction.ordinal());
+		segment.put(data);
+		segment.putInt(offset, data.length);
+		lastTimestampNanos = timestampNanos;
+	}
+
+	/**
+	 * Flush the current segment to the disk
+	 */
+	public void flush() {
+		if (segment != null) {
+			segment.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closeSegment();
+	}
+
+	private void startSegment(long firstTimestampNanos) throws IOException {
+		closeSegment();
+
+		if (!dir.exists() || !dir.isDirectory()) {
+			dir.mkdirs();
+		}
+
+		File segmentFile = TelemetrySegment.segmentFile(dir, firstTimestampNanos);
+		RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+		raf.setLength(segmentSize);
+		segmentChannel = raf.getChannel();
+		segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		segment.putInt(TelemetrySegment.MAGIC);
+		segment.putInt(TelemetrySegment.VERSION);
+
+		indexChannel = new RandomAccessFile(TelemetrySegment.indexFile(segmentFile), "rw").getChannel();
+		indexChannel.truncate(0);
+		lastIndexedOffset = TelemetrySegment.HEADER_SIZE;
+	}
+
+	private void closeSegment() throws IOException {
+		if (segment != null) {
+			// Trim the space that was never written off the end, keeping the zero length that marks the end of the data
+			int length = segment.position() + 4;
+			segment.force();
+			segment = null;
+			try {
+				segmentChannel.truncate(length);
+			} catch (IOException e) {
+				// Some platforms won't shrink a file that's still mapped, and the mapping lasts until it's garbage collected
+				System.err.println("Unable to trim telemetry archive segment: " + e.getMessage());
+			} finally {
+				segmentChannel.close();
+				indexChannel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package serial.archive;
+
+import java.nio.charset.Charset;
+
+/**
+ * A single line of data that went through the serial server, as stored in the telemetry archive
+ *
+ * @author Adam Campbell
+ */
+public class TelemetryRecord {
+	/**
+	 * Which way the data was going
+	 */
+	public enum Direction {
+		/**
+		 * A command from a client to a serial device
+		 */
+		CLIENT_TO_SERIAL,
+
+		/**
+		 * Data from a serial device to the clients
+		 */
+		SERIAL_TO_CLIENT
+	}
+
+	/**
+	 * The charset serial data is stored in, one byte per character so the raw bytes round trip
+	 */
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private final long timestampNanos;
+	private final int serialPortNum;
+	private final Direction direction;
+	private final byte[] data;
+
+	public TelemetryRecord(long timestampNanos, int serialPortNum, Direction direction, byte[] data) {
+		this.timestampNanos = timestampNanos;
+		this.serialPortNum = serialPortNum;
+		this.direction = direction;
+		this.data = data;
+	}
+
+	/**
+	 * @return The time the data went through the server, in nanoseconds since the epoch
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	public int getSerialPortNum() {
+		return serialPortNum;
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return The data as a String
+	 */
+	public String getDataString() {
+		return new String(data, CHARSET);
+	}
+
+	@Override
+	public String toString() {
+		return timestampNanos + " [" + serialPortNum + (direction == Direction.CLIENT_TO_SERIAL ? "<" : ">") + "] " + getDataString();
+	}
+}
@@ -0,0 +1,100 @@
+package serial.archive;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+/**
+ * The on-disk layout of the telemetry archive, shared by the writer and the reader.<br/>
+ * <br/>
+ * The archive is a directory of append-only segment files, each named after the timestamp of its first record
+ * (<i>0001400000000000000000.seg</i>). A segment starts with a header (magic number, version) followed by records:
+ * <ul>
+ * <li><b>int</b> payload length (0 marks the end of the written data, so empty records are never written)</li>
+ * <li><b>long</b> timestamp, in nanoseconds since the epoch</li>
+ * <li><b>byte</b> serial port number</li>
+ * <li><b>byte</b> direction</li>
+ * <li>the payload bytes</li>
+ * </ul>
+ * Next to each segment is a sparse index (<i>.idx</i>) of (long timestamp, int offset) pairs, one every INDEX_INTERVAL bytes, that lets a
+ * reader jump close to a given time without scanning the whole segment.
+ *
+ * @author Adam Campbell
+ */
+class TelemetrySegment {
+	static final int MAGIC = 0x43595354; // "CYST"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 1;
+	static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+	/**
+	 * Roughly how many bytes of records there are between sparse index entries
+	 */
+	static final int INDEX_INTERVAL = 4096;
+
+	static final String SEGMENT_SUFFIX = ".seg";
+	static final String INDEX_SUFFIX = ".idx";
+
+	/**
+	 * The wall clock time, in ns, when the clock was started
+	 */
+	private static final long CLOCK_BASE_NANOS = System.currentTimeMillis() * 1000000L;
+
+	/**
+	 * The System.nanoTime() when the clock was started
+	 */
+	private static final long CLOCK_BASE_TICKS = System.nanoTime();
+
+	private TelemetrySegment() {
+
+	}
+
+	/**
+	 * Get the current time in nanoseconds since the epoch. The clock is anchored to the wall clock once and then runs off
+	 * System.nanoTime(), so timestamps never go backwards.
+	 *
+	 * @return The current time, in nanoseconds since the epoch
+	 */
+	static long nowNanos() {
+		return CLOCK_BASE_NANOS + (System.nanoTime() - CLOCK_BASE_TICKS);
+	}
+
+	static File segmentFile(File dir, long firstTimestampNanos) {
+		return new File(dir, String.format("%022d", firstTimestampNanos) + SEGMENT_SUFFIX);
+	}
+
+	static File indexFile(File segmentFile) {
+		String name = segmentFile.getName();
+		return new File(segmentFile.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+	}
+
+	static long firstTimestamp(File segmentFile) {
+		String name = segmentFile.getName();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * List the segments in an archive directory, oldest first
+	 *
+	 * @param dir
+	 *            The archive directory
+	 * @return The segment files
+	 */
+	static File[] listSegments(File dir) {
+		File[] segments = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+
+		if (segments == null) {
+			return new File[0];
+		}
+
+		// The zero-padded names sort in time order
+		Arrays.sort(segments);
+		return segments;
+	}
+}
@@ -0,0 +1,27 @@
+package serial.client;
+
+/**
+ * Decides whether a line of serial data is the response to a request
+ * 
+ * @author Adam Campbell
+ */
+public interface ResponseMatcher {
+	/**
+	 * Matches whatever data comes in first
+	 */
+	ResponseMatcher ANY = new ResponseMatcher() {
+		@Override
+		public boolean matches(String data) {
+			return true;
+		}
+	};
+
+	/**
+	 * Check whether a line of data answers the request
+	 * 
+	 * @param data
+	 *            A line of data from the serial device
+	 * @return True if the data is the response being waited on
+	 */
+	boolean matches(String data);
+}
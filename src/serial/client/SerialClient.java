@@ -3,9 +3,20 @@ package serial.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import serial.SerialUtils;
 
@@ -14,10 +25,92 @@ import serial.SerialUtils;
  * @author Adam Campbell
  */
 public abstract class SerialClient {
+	/**
+	 * A listener and the executor it's notified on
+	 */
+	private static class ListenerRegistration implements Runnable {
+		private final SerialBufferedDataListener listener;
+		private final Executor executor;
+
+		/**
+		 * Data waiting to be handed to a listener with its own executor, and whether a task to do so is already queued there
+		 */
+		private final Queue<String> pending = new ConcurrentLinkedQueue<String>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		public ListenerRegistration(SerialBufferedDataListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		public void notify(String data) {
+			if (executor == null) {
+				deliver(data);
+				return;
+			}
+
+			pending.add(data);
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					System.err.println("Listener executor rejected serial data!");
+				}
+			}
+		}
+
+		/**
+		 * Hand the pending data to the listener in order, on its executor. Only one of these runs at a time for each listener.
+		 */
+		@Override
+		public void run() {
+			while (true) {
+				String data;
+				while ((data = pending.poll()) != null) {
+					deliver(data);
+				}
+
+				scheduled.set(false);
+				// Data may have been added after the last poll but before the flag was cleared
+				if (pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					return;
+				}
+			}
+		}
+
+		private void deliver(String data) {
+			try {
+				listener.serialBufferedDataReceived(data);
+			} catch (RuntimeException e) {
+				// Don't let one broken listener stop the others from hearing about the data
+				System.err.println("Error in serial data listener!");
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * A list of all the serial data listeners
 	 */
-	private List<SerialBufferedDataListener> listeners = new LinkedList<>();
+	private List<ListenerRegistration> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * A list of all the raw serial data listeners
+	 */
+	private List<SerialRawDataListener> rawListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Timer used to give up on requests that never get a response
+	 */
+	private static final ScheduledExecutorService requestTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SerialClient-RequestTimeout");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 
 	/**
 	 * The input stream
@@ -85,18 +178,28 @@ public abstract class SerialClient {
 	}
 	
 	/**
-	 * Add a listener to be notified when serial data is received
+	 * Add a listener to be notified when serial data is received, on the thread that read the data
 	 * 
 	 * @param l
 	 */
 	public void addListener(SerialBufferedDataListener l) {
+		addListener(l, null);
+	}
+
+	/**
+	 * Add a listener to be notified when serial data is received, on its own executor. The listener still sees the data in the order it was
+	 * read, but a slow listener only holds up itself rather than the serial reader and the other listeners.
+	 * 
+	 * @param l
+	 * @param executor
+	 *            The executor to notify the listener on, or null to notify it on the thread that read the data
+	 */
+	public void addListener(SerialBufferedDataListener l, Executor executor) {
 		if (l == null) {
 			throw new IllegalArgumentException("Listener cannot be null!");
 		}
 		
-		synchronized (listeners) {
-			listeners.add(l);
-		}
+		listeners.add(new ListenerRegistration(l, executor));
 	}
 
 	/**
@@ -105,8 +208,11 @@ public abstract class SerialClient {
 	 * @param l
 	 */
 	public void removeListener(SerialBufferedDataListener l) {
-		synchronized (listeners) {
-			listeners.remove(l);
+		for (ListenerRegistration registration : listeners) {
+			if (registration.listener.equals(l)) {
+				listeners.remove(registration);
+				return;
+			}
 		}
 	}
 
@@ -117,13 +223,106 @@ public abstract class SerialClient {
 	 *            The new data received
 	 */
 	public void notifyListeners(String data) {
-		synchronized (listeners) {
-			for (SerialBufferedDataListener l : listeners) {
-				l.serialBufferedDataReceived(data);
+		// Iterates over a snapshot, so listeners can come and go (even from inside a callback) without any locking
+		for (ListenerRegistration registration : listeners) {
+			registration.notify(data);
+		}
+	}
+
+	/**
+	 * Add a listener to be notified of the raw bytes received, before they're split into lines, on the thread that read them. Local clients
+	 * see every byte from the serial port; TCP clients only see anything in binary mode, one server frame at a time.
+	 * 
+	 * @param l
+	 */
+	public void addRawListener(SerialRawDataListener l) {
+		if (l == null) {
+			throw new IllegalArgumentException("Listener cannot be null!");
+		}
+
+		rawListeners.add(l);
+	}
+
+	/**
+	 * Remove a raw listener so it's no longer notified of the bytes received
+	 * 
+	 * @param l
+	 */
+	public void removeRawListener(SerialRawDataListener l) {
+		rawListeners.remove(l);
+	}
+
+	/**
+	 * Notify all the raw data listeners we have about some new bytes
+	 * 
+	 * @param buffer
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            Where the bytes start in the buffer
+	 * @param length
+	 *            The number of bytes
+	 */
+	public void notifyRawListeners(byte[] buffer, int offset, int length) {
+		for (SerialRawDataListener l : rawListeners) {
+			try {
+				l.serialRawDataReceived(buffer, offset, length);
+			} catch (RuntimeException e) {
+				System.err.println("Error in raw serial data listener!");
+				e.printStackTrace();
 			}
 		}
 	}
-	
+
+	/**
+	 * Write a command and get a Future for its response. The Future completes on the thread that reads the response, as soon as a line of
+	 * data matches, and stops listening for data once it's done. If nothing matches within the timeout it fails with a TimeoutException.
+	 * 
+	 * @param cmd
+	 *            The command to write, or null to just wait for data
+	 * @param timeout
+	 *            How long to wait for a response
+	 * @param unit
+	 *            The unit of the timeout
+	 * @param matcher
+	 *            Decides which line of data is the response
+	 * @return The response
+	 */
+	public Future<String> request(String cmd, long timeout, TimeUnit unit, ResponseMatcher matcher) {
+		// Start listening before writing, so a quick response can't be missed
+		final SerialRequest request = new SerialRequest(this, matcher);
+		request.setTimeout(requestTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				request.fail(new TimeoutException("No response received"));
+			}
+		}, timeout, unit));
+
+		if (cmd != null) {
+			try {
+				write(cmd);
+			} catch (Exception e) {
+				request.fail(e);
+			}
+		}
+
+		return request;
+	}
+
+	/**
+	 * Write a command and get a Future for the first line of data that comes back
+	 * 
+	 * @param cmd
+	 *            The command to write, or null to just wait for data
+	 * @param timeout
+	 *            How long to wait for a response
+	 * @param unit
+	 *            The unit of the timeout
+	 * @return The response
+	 */
+	public Future<String> request(String cmd, long timeout, TimeUnit unit) {
+		return request(cmd, timeout, unit, ResponseMatcher.ANY);
+	}
+
 	public String waitForResponse() {
 		return waitForResponse(SerialUtils.DEFAULT_SERIAL_RESPONSE_TIMEOUT);
 	}
@@ -136,32 +335,27 @@ public abstract class SerialClient {
 		return writeAndWaitForResponse(msg, SerialUtils.DEFAULT_SERIAL_RESPONSE_TIMEOUT);
 	}
 	
+	/**
+	 * Write a message and block until the first line of data comes back
+	 * 
+	 * @param msg
+	 *            The message to write, or null to just wait for data
+	 * @param timeoutInMillis
+	 *            How long to wait for a response
+	 * @return The response, or null if there wasn't one in time
+	 */
 	public String writeAndWaitForResponse(String msg, int timeoutInMillis) {
-		final AtomicReference<String> response = new AtomicReference<>();
-		this.addListener(new SerialBufferedDataListener() {
-			@Override
-			public void serialBufferedDataReceived(String data) {
-				response.set(data);
-			}
-		});
-		if (msg != null) {
-			try {
-				this.write(msg);
-			} catch (Exception e) {
-				e.printStackTrace();
+		try {
+			return request(msg, timeoutInMillis, TimeUnit.MILLISECONDS).get();
+		} catch (ExecutionException e) {
+			if (!(e.getCause() instanceof TimeoutException)) {
+				e.getCause().printStackTrace();
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		
-		long startWaitTime = System.currentTimeMillis();
-		while (response.get() == null && System.currentTimeMillis() - startWaitTime < timeoutInMillis) {
-			try {
-				Thread.sleep(50);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-		
-		return response.get();
+
+		return null;
 	}
 
 	
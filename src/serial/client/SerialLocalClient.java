@@ -9,8 +9,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
 import serial.server.SerialDataReader;
+import serial.server.SerialFramer;
 
 /**
  * Implementation of SerialClient for connecting to serial devices locally, without the server
@@ -18,12 +21,27 @@ import serial.server.SerialDataReader;
  * @author Adam Campbell
  */
 public class SerialLocalClient extends SerialClient {
+	/**
+	 * How data is read from the serial port
+	 */
+	public enum ReadMode {
+		/**
+		 * A reader thread blocks on the port's input stream
+		 */
+		THREAD,
+
+		/**
+		 * jSSC notifies the client as soon as bytes arrive, and they're read in the same callback
+		 */
+		EVENT
+	}
+
 	private SerialPort serialPort = null;
 	
 	private Thread reader;
 
 	/**
-	 * Construct a serial client to connect to the given serial port
+	 * Construct a serial client to connect to the given serial port, read by a reader thread
 	 * 
 	 * @param portName
 	 *            Serial port name
@@ -35,8 +53,27 @@ public class SerialLocalClient extends SerialClient {
 	 * @throws IOException
 	 */
 	public SerialLocalClient(String portName, int baudRate, String delimiters) throws SerialPortException {
+		this(portName, baudRate, delimiters, ReadMode.THREAD);
+	}
+
+	/**
+	 * Construct a serial client to connect to the given serial port
+	 * 
+	 * @param portName
+	 *            Serial port name
+	 * @param baudRate
+	 *            Baud rate
+	 * @param delimiters
+	 *            The delimiters for buffering the serial input - null/empty delimiter string means all characters will be accepted
+	 * @param readMode
+	 *            How data is read from the serial port
+	 * @throws SerialPortException
+	 */
+	public SerialLocalClient(String portName, int baudRate, String delimiters, ReadMode readMode) throws SerialPortException {
 		if (portName == null) {
 			throw new IllegalArgumentException("Port Name must not be null!");
+		} else if (readMode == null) {
+			throw new IllegalArgumentException("Read mode must not be null!");
 		}
 		
 		// //RXTX stuff
@@ -82,7 +119,7 @@ public class SerialLocalClient extends SerialClient {
 				try {
 					byte[] arr = serialPort.readBytes(1);
 					if (arr != null) {
-						return arr[0];
+						return arr[0] & 0xFF;
 					}
 					
 					return -1;
@@ -90,17 +127,85 @@ public class SerialLocalClient extends SerialClient {
 					throw new IOException(e.getMessage());
 				}
 			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+
+				try {
+					// Take everything that's already arrived in one go, or wait for the next byte if nothing has
+					int available = serialPort.getInputBufferBytesCount();
+					byte[] arr = serialPort.readBytes(available > 0 ? Math.min(available, len) : 1);
+					if (arr == null) {
+						return -1;
+					}
+
+					System.arraycopy(arr, 0, b, off, arr.length);
+					return arr.length;
+				} catch (SerialPortException e) {
+					throw new IOException(e.getMessage());
+				}
+			}
 		};
 		
-		reader = new Thread(new SerialDataReader(in, delimiters) {
+		if (readMode == ReadMode.EVENT) {
+			startEventReader(delimiters);
+		} else {
+			reader = new Thread(new SerialDataReader(in, delimiters) {
+				@Override
+				public void handleSerialBytes(byte[] buffer, int offset, int length) throws IOException {
+					notifyRawListeners(buffer, offset, length);
+					super.handleSerialBytes(buffer, offset, length);
+				}
+
+				@Override
+				public void handleSerialDataReceived(String data) throws IOException {
+					notifyListeners(data);
+				}
+			});
+			reader.start();
+		}
+		
+		state = State.ALIVE;
+	}
+
+	/**
+	 * Have jSSC tell us whenever bytes arrive, and read and frame all of them right there on its event thread
+	 * 
+	 * @param delimiters
+	 *            The delimiters for buffering the serial input
+	 * @throws SerialPortException
+	 */
+	private void startEventReader(String delimiters) throws SerialPortException {
+		// Only ever touched by jSSC's event thread
+		final SerialFramer framer = new SerialFramer(delimiters, new SerialFramer.FrameListener() {
 			@Override
-			public void handleSerialDataReceived(String data) throws IOException {
-				notifyListeners(data);
+			public void frameReceived(byte[] buffer, int offset, int length) {
+				notifyListeners(SerialFramer.toString(buffer, offset, length));
 			}
 		});
-		reader.start();
-		
-		state = State.ALIVE;
+
+		serialPort.addEventListener(new SerialPortEventListener() {
+			@Override
+			public void serialEvent(SerialPortEvent event) {
+				if (!event.isRXCHAR() || event.getEventValue() <= 0) {
+					return;
+				}
+
+				try {
+					byte[] data = serialPort.readBytes(event.getEventValue());
+					if (data != null) {
+						notifyRawListeners(data, 0, data.length);
+						framer.feed(data, 0, data.length);
+					}
+				} catch (SerialPortException | IOException e) {
+					System.err.println("Error reading from serial port " + serialPort.getPortName() + "!");
+					e.printStackTrace();
+				}
+			}
+		}, SerialPort.MASK_RXCHAR);
 	}
 
 	@Override
@@ -110,6 +215,9 @@ public class SerialLocalClient extends SerialClient {
 		} catch (SerialPortException e) {
 			e.printStackTrace();
 		}
+		if (reader != null) {
+			reader.interrupt();
+		}
 		super.die();
 	}
 	
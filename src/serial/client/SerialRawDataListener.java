@@ -0,0 +1,21 @@
+package serial.client;
+
+/**
+ * A listener for handling serial data as raw bytes, before it's split into lines - for binary protocols like KISS
+ *
+ * @author Adam Campbell
+ */
+public interface SerialRawDataListener {
+	/**
+	 * Called with the bytes received by the serial client, in order, on the thread that read them. The bytes are only valid for the
+	 * duration of the call - copy them to keep them.
+	 *
+	 * @param buffer
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            Where the bytes start in the buffer
+	 * @param length
+	 *            The number of bytes
+	 */
+	void serialRawDataReceived(byte[] buffer, int offset, int length);
+}
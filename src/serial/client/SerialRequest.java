@@ -0,0 +1,156 @@
+package serial.client;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A request waiting on its response from the serial device. The request listens to the client until a line of data matches, then stops
+ * listening and completes right there on the thread that read the data. If nothing matches before the timeout, the request fails with a
+ * TimeoutException and stops listening all the same.
+ * 
+ * @author Adam Campbell
+ */
+class SerialRequest implements Future<String>, SerialBufferedDataListener {
+	/**
+	 * The client the request was written to
+	 */
+	private final SerialClient client;
+
+	/**
+	 * Decides which data is the response
+	 */
+	private final ResponseMatcher matcher;
+
+	/**
+	 * Released once the request is done
+	 */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * The response, or the reason there isn't one. Only set once, before done is released.
+	 */
+	private String response;
+	private Throwable failure;
+	private boolean cancelled = false;
+
+	/**
+	 * The pending timeout, if one has been scheduled
+	 */
+	private ScheduledFuture<?> timeout;
+
+	/**
+	 * Construct a new request and start listening for its response
+	 * 
+	 * @param client
+	 *            The client the request is written to
+	 * @param matcher
+	 *            Decides which data is the response
+	 */
+	public SerialRequest(SerialClient client, ResponseMatcher matcher) {
+		if (matcher == null) {
+			throw new IllegalArgumentException("Matcher cannot be null!");
+		}
+
+		this.client = client;
+		this.matcher = matcher;
+		client.addListener(this);
+	}
+
+	/**
+	 * Set the timeout that will fail the request if no response comes in first
+	 * 
+	 * @param timeout
+	 *            The scheduled timeout
+	 */
+	synchronized void setTimeout(ScheduledFuture<?> timeout) {
+		if (isDone()) {
+			timeout.cancel(false);
+		} else {
+			this.timeout = timeout;
+		}
+	}
+
+	@Override
+	public void serialBufferedDataReceived(String data) {
+		if (!isDone() && matcher.matches(data)) {
+			finish(data, null, false);
+		}
+	}
+
+	/**
+	 * Fail the request
+	 * 
+	 * @param failure
+	 *            Why the request failed
+	 */
+	void fail(Throwable failure) {
+		finish(null, failure, false);
+	}
+
+	/**
+	 * Complete the request, unless it's already done
+	 * 
+	 * @return True if this call completed the request
+	 */
+	private boolean finish(String response, Throwable failure, boolean cancelled) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+
+			this.response = response;
+			this.failure = failure;
+			this.cancelled = cancelled;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			done.countDown();
+		}
+
+		client.removeListener(this);
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, null, true);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return isDone() && cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public String get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	@Override
+	public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private synchronized String result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		} else if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return response;
+	}
+}
@@ -9,8 +9,14 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import serial.FrameCodec;
 import serial.SerialUtils;
+import serial.server.SerialFramer;
 
 /**
  * A client class to communicate with the base station server
@@ -38,6 +44,21 @@ public class SerialTCPClient extends SerialClient {
 	 */
 	private int serialPortNum;
 
+	/**
+	 * Whether the connection has switched to binary framing
+	 */
+	private boolean binary = false;
+
+	/**
+	 * The sequence number of the next frame sent in binary mode
+	 */
+	private int sequence = 0;
+
+	/**
+	 * The serial ports this client is subscribed to
+	 */
+	private final Set<Integer> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
 	/**
 	 * Start the client
 	 * 
@@ -69,10 +90,32 @@ public class SerialTCPClient extends SerialClient {
 	 *            (optional) id for the serial port on the server computer
 	 */
 	public SerialTCPClient(String host, int portNum, String username, String password, int serialPortNum) {
+		this(host, portNum, username, password, serialPortNum, false);
+	}
+
+	/**
+	 * Start the client
+	 * 
+	 * @param host
+	 *            Host for the server
+	 * @param portNum
+	 *            Portnum for the server
+	 * @param username
+	 *            Username to log in
+	 * @param password
+	 *            Password to log in
+	 * @param serialPortNum
+	 *            (optional) id for the serial port on the server computer
+	 * @param binaryFraming
+	 *            Whether to ask the server for binary framing, so data goes both ways byte for byte. If the server doesn't support it, the
+	 *            client stays in text mode.
+	 */
+	public SerialTCPClient(String host, int portNum, String username, String password, int serialPortNum, boolean binaryFraming) {
 		try {
 			if (serialPortNum < 0 || serialPortNum > 9) {
 				throw new IllegalArgumentException("Invalid serial port number: " + serialPortNum);
 			}
+			this.serialPortNum = serialPortNum;
 
 			// Connect to the server
 			server = new Socket();
@@ -87,6 +130,11 @@ public class SerialTCPClient extends SerialClient {
 				System.out.println("===== CLIENT READY TO HANDLE MESSAGES =====");
 				System.out.println();
 
+				if (binaryFraming) {
+					binary = requestBinaryFraming();
+					System.out.println(binary ? "Using binary framing" : "Server doesn't support binary framing, using text");
+				}
+
 				// Start the data thread
 				dataIn = new DataInThread(in);
 				dataIn.start();
@@ -145,7 +193,42 @@ public class SerialTCPClient extends SerialClient {
 	}
 
 	/**
-	 * Write data to the serial server, adding whatever implementation-specific details are required
+	 * Ask the server to switch to binary framing, and wait for it to agree
+	 * 
+	 * @return True if the server switched, false if it didn't answer
+	 * @throws IOException
+	 */
+	private boolean requestBinaryFraming() throws IOException {
+		out.write((SerialUtils.BINARY_COMMAND + "\n").getBytes());
+
+		// Read the answer a byte at a time, so nothing after it is taken from the stream
+		StringBuilder answer = new StringBuilder();
+		server.setSoTimeout(TIMEOUT_TIME);
+		try {
+			int b;
+			while ((b = in.read()) >= 0 && b != '\n') {
+				answer.append((char) b);
+			}
+		} catch (SocketTimeoutException e) {
+			return false;
+		} finally {
+			server.setSoTimeout(0);
+		}
+
+		return SerialUtils.BINARY_COMMAND.equals(answer.toString().trim());
+	}
+
+	/**
+	 * @return True if the connection has switched to binary framing
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Write data to the serial server, adding whatever implementation-specific details are required. In binary mode the escaped "\\r" and
+	 * "\\n" that text mode needs are turned back into real line endings, and a trailing newline is dropped, so the serial port gets the
+	 * same bytes either way.
 	 * 
 	 * @param data
 	 *            The data to write
@@ -154,12 +237,17 @@ public class SerialTCPClient extends SerialClient {
 	@Override
 	public void write(String data) throws IOException {
 		if (data != null && !data.isEmpty()) {
-			out.write(String.format("%d%s", serialPortNum, data).getBytes());
+			if (binary) {
+				writeFrame(serialPortNum, 0, unescape(data));
+			} else {
+				out.write(String.format("%d%s", serialPortNum, data).getBytes());
+			}
 		}
 	}
 
 	/**
-	 * Write data to the serial server as is, nothing added or removed
+	 * Write data to the serial server as is, nothing added or removed. In binary mode the data is sent to the serial port as the payload
+	 * of a single frame.
 	 * 
 	 * @param data
 	 *            The data to write
@@ -168,7 +256,126 @@ public class SerialTCPClient extends SerialClient {
 	@Override
 	public void writeVerbatim(String data) throws IOException {
 		if (data != null && !data.isEmpty()) {
-			out.write(data.getBytes());
+			if (binary) {
+				writeFrame(serialPortNum, 0, data.getBytes(SerialFramer.CHARSET));
+			} else {
+				out.write(data.getBytes());
+			}
+		}
+	}
+
+	/**
+	 * Write raw bytes to the serial port, exactly as they are. Only possible in binary mode, since text mode can't carry line endings.
+	 * 
+	 * @param data
+	 *            The bytes to write
+	 * @throws IOException
+	 */
+	public void writeBytes(byte[] data) throws IOException {
+		if (!binary) {
+			throw new IllegalStateException("Raw bytes can only be written in binary mode!");
+		}
+
+		writeFrame(serialPortNum, 0, data);
+	}
+
+	private synchronized void writeFrame(int port, int flags, byte[] payload) throws IOException {
+		out.write(FrameCodec.encode(port, sequence++, flags, payload));
+	}
+
+	/**
+	 * Turn a text mode message into the bytes the serial port should get
+	 */
+	private static byte[] unescape(String data) {
+		int end = data.endsWith("\n") ? data.length() - 1 : data.length();
+		byte[] bytes = new byte[end];
+		int n = 0;
+		for (int i = 0; i < end; i++) {
+			char c = data.charAt(i);
+			if (c == '\\' && i + 1 < end && (data.charAt(i + 1) == 'r' || data.charAt(i + 1) == 'n')) {
+				c = data.charAt(++i) == 'r' ? '\r' : '\n';
+			}
+			bytes[n++] = (byte) c;
+		}
+
+		return Arrays.copyOf(bytes, n);
+	}
+
+	/**
+	 * Subscribe to all data coming from the given serial ports on the server, not just the responses to this client's own commands
+	 * 
+	 * @param serialPortNums
+	 *            The serial port numbers
+	 * @throws IOException
+	 */
+	public void subscribe(int... serialPortNums) throws IOException {
+		writeSubscription(SerialUtils.SUBSCRIBE_COMMAND, serialPortNums);
+		for (int serialPortNum : serialPortNums) {
+			subscriptions.add(serialPortNum);
+		}
+	}
+
+	/**
+	 * Stop receiving data from the given serial ports on the server that isn't a response to this client's own commands
+	 * 
+	 * @param serialPortNums
+	 *            The serial port numbers
+	 * @throws IOException
+	 */
+	public void unsubscribe(int... serialPortNums) throws IOException {
+		writeSubscription(SerialUtils.UNSUBSCRIBE_COMMAND, serialPortNums);
+		for (int serialPortNum : serialPortNums) {
+			subscriptions.remove(serialPortNum);
+		}
+	}
+
+	private void writeSubscription(String command, int... serialPortNums) throws IOException {
+		StringBuilder sb = new StringBuilder(command);
+		for (int serialPortNum : serialPortNums) {
+			if (serialPortNum < 0 || serialPortNum > 9) {
+				throw new IllegalArgumentException("Invalid serial port number: " + serialPortNum);
+			}
+			sb.append(' ').append(serialPortNum);
+		}
+
+		if (binary) {
+			writeFrame(0, FrameCodec.FLAG_CONTROL, sb.toString().getBytes(SerialFramer.CHARSET));
+		} else {
+			out.write((sb.toString() + "\n").getBytes());
+		}
+	}
+
+	/**
+	 * Read frames from the server, noting any data from the subscribed serial ports that was dropped along the way
+	 */
+	private void readFrames(InputStream in) throws IOException {
+		final int[] expectedSequences = new int[256];
+		Arrays.fill(expectedSequences, -1);
+		FrameCodec decoder = new FrameCodec(new FrameCodec.FrameListener() {
+			@Override
+			public void frameReceived(int port, int sequence, int flags, byte[] payload, int offset, int length) {
+				if ((flags & FrameCodec.FLAG_CONTROL) == 0 && subscriptions.contains(port)) {
+					// Subscribers get every message from the port, so a gap means some were dropped
+					int expected = expectedSequences[port];
+					if (expected >= 0 && sequence != expected) {
+						System.err.println("Missed " + ((sequence - expected) & 0xFFFF) + " message(s) from serial port " + port);
+					}
+					expectedSequences[port] = (sequence + 1) & 0xFFFF;
+				} else if ((flags & FrameCodec.FLAG_CONTROL) == 0) {
+					expectedSequences[port] = -1;
+				}
+
+				if ((flags & FrameCodec.FLAG_CONTROL) == 0) {
+					notifyRawListeners(payload, offset, length);
+				}
+				notifyListeners(new String(payload, offset, length, SerialFramer.CHARSET));
+			}
+		});
+
+		byte[] buffer = new byte[SerialUtils.BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			decoder.feed(buffer, 0, n);
 		}
 	}
 
@@ -180,12 +387,17 @@ public class SerialTCPClient extends SerialClient {
 			super(new Runnable() {
 				@Override
 				public void run() {
-					String line = null;
-					BufferedReader br = new BufferedReader(new InputStreamReader(in));
 					try {
-						// Read from the server and add it to the list
-						while ((line = br.readLine()) != null) {
-							notifyListeners(line);
+						if (binary) {
+							readFrames(in);
+						} else {
+							String line = null;
+							BufferedReader br = new BufferedReader(new InputStreamReader(in));
+
+							// Read from the server and add it to the list
+							while ((line = br.readLine()) != null) {
+								notifyListeners(line);
+							}
 						}
 					} catch (SocketException e) {
 						System.err.println("Server connection reset. Reconnect needed. Client dying...");
@@ -0,0 +1,13 @@
+package serial.metrics;
+
+/**
+ * A metric that's read when it's asked for, like the depth of a queue
+ *
+ * @author Adam Campbell
+ */
+public interface Gauge {
+	/**
+	 * @return The current value
+	 */
+	long getValue();
+}
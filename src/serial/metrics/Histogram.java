@@ -0,0 +1,130 @@
+package serial.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, like latencies in microseconds, that can be recorded to from any number of threads without locking
+ * or allocating.<br/>
+ * <br/>
+ * Like an HDR histogram, values are counted in buckets whose width grows with the value: values below 16 get a bucket each, and every
+ * power of 2 above that is split into 16 buckets. Percentiles are therefore accurate to within about 6%, across the whole range of a
+ * long, in a fixed 1 KB or so of counters.
+ *
+ * @author Adam Campbell
+ */
+public class Histogram {
+	/**
+	 * The number of buckets each power of 2 is split into, as a power of 2
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value
+	 *
+	 * @param value
+	 *            The value - negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// Lost a race with another record, try again
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return The mean of the values recorded, or 0 if there aren't any
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n > 0 ? (double) sum.get() / n : 0;
+	}
+
+	/**
+	 * Get a percentile of the values recorded
+	 *
+	 * @param percentile
+	 *            The percentile, from 0 to 100
+	 * @return The largest value in the bucket the percentile falls in, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(getBucketMax(i), max.get());
+			}
+		}
+
+		// Values recorded while the counts were being read
+		return max.get();
+	}
+
+	/**
+	 * Forget every value recorded so far
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int getBucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long getBucketMax(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long min = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return min + width - 1 < 0 ? Long.MAX_VALUE : min + width - 1;
+	}
+}
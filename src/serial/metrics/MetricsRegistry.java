@@ -0,0 +1,141 @@
+package serial.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named set of counters, gauges and histograms.<br/>
+ * <br/>
+ * Names are dotted paths like <i>serial.0.bytesIn</i>. Looking a metric up by name takes a map lookup, so code on a hot path should look
+ * its metrics up once and keep them.
+ *
+ * @author Adam Campbell
+ */
+public class MetricsRegistry {
+	/**
+	 * The percentiles reported for each histogram
+	 */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * Get a counter, creating it if it doesn't exist yet
+	 *
+	 * @param name
+	 *            The counter's name
+	 * @return The counter
+	 */
+	public AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Get a histogram, creating it if it doesn't exist yet
+	 *
+	 * @param name
+	 *            The histogram's name
+	 * @return The histogram
+	 */
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram newHistogram = new Histogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Add a histogram that's owned by something else, replacing any with the same name
+	 *
+	 * @param name
+	 *            The histogram's name
+	 * @param histogram
+	 *            The histogram
+	 */
+	public void register(String name, Histogram histogram) {
+		histograms.put(name, histogram);
+	}
+
+	/**
+	 * Add a gauge, replacing any with the same name
+	 *
+	 * @param name
+	 *            The gauge's name
+	 * @param gauge
+	 *            The gauge
+	 */
+	public void register(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Remove every metric whose name starts with the given prefix, e.g. when a client disconnects
+	 *
+	 * @param prefix
+	 *            The prefix
+	 */
+	public void removeAll(String prefix) {
+		removeAll(counters, prefix);
+		removeAll(gauges, prefix);
+		removeAll(histograms, prefix);
+	}
+
+	/**
+	 * Read every metric. Histograms are reported as their count, mean, max and percentiles, like <i>name.count</i> and <i>name.p99</i>.
+	 *
+	 * @return The value of every metric, sorted by name
+	 */
+	public SortedMap<String, Number> snapshot() {
+		SortedMap<String, Number> snapshot = new TreeMap<String, Number>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			try {
+				snapshot.put(entry.getKey(), entry.getValue().getValue());
+			} catch (RuntimeException e) {
+				// Don't let one broken gauge hide the rest
+				System.err.println("Error reading gauge " + entry.getKey() + ": " + e);
+			}
+		}
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			String name = entry.getKey();
+			Histogram histogram = entry.getValue();
+			snapshot.put(name + ".count", histogram.getCount());
+			snapshot.put(name + ".mean", histogram.getMean());
+			snapshot.put(name + ".max", histogram.getMax());
+			for (double percentile : PERCENTILES) {
+				String label = percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile);
+				snapshot.put(name + ".p" + label, histogram.getPercentile(percentile));
+			}
+		}
+		return snapshot;
+	}
+
+	private static void removeAll(Map<String, ?> metrics, String prefix) {
+		for (String name : metrics.keySet()) {
+			if (name.startsWith(prefix)) {
+				metrics.remove(name);
+			}
+		}
+	}
+}
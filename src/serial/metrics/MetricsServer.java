@@ -0,0 +1,184 @@
+package serial.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exposes a metrics registry over HTTP and JMX.<br/>
+ * <br/>
+ * Over HTTP, <i>GET /metrics</i> returns every metric as a line of plain text, <i>name value</i>. The HTTP server only listens on the
+ * loopback address. Over JMX, every metric is a read-only attribute of a single MBean, so it shows up in JConsole or VisualVM.
+ *
+ * @author Adam Campbell
+ */
+public class MetricsServer {
+	/**
+	 * The JMX name the metrics are registered under
+	 */
+	public static final String OBJECT_NAME = "serial.server:type=Metrics";
+
+	/**
+	 * The metrics as a JMX MBean, with an attribute for each metric
+	 */
+	private static class MetricsMBean implements DynamicMBean {
+		private final MetricsRegistry registry;
+
+		public MetricsMBean(MetricsRegistry registry) {
+			this.registry = registry;
+		}
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Number value = registry.snapshot().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return value;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			SortedMap<String, Number> snapshot = registry.snapshot();
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				Number value = snapshot.get(attribute);
+				if (value != null) {
+					list.add(new Attribute(attribute, value));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			SortedMap<String, Number> snapshot = registry.snapshot();
+			MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+			int i = 0;
+			for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+				attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false,
+						false);
+			}
+			return new MBeanInfo(getClass().getName(), "Serial server metrics", attributes, null, null, null);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			// There are no operations, only attributes
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+	}
+
+	private final MetricsRegistry registry;
+
+	private HttpServer httpServer;
+
+	/**
+	 * Construct a new metrics server
+	 *
+	 * @param registry
+	 *            The metrics to expose
+	 */
+	public MetricsServer(MetricsRegistry registry) {
+		if (registry == null) {
+			throw new IllegalArgumentException("Registry cannot be null!");
+		}
+
+		this.registry = registry;
+	}
+
+	/**
+	 * Register the metrics with the platform MBean server
+	 *
+	 * @throws JMException
+	 *             If they can't be registered, e.g. because another registry already has been
+	 */
+	public void registerMBean() throws JMException {
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (mbeanServer.isRegistered(name)) {
+			mbeanServer.unregisterMBean(name);
+		}
+		mbeanServer.registerMBean(new MetricsMBean(registry), name);
+	}
+
+	/**
+	 * Start serving the metrics over HTTP on the loopback address
+	 *
+	 * @param port
+	 *            The port to listen on
+	 * @throws IOException
+	 *             If the port can't be bound
+	 */
+	public synchronized void startHttp(int port) throws IOException {
+		if (httpServer != null) {
+			throw new IllegalStateException("Metrics HTTP server has already been started!");
+		}
+
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				StringBuilder sb = new StringBuilder();
+				for (Map.Entry<String, Number> entry : registry.snapshot().entrySet()) {
+					sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+				}
+
+				byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		httpServer.start();
+	}
+
+	/**
+	 * @return The port the HTTP server is listening on, or -1 if it isn't running
+	 */
+	public synchronized int getHttpPort() {
+		return httpServer != null ? httpServer.getAddress().getPort() : -1;
+	}
+
+	/**
+	 * Stop serving the metrics over HTTP
+	 */
+	public synchronized void stopHttp() {
+		if (httpServer != null) {
+			httpServer.stop(0);
+			httpServer = null;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package serial.packet;
+
+/**
+ * Decodes the data frames from a KissDeframer into AX.25 packets, checking the FCS if the TNC passes it on, and hands them to a listener.
+ * The same packet is reused for every frame.
+ *
+ * @author Adam Campbell
+ */
+public class AX25Decoder implements KissDeframer.FrameListener {
+	private final AX25Listener listener;
+	private final boolean fcsIncluded;
+	private final AX25Packet packet = new AX25Packet();
+
+	/**
+	 * The number of frames dropped for a bad FCS, or for not being valid AX.25
+	 */
+	private long badFcsCount = 0;
+	private long malformedCount = 0;
+
+	/**
+	 * Construct a new decoder, for a TNC that checks and strips the FCS itself, as most KISS TNCs do
+	 *
+	 * @param listener
+	 *            Gets each packet as it's decoded
+	 */
+	public AX25Decoder(AX25Listener listener) {
+		this(listener, false);
+	}
+
+	/**
+	 * Construct a new decoder
+	 *
+	 * @param listener
+	 *            Gets each packet as it's decoded
+	 * @param fcsIncluded
+	 *            Whether frames end in the 2 byte FCS, to be checked and stripped
+	 */
+	public AX25Decoder(AX25Listener listener, boolean fcsIncluded) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null!");
+		}
+
+		this.listener = listener;
+		this.fcsIncluded = fcsIncluded;
+	}
+
+	@Override
+	public void frameReceived(int port, int command, byte[] buffer, int offset, int length) {
+		if (command != KissDeframer.COMMAND_DATA) {
+			return;
+		}
+
+		if (fcsIncluded) {
+			if (!Crc16.check(buffer, offset, length)) {
+				badFcsCount++;
+				return;
+			}
+			length -= 2;
+		}
+
+		if (!packet.parse(buffer, offset, length)) {
+			malformedCount++;
+			return;
+		}
+
+		listener.packetReceived(port, packet);
+	}
+
+	public long getBadFcsCount() {
+		return badFcsCount;
+	}
+
+	public long getMalformedCount() {
+		return malformedCount;
+	}
+}
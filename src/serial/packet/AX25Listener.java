@@ -0,0 +1,18 @@
+package serial.packet;
+
+/**
+ * A listener for handling AX.25 packets as they're decoded
+ *
+ * @author Adam Campbell
+ */
+public interface AX25Listener {
+	/**
+	 * Handle a packet. The packet is reused for the next one, so it's only valid until this returns - use packet.copy() to keep it.
+	 *
+	 * @param port
+	 *            The TNC port it was received on
+	 * @param packet
+	 *            The packet
+	 */
+	void packetReceived(int port, AX25Packet packet);
+}
@@ -0,0 +1,232 @@
+package serial.packet;
+
+import java.util.Arrays;
+
+/**
+ * An AX.25 frame, parsed in place from the buffer it was received into.<br/>
+ * <br/>
+ * Parsing only records where each field is, so a packet can be reused for every frame without allocating. A parsed packet is therefore
+ * only valid while the buffer it was parsed from is - for a packet handed to an AX25Listener, until the listener returns. Use copy() to
+ * keep one.<br/>
+ * <br/>
+ * A frame starts with the destination, source and up to 8 digipeater addresses, each 7 bytes: a callsign of 6 ASCII characters, padded
+ * with spaces and shifted left one bit, then an SSID byte whose lowest bit marks the last address. The control byte follows, then for I
+ * and UI frames the protocol ID (PID), then the information field. The frame check sequence isn't part of the packet.
+ *
+ * @author Adam Campbell
+ */
+public class AX25Packet {
+	public static enum FrameType {
+		/**
+		 * An information frame, for connected mode
+		 */
+		I,
+		/**
+		 * A supervisory frame, for connected mode
+		 */
+		S,
+		/**
+		 * An unnumbered frame, other than UI
+		 */
+		U,
+		/**
+		 * An unnumbered information frame, as used by beacons and telemetry
+		 */
+		UI
+	}
+
+	/**
+	 * The length of an address field
+	 */
+	public static final int ADDRESS_LENGTH = 7;
+
+	/**
+	 * The most digipeaters a frame can list
+	 */
+	public static final int MAX_DIGIPEATERS = 8;
+
+	/**
+	 * The PID for a frame with no layer 3 protocol
+	 */
+	public static final int PID_NO_LAYER_3 = 0xF0;
+
+	private byte[] buffer;
+	private int offset;
+	private int length;
+
+	private int addressCount;
+	private int control;
+	private int pid;
+	private FrameType type;
+	private int infoOffset;
+	private int infoLength;
+
+	/**
+	 * Parse a frame into this packet, replacing whatever it held before
+	 *
+	 * @param buffer
+	 *            The buffer holding the frame, without the FCS
+	 * @param offset
+	 *            Where the frame starts in the buffer
+	 * @param length
+	 *            The frame length
+	 * @return True if the frame is well formed, false if not, in which case the packet shouldn't be used
+	 */
+	public boolean parse(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		this.type = null;
+
+		int end = offset + length;
+		int pos = offset;
+		addressCount = 0;
+		while (true) {
+			if (pos + ADDRESS_LENGTH > end || addressCount == 2 + MAX_DIGIPEATERS) {
+				return false;
+			}
+			addressCount++;
+			pos += ADDRESS_LENGTH;
+			if ((buffer[pos - 1] & 0x01) != 0) {
+				break;
+			}
+		}
+		if (addressCount < 2 || pos >= end) {
+			return false;
+		}
+
+		control = buffer[pos++] & 0xFF;
+		if ((control & 0x01) == 0) {
+			type = FrameType.I;
+		} else if ((control & 0x03) == 0x01) {
+			type = FrameType.S;
+		} else if ((control & ~0x10) == 0x03) {
+			type = FrameType.UI;
+		} else {
+			type = FrameType.U;
+		}
+
+		pid = -1;
+		if (type == FrameType.I || type == FrameType.UI) {
+			if (pos >= end) {
+				type = null;
+				return false;
+			}
+			pid = buffer[pos++] & 0xFF;
+		}
+
+		infoOffset = pos;
+		infoLength = end - pos;
+		return true;
+	}
+
+	/**
+	 * @return A copy of this packet that doesn't depend on the buffer it was parsed from
+	 */
+	public AX25Packet copy() {
+		AX25Packet copy = new AX25Packet();
+		copy.parse(Arrays.copyOfRange(buffer, offset, offset + length), 0, length);
+		return copy;
+	}
+
+	public FrameType getFrameType() {
+		return type;
+	}
+
+	public String getDestination() {
+		return getAddress(0);
+	}
+
+	public String getSource() {
+		return getAddress(1);
+	}
+
+	public int getDigipeaterCount() {
+		return addressCount - 2;
+	}
+
+	/**
+	 * @param index
+	 *            Which digipeater, in the order they're listed
+	 * @return The digipeater's address, with a '*' on the end if it has repeated the frame
+	 */
+	public String getDigipeater(int index) {
+		if (index < 0 || index >= getDigipeaterCount()) {
+			throw new IllegalArgumentException("Invalid digipeater: " + index);
+		}
+
+		String address = getAddress(index + 2);
+		return (buffer[getAddressOffset(index + 2) + 6] & 0x80) != 0 ? address + "*" : address;
+	}
+
+	public int getControl() {
+		return control;
+	}
+
+	/**
+	 * @return The PID, or -1 for frames other than I and UI, which don't have one
+	 */
+	public int getPid() {
+		return pid;
+	}
+
+	/**
+	 * @return The buffer holding the information field
+	 */
+	public byte[] getInfoBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return Where the information field starts in the buffer
+	 */
+	public int getInfoOffset() {
+		return infoOffset;
+	}
+
+	public int getInfoLength() {
+		return infoLength;
+	}
+
+	/**
+	 * @return A copy of the information field
+	 */
+	public byte[] getInfo() {
+		return Arrays.copyOfRange(buffer, infoOffset, infoOffset + infoLength);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getSource()).append('>').append(getDestination());
+		for (int i = 0; i < getDigipeaterCount(); i++) {
+			sb.append(',').append(getDigipeater(i));
+		}
+		sb.append(' ').append(type).append(" (").append(infoLength).append(" bytes)");
+		return sb.toString();
+	}
+
+	private int getAddressOffset(int index) {
+		return offset + index * ADDRESS_LENGTH;
+	}
+
+	/**
+	 * Decode an address as CALLSIGN-SSID, leaving off the SSID if it's 0
+	 */
+	private String getAddress(int index) {
+		int start = getAddressOffset(index);
+		StringBuilder sb = new StringBuilder(9);
+		for (int i = start; i < start + 6; i++) {
+			char c = (char) ((buffer[i] & 0xFF) >> 1);
+			if (c != ' ') {
+				sb.append(c);
+			}
+		}
+
+		int ssid = (buffer[start + 6] >> 1) & 0x0F;
+		if (ssid != 0) {
+			sb.append('-').append(ssid);
+		}
+		return sb.toString();
+	}
+}
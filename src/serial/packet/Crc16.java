@@ -0,0 +1,68 @@
+package serial.packet;
+
+/**
+ * The CRC-16/X.25 used as the frame check sequence (FCS) of AX.25 frames: the reflected CCITT polynomial 0x8408, starting at 0xFFFF and
+ * inverted at the end. The FCS is sent low byte first.
+ *
+ * @author Adam Campbell
+ */
+public class Crc16 {
+	/**
+	 * The CRC of every byte value, so the CRC can be updated a byte at a time with one lookup
+	 */
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private Crc16() {
+
+	}
+
+	/**
+	 * Compute the CRC of some bytes
+	 *
+	 * @param buffer
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            Where the bytes start in the buffer
+	 * @param length
+	 *            The number of bytes
+	 * @return The CRC
+	 */
+	public static int compute(byte[] buffer, int offset, int length) {
+		int crc = 0xFFFF;
+		for (int i = offset; i < offset + length; i++) {
+			crc = (crc >>> 8) ^ TABLE[(crc ^ buffer[i]) & 0xFF];
+		}
+
+		return ~crc & 0xFFFF;
+	}
+
+	/**
+	 * Check whether a frame ends in a valid FCS
+	 *
+	 * @param buffer
+	 *            The buffer holding the frame
+	 * @param offset
+	 *            Where the frame starts in the buffer
+	 * @param length
+	 *            The length of the frame, including the 2 byte FCS
+	 * @return True if the FCS matches the rest of the frame
+	 */
+	public static boolean check(byte[] buffer, int offset, int length) {
+		if (length < 2) {
+			return false;
+		}
+
+		int fcs = (buffer[offset + length - 2] & 0xFF) | ((buffer[offset + length - 1] & 0xFF) << 8);
+		return compute(buffer, offset, length - 2) == fcs;
+	}
+}
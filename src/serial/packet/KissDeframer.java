@@ -0,0 +1,206 @@
+package serial.packet;
+
+import java.io.ByteArrayOutputStream;
+
+import serial.client.SerialRawDataListener;
+
+/**
+ * Splits a KISS byte stream, as sent by a TNC like the TS-2000's in packet mode, back into frames.<br/>
+ * <br/>
+ * Every frame is sent between two FEND bytes, starting with a type byte holding the TNC port in the high nibble and the command in the low
+ * nibble (0 for data). FEND and FESC bytes inside a frame are escaped as FESC TFEND and FESC TFESC.<br/>
+ * <br/>
+ * The deframer is fed the bytes as they arrive, in chunks of any size, and unescapes them into a single buffer that's reused for every
+ * frame, so decoding doesn't allocate. Frames longer than the buffer are dropped.
+ *
+ * @author Adam Campbell
+ */
+public class KissDeframer implements SerialRawDataListener {
+	/**
+	 * Gets each frame as it's deframed
+	 */
+	public static interface FrameListener {
+		/**
+		 * Handle a frame. The frame is only valid until this returns.
+		 *
+		 * @param port
+		 *            The TNC port
+		 * @param command
+		 *            The KISS command - COMMAND_DATA for a frame received over the air
+		 * @param buffer
+		 *            The buffer holding the frame, without the type byte
+		 * @param offset
+		 *            Where the frame starts in the buffer
+		 * @param length
+		 *            The frame length
+		 */
+		public void frameReceived(int port, int command, byte[] buffer, int offset, int length);
+	}
+
+	public static final int FEND = 0xC0;
+	public static final int FESC = 0xDB;
+	public static final int TFEND = 0xDC;
+	public static final int TFESC = 0xDD;
+
+	/**
+	 * The KISS command for a data frame
+	 */
+	public static final int COMMAND_DATA = 0x00;
+
+	/**
+	 * The default longest frame, enough for an AX.25 frame with 256 bytes of information and every digipeater
+	 */
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 400;
+
+	private final FrameListener listener;
+
+	/**
+	 * The frame being deframed, including the type byte, and how much of it has arrived
+	 */
+	private final byte[] frame;
+	private int frameLength = 0;
+
+	/**
+	 * Whether the last byte was FESC
+	 */
+	private boolean escaped = false;
+
+	/**
+	 * Whether the frame being deframed has overflowed the buffer, and will be dropped
+	 */
+	private boolean overflowed = false;
+
+	/**
+	 * The number of frames dropped for being too long
+	 */
+	private long droppedCount = 0;
+
+	/**
+	 * Construct a new deframer
+	 *
+	 * @param listener
+	 *            Gets each frame as it's deframed
+	 */
+	public KissDeframer(FrameListener listener) {
+		this(listener, DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	/**
+	 * Construct a new deframer
+	 *
+	 * @param listener
+	 *            Gets each frame as it's deframed
+	 * @param maxFrameLength
+	 *            The longest frame to accept, not counting the type byte
+	 */
+	public KissDeframer(FrameListener listener, int maxFrameLength) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null!");
+		} else if (maxFrameLength <= 0) {
+			throw new IllegalArgumentException("Invalid maximum frame length: " + maxFrameLength);
+		}
+
+		this.listener = listener;
+		this.frame = new byte[maxFrameLength + 1];
+	}
+
+	/**
+	 * Encode a data frame to send to the TNC
+	 *
+	 * @param port
+	 *            The TNC port
+	 * @param data
+	 *            The frame
+	 * @return The KISS encoded frame
+	 */
+	public static byte[] encode(int port, byte[] data) {
+		if (port < 0 || port > 0x0F) {
+			throw new IllegalArgumentException("Invalid TNC port: " + port);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 8);
+		out.write(FEND);
+		out.write((port << 4) | COMMAND_DATA);
+		for (byte b : data) {
+			int c = b & 0xFF;
+			if (c == FEND) {
+				out.write(FESC);
+				out.write(TFEND);
+			} else if (c == FESC) {
+				out.write(FESC);
+				out.write(TFESC);
+			} else {
+				out.write(c);
+			}
+		}
+		out.write(FEND);
+		return out.toByteArray();
+	}
+
+	@Override
+	public void serialRawDataReceived(byte[] buffer, int offset, int length) {
+		feed(buffer, offset, length);
+	}
+
+	/**
+	 * Feed bytes to the deframer, handing every frame they complete to the listener
+	 *
+	 * @param buffer
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            Where the bytes start in the buffer
+	 * @param length
+	 *            The number of bytes
+	 */
+	public void feed(byte[] buffer, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			int c = buffer[i] & 0xFF;
+			if (c == FEND) {
+				endFrame();
+				continue;
+			}
+
+			if (escaped) {
+				escaped = false;
+				if (c == TFEND) {
+					c = FEND;
+				} else if (c == TFESC) {
+					c = FESC;
+				}
+				// Anything else after FESC is a protocol error - KISS says to keep the byte as it is
+			} else if (c == FESC) {
+				escaped = true;
+				continue;
+			}
+
+			if (frameLength < frame.length) {
+				frame[frameLength++] = (byte) c;
+			} else {
+				overflowed = true;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of frames dropped for being too long
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	private void endFrame() {
+		int length = frameLength;
+		boolean dropped = overflowed;
+		frameLength = 0;
+		escaped = false;
+		overflowed = false;
+
+		if (dropped) {
+			droppedCount++;
+		} else if (length > 1) {
+			// Back to back FENDs are just padding between frames
+			int type = frame[0] & 0xFF;
+			listener.frameReceived(type >> 4, type & 0x0F, frame, 1, length - 1);
+		}
+	}
+}
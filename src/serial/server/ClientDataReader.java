@@ -1,17 +1,15 @@
 package serial.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.Arrays;
 
+import serial.FrameCodec;
 import serial.SerialUtils;
-import serial.server.SerialServer.AllowedUser;
 
 /**
  * Reads data from the client and handles it appropriately
@@ -34,6 +32,22 @@ public class ClientDataReader implements Runnable {
 	 */
 	private int clientNum;
 
+	/**
+	 * The socket's own input stream, which the server knows the client by
+	 */
+	private InputStream clientIn;
+
+	/**
+	 * The client's input. The login, the text mode lines and the binary frames are all read through this one buffered stream, so nothing
+	 * read ahead while reading a line is lost when the client switches to binary framing.
+	 */
+	private InputStream in;
+
+	/**
+	 * Whether the last line ended on '\r', in which case a '\n' straight after it is part of the same line ending
+	 */
+	private boolean skipLF = false;
+
 	/**
 	 * Construct a new ClientDataReader with the given parameters
 	 * 
@@ -56,7 +70,6 @@ public class ClientDataReader implements Runnable {
 	 * @return True if the client has been successfully validated, false otherwise
 	 */
 	private boolean validate() {
-		ArrayList<AllowedUser> whiteList = server.getWhiteList();
 		boolean valid;
 
 		try {
@@ -64,17 +77,22 @@ public class ClientDataReader implements Runnable {
 			// which will be the first two messages sent from it when it
 			// connects to the server
 			OutputStream clientOut = client.getOutputStream();
-			InputStream clientIn = client.getInputStream();
-			BufferedReader br = new BufferedReader(new InputStreamReader(clientIn));
+			clientIn = client.getInputStream();
+			in = new BufferedInputStream(clientIn, SerialUtils.BUFFER_SIZE);
 
-			String clientUser = br.readLine();
-			String clientPass = br.readLine();
+			String clientUser = readLine();
+			String clientPass = readLine();
 
 			// Check if it appears in the whitelist and send the
 			// client the appropriate result message
-			if (clientUser != null && clientPass != null && whiteList.contains(new AllowedUser(clientUser.trim(), clientPass.trim()))) {
+			if (server.isAllowedUser(clientUser, clientPass)) {
 				valid = true;
 				clientOut.write((SerialUtils.VALID_USER_MESSAGE + "\n").getBytes());
+
+				// From now on everything sent to the client goes through its outbox
+				ClientSession session = new ClientSession(clientNum, server.createOutbox());
+				server.addSession(session);
+				(new Thread(new ClientDataWriter(client, session))).start();
 			} else {
 				valid = false;
 				clientOut.write((SerialUtils.INVALID_USER_MESSAGE + "\n").getBytes());
@@ -95,57 +113,67 @@ public class ClientDataReader implements Runnable {
 	}
 
 	/**
-	 * Process a command received from the client, writing it directly to the server's serial ports
+	 * Read a line from the client. Lines end on '\n', '\r' or "\r\n", the same as BufferedReader.readLine().
 	 * 
-	 * @param cmd
-	 *            The command sent from the client
-	 * @param serialPortNum
-	 *            The serial port number to which the command is directed
+	 * @return The line, without its line ending, or null if the client has disconnected
 	 * @throws IOException
-	 *             If writing to the server's serial ports goes wrong
 	 */
-	private void processCommand(String cmd, int serialPortNum) throws IOException {
-		cmd = cmd.replaceAll("\\\\r", "\r");
-		cmd = cmd.replaceAll("\\\\n", "\n");
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (skipLF) {
+				skipLF = false;
+				if (b == '\n') {
+					continue;
+				}
+			}
 
-		server.getSerialOut(serialPortNum).write(cmd.getBytes());
+			if (b == '\n') {
+				return line.toString();
+			} else if (b == '\r') {
+				skipLF = true;
+				return line.toString();
+			}
+			line.write(b);
+		}
+
+		return line.size() > 0 ? line.toString() : null;
 	}
 
 	/**
-	 * Handle data received from the client
+	 * Read binary frames from the client until it disconnects
 	 * 
-	 * @param data
-	 *            The data sent from the client
-	 * @param serialPortNum
-	 *            The serial port to which the data is directed
 	 * @throws IOException
-	 *             If writing goes wrong
 	 */
-	private void handleClientDataReceived(String data, int serialPortNum) throws IOException {
-		// Only [0-9] are valid serial ports
-		if (serialPortNum < 0 || serialPortNum > 9) {
-			return;
-		}
-
-		// Backup the data
-		SerialUtils.backupData(data, SerialUtils.getJarDirectory() + "Data-Logs/Client-Data/");
+	private void readFrames() throws IOException {
+		FrameCodec decoder = new FrameCodec(new FrameCodec.FrameListener() {
+			@Override
+			public void frameReceived(int port, int sequence, int flags, byte[] payload, int offset, int length) throws IOException {
+				server.handleClientFrame(clientNum, port, flags, payload, offset, length);
+			}
+		});
 
-		// Write the serial data if the serial port number is valid
-		if (server.getSerialOut(serialPortNum) != null) {
-			processCommand(data, serialPortNum);
-			System.out.println("Received from client #" + clientNum + ": " + data + " (" + Arrays.toString(data.getBytes()) + ")");
+		// The line asking for binary framing may have ended on "\r\n"
+		if (skipLF) {
+			in.mark(1);
+			if (in.read() != '\n') {
+				in.reset();
+			}
+		}
 
-			// Tell the serial reader which client the most recent command
-			// came from, so it can direct the serial port's response
-			// to the appropriate client
-			if (server.getSerialReader(serialPortNum) != null) {
-				server.getSerialReader(serialPortNum).CLIENT_NUM = clientNum;
-			} else {
-				System.out.println("Invalid serial port number: " + serialPortNum);
+		byte[] buffer = new byte[SerialUtils.BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			try {
+				decoder.feed(buffer, 0, n);
+			} catch (SocketException e) {
+				throw e;
+			} catch (IOException e) {
+				// There's no telling where the next frame starts, so give up on the client
+				System.err.println("Invalid frame from client #" + clientNum + ": " + e.getMessage());
+				return;
 			}
-		} else {
-			System.err.println("Ignoring message with invalid serial destination: " + serialPortNum);
-			return;
 		}
 	}
 
@@ -155,35 +183,31 @@ public class ClientDataReader implements Runnable {
 		// proceed with the connection
 		if (validate()) {
 			try {
-				BufferedReader br = new BufferedReader(new InputStreamReader(client.getInputStream()));
 				String line = null;
-
-				// Read a message and process it as long as there's data
-				while ((line = br.readLine()) != null) {
-					if (line.length() > 0) {
-						int serialPortNum = -1;
-						if (Character.isDigit(line.charAt(0))) {
-							serialPortNum = (int) (line.charAt(0) - '0');
-						} else {
-							System.err.println("Ignoring message without specified serial destination.");
-						}
-
-						handleClientDataReceived(line.substring(1), serialPortNum);
+				boolean binary = false;
+
+				// Read a message and process it as long as there's data. Once the client asks for binary framing, whatever it sent after
+				// that line is still in the buffered stream for readFrames().
+				while (!binary && (line = readLine()) != null) {
+					if (SerialUtils.BINARY_COMMAND.equals(line) && server.switchToBinary(clientNum)) {
+						binary = true;
+					} else if (line.length() > 0) {
+						server.handleClientData(clientNum, line);
 					}
 				}
 
-				// Close the client if there's no more data
-				server.closeClient(clientNum, client.getInputStream());
-			} catch (SocketException e) {
-				// Close the client if the connection is severed
-				try {
-					server.closeClient(clientNum, client.getInputStream());
-				} catch (IOException e1) {
-					e1.printStackTrace();
+				if (binary) {
+					readFrames();
 				}
+			} catch (SocketException e) {
+				// The connection was severed
 			} catch (Exception e) {
 				System.err.println("Error reading from client!");
 				e.printStackTrace();
+			} finally {
+				// Close the client once there's no more data, or reading from it failed. The socket may already be closed, so the server
+				// is given the stream it was registered with rather than asking the socket for it again.
+				server.closeClient(clientNum, clientIn);
 			}
 		}
 	}
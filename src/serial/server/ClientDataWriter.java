@@ -0,0 +1,55 @@
+package serial.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Drains a client's outbox onto its socket, so that a slow client only ever holds up its own writer thread
+ *
+ * @author Adam Campbell
+ */
+public class ClientDataWriter implements Runnable {
+	/**
+	 * The client socket
+	 */
+	private Socket client;
+
+	/**
+	 * The client's session
+	 */
+	private ClientSession session;
+
+	/**
+	 * Construct a new ClientDataWriter
+	 *
+	 * @param client
+	 *            The client socket to write to
+	 * @param session
+	 *            The session whose outbox is written to the client
+	 */
+	public ClientDataWriter(Socket client, ClientSession session) {
+		this.client = client;
+		this.session = session;
+	}
+
+	@Override
+	public void run() {
+		try {
+			OutputStream out = client.getOutputStream();
+			byte[] message;
+			while ((message = session.getOutbox().take()) != null) {
+				out.write(message);
+			}
+		} catch (IOException | InterruptedException e) {
+			session.getOutbox().close();
+		}
+
+		// The outbox was closed, either because the client went away or because it fell too far behind
+		try {
+			client.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
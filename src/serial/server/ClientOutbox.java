@@ -0,0 +1,167 @@
+package serial.server;
+
+/**
+ * A bounded ring buffer of data waiting to be written to a client. Serial readers put data in without ever blocking, and the client's
+ * writer (a writer thread, or the client's event loop) drains it at whatever rate the client can take.
+ *
+ * @author Adam Campbell
+ */
+public class ClientOutbox {
+	/**
+	 * What to do when a client falls so far behind that its outbox is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Throw away the oldest data to make room for the new data
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Disconnect the client
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * The default number of messages an outbox can hold
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The queued messages
+	 */
+	private final byte[][] ring;
+
+	/**
+	 * Index of the oldest message in the ring
+	 */
+	private int head = 0;
+
+	/**
+	 * Number of messages in the ring
+	 */
+	private int size = 0;
+
+	/**
+	 * What to do when the outbox is full
+	 */
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * The number of messages thrown away because the client couldn't keep up
+	 */
+	private long dropped = 0;
+
+	/**
+	 * Whether the outbox has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Construct a new outbox
+	 *
+	 * @param capacity
+	 *            The maximum number of messages the outbox holds
+	 * @param overflowPolicy
+	 *            What to do when the outbox is full
+	 */
+	public ClientOutbox(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid outbox capacity: " + capacity);
+		}
+
+		this.ring = new byte[capacity][];
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Put a message in the outbox. This never blocks.
+	 *
+	 * @param message
+	 *            The message to queue
+	 * @return False if the outbox is full and its policy is to disconnect the client (or if it's already closed), true otherwise
+	 */
+	public synchronized boolean offer(byte[] message) {
+		if (closed) {
+			return false;
+		}
+
+		if (size == ring.length) {
+			if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+				return false;
+			}
+
+			// Drop the oldest message
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			size--;
+			dropped++;
+		}
+
+		ring[(head + size) % ring.length] = message;
+		size++;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Take the oldest message out of the outbox without waiting
+	 *
+	 * @return The oldest message, or null if the outbox is empty
+	 */
+	public synchronized byte[] poll() {
+		if (size == 0) {
+			return null;
+		}
+
+		byte[] message = ring[head];
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		size--;
+		return message;
+	}
+
+	/**
+	 * Take the oldest message out of the outbox, waiting for one if it's empty
+	 *
+	 * @return The oldest message, or null if the outbox was closed
+	 * @throws InterruptedException
+	 *             If interrupted while waiting
+	 */
+	public synchronized byte[] take() throws InterruptedException {
+		while (size == 0 && !closed) {
+			wait();
+		}
+
+		return closed ? null : poll();
+	}
+
+	/**
+	 * Close the outbox, waking up anything waiting on it. Closed outboxes don't accept any more messages.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return True if the outbox has been closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return The number of messages currently waiting in the outbox
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of messages thrown away because the client couldn't keep up
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+}
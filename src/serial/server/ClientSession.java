@@ -0,0 +1,156 @@
+package serial.server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A validated client of the serial server: its outbox and the serial ports it's subscribed to
+ *
+ * @author Adam Campbell
+ */
+public class ClientSession {
+	/**
+	 * The client number
+	 */
+	private final int clientNum;
+
+	/**
+	 * The data waiting to be written to the client
+	 */
+	private final ClientOutbox outbox;
+
+	/**
+	 * The serial port numbers whose data is broadcast to this client
+	 */
+	private final Set<Integer> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	/**
+	 * Whether the client has switched to binary framing
+	 */
+	private boolean binary = false;
+
+	/**
+	 * The messages and bytes received from the client, and queued to be sent to it
+	 */
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	/**
+	 * Construct a new client session
+	 *
+	 * @param clientNum
+	 *            The client number
+	 * @param outbox
+	 *            The client's outbox
+	 */
+	public ClientSession(int clientNum, ClientOutbox outbox) {
+		this.clientNum = clientNum;
+		this.outbox = outbox;
+	}
+
+	public int getClientNum() {
+		return clientNum;
+	}
+
+	public ClientOutbox getOutbox() {
+		return outbox;
+	}
+
+	public synchronized boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Queue a message in the client's outbox, in whichever form the client is expecting
+	 *
+	 * @param textMessage
+	 *            The message as a line of text
+	 * @param binaryMessage
+	 *            The message as a binary frame
+	 * @return True if the message was queued
+	 */
+	public synchronized boolean offer(byte[] textMessage, byte[] binaryMessage) {
+		byte[] message = binary ? binaryMessage : textMessage;
+		if (!outbox.offer(message)) {
+			return false;
+		}
+
+		messagesSent.incrementAndGet();
+		bytesSent.addAndGet(message.length);
+		return true;
+	}
+
+	/**
+	 * Count a message received from the client
+	 *
+	 * @param length
+	 *            The message length, in bytes
+	 */
+	public void messageReceived(int length) {
+		messagesReceived.incrementAndGet();
+		bytesReceived.addAndGet(length);
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Switch the client to binary framing. The acknowledgement is the last text message the client gets - everything queued after it is
+	 * framed.
+	 *
+	 * @param ack
+	 *            The acknowledgement to queue
+	 * @return True if the acknowledgement was queued
+	 */
+	public synchronized boolean switchToBinary(byte[] ack) {
+		boolean queued = outbox.offer(ack);
+		binary = true;
+		return queued;
+	}
+
+	/**
+	 * Subscribe to all data coming from a serial port
+	 *
+	 * @param serialPortNum
+	 *            The serial port number
+	 */
+	public void subscribe(int serialPortNum) {
+		subscriptions.add(serialPortNum);
+	}
+
+	/**
+	 * Stop receiving data from a serial port that isn't a response to this client's own commands
+	 *
+	 * @param serialPortNum
+	 *            The serial port number
+	 */
+	public void unsubscribe(int serialPortNum) {
+		subscriptions.remove(serialPortNum);
+	}
+
+	/**
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @return True if this client is subscribed to the serial port
+	 */
+	public boolean isSubscribed(int serialPortNum) {
+		return subscriptions.contains(serialPortNum);
+	}
+}
@@ -0,0 +1,424 @@
+package serial.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import serial.SerialUtils;
+import serial.metrics.Histogram;
+
+/**
+ * Arbitrates the commands that clients send to a single serial port, so that each response from the device goes back to the client that
+ * asked for it. Commands are written to the device in the order they arrive, with at most <i>pipeline depth</i> of them waiting on a
+ * response at any time; the rest wait their turn.<br/>
+ * <br/>
+ * Responses are matched to commands either in FIFO order, or by a tag carried in both the command and the response (the last field of
+ * OS board frames like <i>!QUERY,POW_PANEL,X,A0$</i>). Commands that never get a response, like rotator moves, are given up on after a
+ * timeout. Data that doesn't match any waiting command goes to the client whose command was most recently written or answered.<br/>
+ * <br/>
+ * Commands are handed to the port's SerialWriteScheduler to be written. Emergency stops and setpoints never get a response, so they skip
+ * the pipeline and go straight to the scheduler, which writes them ahead of queries and drops setpoints that a newer one has replaced.
+ * So do blank commands, and commands the port has been told never get a response (see setNoReplyPrefixes()), like the TS-2000's
+ * <i>TC 0;</i>.
+ *
+ * @author Adam Campbell
+ */
+public class CommandArbiter {
+	/**
+	 * How responses are matched to the commands that caused them
+	 */
+	public enum MatchMode {
+		/**
+		 * Each response answers the oldest command still waiting on one
+		 */
+		FIFO,
+
+		/**
+		 * Each response answers the oldest waiting command with the same tag
+		 */
+		TAG
+	}
+
+	/**
+	 * A command from a client
+	 */
+	private static class PendingCommand {
+		private final int clientNum;
+		private final byte[] data;
+		private final String tag;
+		private long sentAt;
+		private long sentAtNanos;
+
+		public PendingCommand(int clientNum, byte[] data, String tag) {
+			this.clientNum = clientNum;
+			this.data = data;
+			this.tag = tag;
+		}
+	}
+
+	/**
+	 * The default number of commands that may wait on a response at once
+	 */
+	public static final int DEFAULT_PIPELINE_DEPTH = 1;
+
+	/**
+	 * Timer used to give up on commands that never get a response
+	 */
+	private static final ScheduledExecutorService expiryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "CommandArbiter-Expiry");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Writes the commands to the serial port
+	 */
+	private SerialWriteScheduler writeScheduler;
+
+	/**
+	 * How responses are matched to commands
+	 */
+	private MatchMode matchMode;
+
+	/**
+	 * The maximum number of commands waiting on a response at once
+	 */
+	private int pipelineDepth;
+
+	/**
+	 * How long to wait for a response before giving up on a command, in ms
+	 */
+	private long responseTimeoutMillis = SerialUtils.DEFAULT_SERIAL_RESPONSE_TIMEOUT;
+
+	/**
+	 * Commands that have been written to the device and are waiting on a response, oldest first
+	 */
+	private LinkedList<PendingCommand> inFlight = new LinkedList<PendingCommand>();
+
+	/**
+	 * Commands that haven't been written yet because the pipeline is full
+	 */
+	private LinkedList<PendingCommand> waiting = new LinkedList<PendingCommand>();
+
+	/**
+	 * The time from handing each command to the write scheduler to its response, in microseconds
+	 */
+	private final Histogram responseLatency = new Histogram();
+
+	/**
+	 * The client whose command was most recently written or answered, which gets any unmatched data
+	 */
+	private int lastClientNum = -1;
+
+	/**
+	 * The commands that never get a response when they're given a value
+	 */
+	private String[] noReplyPrefixes = new String[0];
+
+	/**
+	 * Construct a new command arbiter
+	 *
+	 * @param serialOut
+	 *            The serial port's output stream
+	 * @param matchMode
+	 *            How responses are matched to commands
+	 * @param pipelineDepth
+	 *            The maximum number of commands waiting on a response at once
+	 */
+	public CommandArbiter(OutputStream serialOut, MatchMode matchMode, int pipelineDepth) {
+		this(new SerialWriteScheduler(serialOut, "SerialWriter"), matchMode, pipelineDepth);
+	}
+
+	/**
+	 * Construct a new command arbiter
+	 *
+	 * @param writeScheduler
+	 *            Writes the commands to the serial port
+	 * @param matchMode
+	 *            How responses are matched to commands
+	 * @param pipelineDepth
+	 *            The maximum number of commands waiting on a response at once
+	 */
+	public CommandArbiter(SerialWriteScheduler writeScheduler, MatchMode matchMode, int pipelineDepth) {
+		if (writeScheduler == null) {
+			throw new IllegalArgumentException("Write scheduler cannot be null!");
+		}
+
+		this.writeScheduler = writeScheduler;
+		setMatchMode(matchMode);
+		setPipelineDepth(pipelineDepth);
+	}
+
+	public SerialWriteScheduler getWriteScheduler() {
+		return writeScheduler;
+	}
+
+	/**
+	 * @return The time from handing each command to the write scheduler to its response, in microseconds
+	 */
+	public Histogram getResponseLatency() {
+		return responseLatency;
+	}
+
+	public synchronized MatchMode getMatchMode() {
+		return matchMode;
+	}
+
+	public synchronized void setMatchMode(MatchMode matchMode) {
+		if (matchMode == null) {
+			throw new IllegalArgumentException("Match mode cannot be null!");
+		}
+
+		this.matchMode = matchMode;
+	}
+
+	public synchronized int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	public synchronized void setPipelineDepth(int pipelineDepth) {
+		if (pipelineDepth < 1) {
+			throw new IllegalArgumentException("Invalid pipeline depth: " + pipelineDepth);
+		}
+
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	public synchronized long getResponseTimeout() {
+		return responseTimeoutMillis;
+	}
+
+	public synchronized void setResponseTimeout(long responseTimeoutMillis) {
+		this.responseTimeoutMillis = responseTimeoutMillis;
+	}
+
+	public synchronized String[] getNoReplyPrefixes() {
+		return noReplyPrefixes.clone();
+	}
+
+	/**
+	 * Set the commands that the device never answers when they're given a value, so they skip the pipeline instead of holding it up
+	 * until they time out. A command matches if it starts with one of the prefixes and has something after it; the bare prefix is a query
+	 * and still waits on its response. For the TS-2000, "TC" and "MD" match <i>TC 0;</i> and <i>MD2;</i>, but not <i>TC;</i>.
+	 *
+	 * @param noReplyPrefixes
+	 *            The commands that never get a response
+	 */
+	public synchronized void setNoReplyPrefixes(String... noReplyPrefixes) {
+		if (noReplyPrefixes == null) {
+			throw new IllegalArgumentException("No-reply prefixes cannot be null!");
+		}
+
+		for (String prefix : noReplyPrefixes) {
+			if (prefix == null || prefix.trim().isEmpty()) {
+				throw new IllegalArgumentException("Invalid no-reply prefix: " + prefix);
+			}
+		}
+
+		this.noReplyPrefixes = noReplyPrefixes.clone();
+	}
+
+	/**
+	 * @return The number of commands currently waiting on a response
+	 */
+	public synchronized int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return The number of commands waiting for room in the pipeline
+	 */
+	public synchronized int getWaitingCount() {
+		return waiting.size();
+	}
+
+	/**
+	 * Submit a command from a client. It's written to the device right away if there's room in the pipeline, otherwise once a response or
+	 * a timeout frees some up.
+	 *
+	 * @param clientNum
+	 *            The client the command came from
+	 * @param cmd
+	 *            The command to write to the device
+	 * @throws IOException
+	 *             If writing to the serial port goes wrong
+	 */
+	public synchronized void submit(int clientNum, String cmd) throws IOException {
+		submit(new PendingCommand(clientNum, cmd.getBytes(SerialFramer.CHARSET), extractTag(cmd)));
+	}
+
+	/**
+	 * Submit a command from a client as raw bytes, written to the device exactly as they are
+	 *
+	 * @param clientNum
+	 *            The client the command came from
+	 * @param cmd
+	 *            The command to write to the device
+	 * @throws IOException
+	 *             If writing to the serial port goes wrong
+	 */
+	public synchronized void submit(int clientNum, byte[] cmd) throws IOException {
+		submit(new PendingCommand(clientNum, cmd, extractTag(new String(cmd, SerialFramer.CHARSET))));
+	}
+
+	private void submit(PendingCommand pending) throws IOException {
+		SerialWriteScheduler.Priority priority = SerialWriteScheduler.classify(pending.data);
+		if (priority != SerialWriteScheduler.Priority.POLLING) {
+			// Nothing will answer it, so it shouldn't hold up the pipeline, or wait behind it
+			writeScheduler.submit(pending.data, priority);
+			lastClientNum = pending.clientNum;
+			return;
+		}
+
+		String cmd = new String(pending.data, SerialFramer.CHARSET).trim();
+		if (cmd.isEmpty() || cmd.equals(";") || isNoReply(cmd)) {
+			// Also never answered, but written at the queries' priority rather than ahead of them
+			writeScheduler.submit(pending.data, priority);
+			lastClientNum = pending.clientNum;
+			return;
+		}
+
+		waiting.add(pending);
+		expire();
+		release();
+	}
+
+	/**
+	 * Check whether a command is one the device never answers
+	 *
+	 * @param cmd
+	 *            The command, trimmed
+	 * @return Whether it starts with a no-reply prefix and has a value after it
+	 */
+	private boolean isNoReply(String cmd) {
+		if (cmd.endsWith(";")) {
+			cmd = cmd.substring(0, cmd.length() - 1).trim();
+		}
+
+		for (String prefix : noReplyPrefixes) {
+			if (cmd.length() > prefix.length() && cmd.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Work out which client a line of data from the device should go to
+	 *
+	 * @param data
+	 *            A line of data from the device
+	 * @return The number of the client whose command the data answers, or -1 if there is none
+	 * @throws IOException
+	 *             If writing a waiting command to the serial port goes wrong
+	 */
+	public synchronized int responseReceived(String data) throws IOException {
+		expire();
+
+		// Bare line endings and the like don't answer anything
+		if (data.trim().isEmpty()) {
+			return lastClientNum;
+		}
+
+		PendingCommand match = null;
+		if (matchMode == MatchMode.FIFO) {
+			match = inFlight.poll();
+		} else {
+			String tag = extractTag(data);
+			if (tag != null) {
+				Iterator<PendingCommand> iter = inFlight.iterator();
+				while (iter.hasNext()) {
+					PendingCommand pending = iter.next();
+					if (tag.equals(pending.tag)) {
+						iter.remove();
+						match = pending;
+						break;
+					}
+				}
+			}
+		}
+
+		if (match == null) {
+			return lastClientNum;
+		}
+		responseLatency.record((System.nanoTime() - match.sentAtNanos) / 1000);
+
+		// Now that there's room in the pipeline, send the next command
+		release();
+		lastClientNum = match.clientNum;
+		return match.clientNum;
+	}
+
+	/**
+	 * Write waiting commands to the device while there's room in the pipeline
+	 *
+	 * @throws IOException
+	 */
+	private void release() throws IOException {
+		while (!waiting.isEmpty() && inFlight.size() < pipelineDepth) {
+			PendingCommand pending = waiting.poll();
+			writeScheduler.submit(pending.data, SerialWriteScheduler.Priority.POLLING);
+			pending.sentAt = System.currentTimeMillis();
+			pending.sentAtNanos = System.nanoTime();
+			inFlight.add(pending);
+			lastClientNum = pending.clientNum;
+			scheduleExpiry();
+		}
+	}
+
+	/**
+	 * Give up on in-flight commands that have waited too long for a response
+	 */
+	private void expire() {
+		long cutoff = System.currentTimeMillis() - responseTimeoutMillis;
+		while (!inFlight.isEmpty() && inFlight.peek().sentAt <= cutoff) {
+			inFlight.poll();
+		}
+	}
+
+	private void scheduleExpiry() {
+		expiryTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (CommandArbiter.this) {
+					expire();
+					try {
+						release();
+					} catch (IOException e) {
+						System.err.println("Error writing command to serial port!");
+						e.printStackTrace();
+					}
+				}
+			}
+		}, responseTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get the tag from a command or response frame, which is its last comma-separated field (e.g. "A0" in "!QUERY,HELLO,A0$")
+	 *
+	 * @param frame
+	 *            The command or response
+	 * @return The frame's tag, or null if it doesn't have one
+	 */
+	public static String extractTag(String frame) {
+		int end = frame.length();
+		while (end > 0 && "\r\n;$ ".indexOf(frame.charAt(end - 1)) >= 0) {
+			end--;
+		}
+
+		int start = frame.lastIndexOf(',', end - 1);
+		if (start < 0 || start + 1 >= end) {
+			return null;
+		}
+
+		return frame.substring(start + 1, end);
+	}
+}
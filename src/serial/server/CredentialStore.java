@@ -0,0 +1,302 @@
+package serial.server;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import serial.server.SerialServer.AllowedUser;
+
+/**
+ * The users allowed to log in to the server, loaded from a white list file and reloaded in the background whenever the file changes.<br/>
+ * <br/>
+ * The white list file is a text file in CSV format, one user per line. Blank lines and lines starting with '#' are ignored. The password
+ * can be given as a salted hash, as printed by running this class with a username and password, or in plain text:<br/>
+ * <i> username1,pbkdf2$10000$&lt;salt&gt;$&lt;hash&gt; <br/>
+ * username2,password2 <br/>
+ * ... </i><br/>
+ * <br/>
+ * Plain text passwords are hashed as they're loaded, so only hashes are kept in memory. The users are held in an immutable map that's
+ * replaced as a whole on every reload, so logins look users up without any locking, and never see a half loaded list.
+ *
+ * @author Adam Campbell
+ */
+public class CredentialStore {
+	/**
+	 * The prefix of a hashed password in the white list file
+	 */
+	public static final String HASH_PREFIX = "pbkdf2$";
+
+	/**
+	 * The number of PBKDF2 iterations used when hashing a password
+	 */
+	public static final int DEFAULT_ITERATIONS = 10000;
+
+	/**
+	 * The lengths of the salt and hash, in bytes
+	 */
+	static final int SALT_LENGTH = 16;
+	static final int HASH_LENGTH = 20;
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Checked against when the username isn't known, so it takes as long to turn down an unknown user as a wrong password
+	 */
+	private static final AllowedUser NOBODY = new AllowedUser("", "");
+
+	private final Path file;
+
+	/**
+	 * The allowed users by username - replaced, never changed
+	 */
+	private volatile Map<String, AllowedUser> users = Collections.emptyMap();
+
+	private WatchService watcher;
+
+	/**
+	 * Construct a new credential store for the given white list file. Nobody is allowed in until it's loaded.
+	 *
+	 * @param fileName
+	 *            The name of the white list file
+	 */
+	public CredentialStore(String fileName) {
+		if (fileName == null) {
+			throw new IllegalArgumentException("White list file name cannot be null!");
+		}
+
+		this.file = Paths.get(fileName).toAbsolutePath();
+	}
+
+	/**
+	 * Load the white list file, replacing the users loaded before. If the file can't be read, the users loaded before are kept.
+	 *
+	 * @throws IOException
+	 *             If the file can't be read
+	 */
+	public void load() throws IOException {
+		Map<String, AllowedUser> newUsers = new HashMap<String, AllowedUser>();
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				int comma = line.indexOf(',');
+				if (line.isEmpty() || line.startsWith("#") || comma < 0) {
+					continue;
+				}
+
+				String username = line.substring(0, comma).trim();
+				String password = line.substring(comma + 1).trim();
+				AllowedUser user = password.startsWith(HASH_PREFIX) ? AllowedUser.fromHash(username, password) : new AllowedUser(username,
+						password);
+				if (user == null) {
+					System.err.println("Ignoring malformed password hash for user " + username + " in " + file);
+				} else {
+					newUsers.put(username, user);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException(file.toString());
+		}
+
+		users = Collections.unmodifiableMap(newUsers);
+	}
+
+	/**
+	 * Reload the white list file whenever it changes, on a background thread, until close() is called
+	 *
+	 * @throws IOException
+	 *             If the file's directory can't be watched
+	 */
+	public synchronized void watch() throws IOException {
+		if (watcher != null) {
+			return;
+		}
+
+		watcher = file.getFileSystem().newWatchService();
+		file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+		final WatchService watcher = this.watcher;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watchLoop(watcher);
+			}
+		}, "WhiteListWatcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Stop watching the white list file
+	 */
+	public synchronized void close() {
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			watcher = null;
+		}
+	}
+
+	/**
+	 * Check a username and password against the loaded users
+	 *
+	 * @param username
+	 *            The username
+	 * @param password
+	 *            The password
+	 * @return True if the user is allowed in
+	 */
+	public boolean isAllowed(String username, String password) {
+		if (username == null || password == null) {
+			return false;
+		}
+
+		AllowedUser user = users.get(username.trim());
+		if (user == null) {
+			NOBODY.matches(password.trim());
+			return false;
+		}
+
+		return user.matches(password.trim());
+	}
+
+	/**
+	 * @return The loaded users
+	 */
+	public Collection<AllowedUser> getUsers() {
+		return users.values();
+	}
+
+	private void watchLoop(WatchService watcher) {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (file.getFileName().equals(event.context())) {
+						changed = true;
+					}
+				}
+				key.reset();
+
+				if (changed) {
+					// Editors often write a file in more than one go, so let them finish before reading it
+					Thread.sleep(100);
+					try {
+						load();
+						System.out.println("Reloaded white list: " + users.size() + " user(s)");
+					} catch (IOException e) {
+						System.err.println("Unable to reload white list " + file + ": " + e.getMessage());
+					}
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Stopped watching
+		}
+	}
+
+	/**
+	 * Hash a password with a new random salt
+	 *
+	 * @param password
+	 *            The password
+	 * @param iterations
+	 *            The number of PBKDF2 iterations
+	 * @return The hash, as written in the white list file
+	 */
+	public static String hash(String password, int iterations) {
+		byte[] salt = newSalt();
+		return HASH_PREFIX + iterations + "$" + toHex(salt) + "$" + toHex(pbkdf2(password, salt, iterations));
+	}
+
+	static byte[] newSalt() {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		return salt;
+	}
+
+	static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+		try {
+			PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	}
+
+	/**
+	 * Compare two hashes in time that doesn't depend on where they differ
+	 */
+	static boolean hashesEqual(byte[] a, byte[] b) {
+		return MessageDigest.isEqual(a, b);
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return The bytes, or null if the string isn't valid hex
+	 */
+	static byte[] fromHex(String hex) {
+		if (hex.length() % 2 != 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int hi = Character.digit(hex.charAt(2 * i), 16);
+			int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi < 0 || lo < 0) {
+				return null;
+			}
+			bytes[i] = (byte) ((hi << 4) | lo);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Print the white list line for a user, with the password hashed
+	 *
+	 * @param args
+	 *            The username and password
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: CredentialStore <username> <password>");
+			return;
+		}
+
+		System.out.println(args[0] + "," + hash(args[1], DEFAULT_ITERATIONS));
+	}
+}
@@ -3,6 +3,8 @@ package serial.server;
 import java.io.IOException;
 import java.io.InputStream;
 
+import serial.SerialUtils;
+
 /**
  * A reader that sits and waits for serial data to come in
  * 
@@ -15,15 +17,25 @@ public abstract class SerialDataReader implements Runnable {
 	private InputStream serialIn;
 
 	/**
-	 * Delimiters to use when parsing input - controls when a line ends
+	 * Splits the input into lines - controls when a line ends
+	 */
+	private SerialFramer framer;
+
+	/**
+	 * Buffer that serial data is read into
 	 */
-	private String delimiters;
+	private byte[] buffer = new byte[SerialUtils.BUFFER_SIZE];
 
 	/**
 	 * Default delimiters to use
 	 */
 	private static String defaultDelimiters = "\r\n;$";
 
+	/**
+	 * Whether to hand over whatever is read as it is, rather than splitting it into lines
+	 */
+	private volatile boolean raw = false;
+
 	/**
 	 * Construct a serial data reader that reads from the given serial port and processes output according to the handleSerialDataReceived()
 	 * method
@@ -58,7 +70,12 @@ public abstract class SerialDataReader implements Runnable {
 		}
 
 		this.serialIn = serialIn;
-		this.delimiters = delimiters;
+		this.framer = new SerialFramer(delimiters, new SerialFramer.FrameListener() {
+			@Override
+			public void frameReceived(byte[] buffer, int offset, int length) throws IOException {
+				handleSerialFrame(buffer, offset, length);
+			}
+		});
 	}
 
 	@Override
@@ -66,10 +83,13 @@ public abstract class SerialDataReader implements Runnable {
 		boolean keepRunning = true;
 		while (keepRunning) {
 			try {
-				// Read a line and process it, checking every 100ms
-				String data = readSerialData(serialIn, delimiters);
-				if (!data.isEmpty()) {
-					handleSerialDataReceived(data);
+				// Read whatever's available and process each line in it, checking every 100ms
+				int n = serialIn.read(buffer);
+				if (n > 0) {
+					handleSerialBytes(buffer, 0, n);
+				} else if (n < 0) {
+					// Hand over what's been read so far, the same as a delimiter would
+					framer.flush();
 				}
 			} catch (IOException e) {
 				// The stream is empty
@@ -83,27 +103,53 @@ public abstract class SerialDataReader implements Runnable {
 	}
 
 	/**
-	 * Read serial data from the given input stream, using the given delimiters to buffer input
+	 * Set whether to hand over whatever is read as it is, rather than splitting it into lines, for binary protocols like KISS where the
+	 * delimiters could turn up anywhere
 	 * 
-	 * @param in
-	 *            Input stream
-	 * @param delimiters
-	 *            Delimiters to buffer input
-	 * @return The first String read from the input string that consists entirely of characters not found among the delimiters
+	 * @param raw
+	 */
+	public void setRaw(boolean raw) {
+		this.raw = raw;
+	}
+
+	public boolean isRaw() {
+		return raw;
+	}
+
+	/**
+	 * Handle the bytes from a single read, before they're split into lines. By default they're split into lines and each passed to
+	 * handleSerialFrame(), or passed on as they are in raw mode - override this to see every byte as it arrives.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            The offset of the bytes in the buffer
+	 * @param length
+	 *            The number of bytes
 	 * @throws IOException
 	 */
-	private String readSerialData(InputStream in, String delimiters) throws IOException {
-		StringBuilder sb = new StringBuilder();
-		int data;
-		while ((data = in.read()) != -1) {
-			sb.append((char) data);
-
-			if (delimiters == null || delimiters.isEmpty() || delimiters.contains("" + ((char) data))) {
-				return sb.toString();
-			}
+	public void handleSerialBytes(byte[] buffer, int offset, int length) throws IOException {
+		if (raw) {
+			handleSerialFrame(buffer, offset, length);
+		} else {
+			framer.feed(buffer, offset, length);
 		}
+	}
 
-		return sb.toString();
+	/**
+	 * Handle a frame of serial data, ending in one of the delimiters. The bytes are only valid for the duration of the call. By default the
+	 * frame is decoded to a String and passed to handleSerialDataReceived() - override this to work with the raw bytes instead.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the frame
+	 * @param offset
+	 *            The offset of the frame in the buffer
+	 * @param length
+	 *            The length of the frame
+	 * @throws IOException
+	 */
+	public void handleSerialFrame(byte[] buffer, int offset, int length) throws IOException {
+		handleSerialDataReceived(SerialFramer.toString(buffer, offset, length));
 	}
 
 	/**
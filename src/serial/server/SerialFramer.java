@@ -0,0 +1,156 @@
+package serial.server;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import serial.SerialUtils;
+
+/**
+ * Splits a stream of serial bytes into frames, each ending in one of a set of delimiter bytes (the delimiter is kept at the end of the
+ * frame). Bytes are fed in bulk and scanned against a precomputed lookup table. Frames that lie entirely within the bytes just fed are
+ * handed out as slices of that array without copying; only a frame split across two reads is copied into the framer's own buffer.
+ *
+ * @author Adam Campbell
+ */
+public class SerialFramer {
+	/**
+	 * Receives the frames found by the framer
+	 */
+	public interface FrameListener {
+		/**
+		 * Called for each complete frame. The bytes are only valid for the duration of the call - copy them to keep them.
+		 *
+		 * @param buffer
+		 *            The buffer holding the frame
+		 * @param offset
+		 *            The offset of the frame in the buffer
+		 * @param length
+		 *            The length of the frame, including the delimiter
+		 * @throws IOException
+		 */
+		void frameReceived(byte[] buffer, int offset, int length) throws IOException;
+	}
+
+	/**
+	 * The charset serial data is decoded with, one byte per character
+	 */
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Whether each byte value ends a frame
+	 */
+	private final boolean[] isDelimiter = new boolean[256];
+
+	/**
+	 * Whether every byte is a frame of its own (no delimiters were given)
+	 */
+	private final boolean everyByte;
+
+	/**
+	 * Receives the frames
+	 */
+	private final FrameListener listener;
+
+	/**
+	 * The start of a frame that hasn't been completed yet
+	 */
+	private byte[] partial = new byte[SerialUtils.BUFFER_SIZE];
+	private int partialLength = 0;
+
+	/**
+	 * Construct a new framer
+	 *
+	 * @param delimiters
+	 *            The characters that end a frame - null/empty means every byte is a frame
+	 * @param listener
+	 *            Receives the frames
+	 */
+	public SerialFramer(String delimiters, FrameListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Frame listener cannot be null!");
+		}
+
+		this.listener = listener;
+		this.everyByte = delimiters == null || delimiters.isEmpty();
+		if (!everyByte) {
+			for (int i = 0; i < delimiters.length(); i++) {
+				isDelimiter[delimiters.charAt(i) & 0xFF] = true;
+			}
+		}
+	}
+
+	/**
+	 * Feed bytes read from the serial port into the framer, handing every frame they complete to the listener
+	 *
+	 * @param data
+	 *            The buffer holding the bytes
+	 * @param offset
+	 *            The offset of the bytes in the buffer
+	 * @param length
+	 *            The number of bytes
+	 * @throws IOException
+	 *             If the listener throws
+	 */
+	public void feed(byte[] data, int offset, int length) throws IOException {
+		int end = offset + length;
+		int frameStart = offset;
+		for (int i = offset; i < end; i++) {
+			if (everyByte || isDelimiter[data[i] & 0xFF]) {
+				if (partialLength == 0) {
+					listener.frameReceived(data, frameStart, i + 1 - frameStart);
+				} else {
+					append(data, frameStart, i + 1 - frameStart);
+					emitPartial();
+				}
+				frameStart = i + 1;
+			}
+		}
+
+		if (frameStart < end) {
+			append(data, frameStart, end - frameStart);
+		}
+	}
+
+	/**
+	 * Hand whatever's been read of the current frame to the listener, even though its delimiter hasn't arrived yet
+	 *
+	 * @throws IOException
+	 *             If the listener throws
+	 */
+	public void flush() throws IOException {
+		if (partialLength > 0) {
+			emitPartial();
+		}
+	}
+
+	/**
+	 * Decode a frame to a String, one character per byte
+	 *
+	 * @param buffer
+	 *            The buffer holding the frame
+	 * @param offset
+	 *            The offset of the frame in the buffer
+	 * @param length
+	 *            The length of the frame
+	 * @return The frame as a String
+	 */
+	public static String toString(byte[] buffer, int offset, int length) {
+		return new String(buffer, offset, length, CHARSET);
+	}
+
+	private void append(byte[] data, int offset, int length) {
+		if (partialLength + length > partial.length) {
+			partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+		}
+
+		System.arraycopy(data, offset, partial, partialLength, length);
+		partialLength += length;
+	}
+
+	private void emitPartial() throws IOException {
+		int length = partialLength;
+		partialLength = 0;
+		listener.frameReceived(partial, 0, length);
+	}
+}
@@ -1,15 +1,6 @@
 package serial.server;
 
-import gnu.io.CommPort;
-import gnu.io.CommPortIdentifier;
-import gnu.io.NoSuchPortException;
-import gnu.io.PortInUseException;
-import gnu.io.SerialPort;
-import gnu.io.UnsupportedCommOperationException;
-
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -19,9 +10,27 @@ import java.net.Socket;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Scanner;
-import java.util.TooManyListenersException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+
+import serial.DataLogger;
+import serial.FrameCodec;
+import serial.SerialUtils;
+import serial.archive.TelemetryRecord.Direction;
+import serial.metrics.Gauge;
+import serial.metrics.MetricsRegistry;
+import serial.metrics.MetricsServer;
+import serial.transport.RXTXTransportFactory;
+import serial.transport.SerialTransport;
+import serial.transport.SerialTransportFactory;
 
 /**
  * The server that listens to the serial port and echoes the serial data back to the clients, as well as listen for data from the clients
@@ -30,24 +39,85 @@ import java.util.TooManyListenersException;
  * @author Adam Campbell
  */
 public class SerialServer {
+	private static final Logger LOG = Logger.getLogger(SerialServer.class.getName());
+
 	/**
-	 * A class to hold an allowed user to the server. It has a username and password.
+	 * A class to hold an allowed user to the server. It has a username and a salted hash of the password.
 	 */
 	public static class AllowedUser {
-		private String username;
-		private String password;
+		private final String username;
+		private final byte[] salt;
+		private final byte[] hash;
+		private final int iterations;
 
+		/**
+		 * Construct an allowed user, hashing the password with a new random salt
+		 * 
+		 * @param username
+		 * @param password
+		 */
 		public AllowedUser(String username, String password) {
+			if (username == null || password == null) {
+				throw new IllegalArgumentException("Username and password cannot be null!");
+			}
+
 			this.username = username;
-			this.password = password;
+			this.salt = CredentialStore.newSalt();
+			this.iterations = CredentialStore.DEFAULT_ITERATIONS;
+			this.hash = CredentialStore.pbkdf2(password, salt, iterations);
+		}
+
+		private AllowedUser(String username, byte[] salt, byte[] hash, int iterations) {
+			if (username == null) {
+				throw new IllegalArgumentException("Username cannot be null!");
+			}
+
+			this.username = username;
+			this.salt = salt;
+			this.hash = hash;
+			this.iterations = iterations;
+		}
+
+		/**
+		 * Construct an allowed user from a password hash, as written in the white list file
+		 * 
+		 * @param username
+		 * @param passwordHash
+		 *            The hash, like pbkdf2$ITERATIONS$SALT$HASH
+		 * @return The user, or null if the hash is malformed
+		 */
+		public static AllowedUser fromHash(String username, String passwordHash) {
+			String[] fields = passwordHash.split("\\$");
+			if (fields.length != 4 || !passwordHash.startsWith(CredentialStore.HASH_PREFIX)) {
+				return null;
+			}
+
+			try {
+				int iterations = Integer.parseInt(fields[1]);
+				byte[] salt = CredentialStore.fromHex(fields[2]);
+				byte[] hash = CredentialStore.fromHex(fields[3]);
+				if (iterations < 1 || salt == null || hash == null || hash.length == 0) {
+					return null;
+				}
+
+				return new AllowedUser(username, salt, hash, iterations);
+			} catch (NumberFormatException e) {
+				return null;
+			}
 		}
 
 		public String getUsername() {
 			return username;
 		}
 
-		public String getPassword() {
-			return password;
+		/**
+		 * Check a password against this user's
+		 * 
+		 * @param password
+		 * @return True if it's the right password
+		 */
+		public boolean matches(String password) {
+			return password != null && CredentialStore.hashesEqual(hash, CredentialStore.pbkdf2(password, salt, iterations));
 		}
 
 		@Override
@@ -58,7 +128,13 @@ public class SerialServer {
 				return false;
 
 			AllowedUser au = (AllowedUser) o;
-			return au.username != null && au.username.equals(username) && au.password != null && au.password.equals(password);
+			return au.username.equals(username) && au.iterations == iterations && Arrays.equals(au.salt, salt)
+					&& Arrays.equals(au.hash, hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return username.hashCode() * 31 + Arrays.hashCode(hash);
 		}
 	}
 
@@ -98,6 +174,11 @@ public class SerialServer {
 	 */
 	private int portNum = -1;
 
+	/**
+	 * Opens the serial ports - real ones by default, or simulated devices
+	 */
+	private SerialTransportFactory transportFactory = new RXTXTransportFactory();
+
 	/**
 	 * The serial input streams used for reading data from the serial ports
 	 */
@@ -111,7 +192,7 @@ public class SerialServer {
 	/**
 	 * The white list of AllowedUsers that are permitted to login to this server
 	 */
-	private ArrayList<AllowedUser> whiteList;
+	private volatile CredentialStore whiteList;
 
 	/**
 	 * The clients currently maintained by this server
@@ -138,6 +219,85 @@ public class SerialServer {
 	 */
 	private ArrayList<SerialServerDataReader> serialReaders = new ArrayList<SerialServerDataReader>();
 
+	/**
+	 * The command arbiters for each port
+	 */
+	private ArrayList<CommandArbiter> arbiters = new ArrayList<CommandArbiter>();
+
+	/**
+	 * The response matching mode for each serial port number, if it isn't the default
+	 */
+	private Map<Integer, CommandArbiter.MatchMode> matchModes = new ConcurrentHashMap<Integer, CommandArbiter.MatchMode>();
+
+	/**
+	 * The pipeline depth for each serial port number, if it isn't the default
+	 */
+	private Map<Integer, Integer> pipelineDepths = new ConcurrentHashMap<Integer, Integer>();
+
+	/**
+	 * The commands each serial port number never answers, if it has any
+	 */
+	private Map<Integer, String[]> noReplyPrefixes = new ConcurrentHashMap<Integer, String[]>();
+
+	/**
+	 * The serial port numbers whose data is passed on as it's read rather than split into lines
+	 */
+	private Map<Integer, Boolean> rawModes = new ConcurrentHashMap<Integer, Boolean>();
+
+	/**
+	 * The number of non-blocking event loops to multiplex the clients on - 0 means one blocking thread per client
+	 */
+	private int nEventLoops = 0;
+
+	/**
+	 * The event loops handling the clients, if the server is running in non-blocking mode
+	 */
+	private SerialServerEventLoop[] eventLoops;
+
+	/**
+	 * The number of the most recently connected client
+	 */
+	private int lastClientNum = 0;
+
+	/**
+	 * The validated clients, keyed by client number
+	 */
+	private Map<Integer, ClientSession> sessions = new ConcurrentHashMap<Integer, ClientSession>();
+
+	/**
+	 * The number of messages each client's outbox can hold
+	 */
+	private int outboxCapacity = ClientOutbox.DEFAULT_CAPACITY;
+
+	/**
+	 * What to do when a client's outbox fills up
+	 */
+	private ClientOutbox.OverflowPolicy overflowPolicy = ClientOutbox.OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * Whether clients may switch to binary framing
+	 */
+	private volatile boolean binaryFramingAllowed = true;
+
+	/**
+	 * The sequence number of the next binary frame of data from each serial port
+	 */
+	private final AtomicIntegerArray serialSequences = new AtomicIntegerArray(10);
+
+	/**
+	 * The server's metrics, and the port to serve them over HTTP on (-1 for none)
+	 */
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	private int metricsPort = -1;
+
+	/**
+	 * Counts of clients logging in, disconnecting, failing to log in, and being disconnected for falling behind
+	 */
+	private final AtomicLong connections = metrics.counter("server.connections");
+	private final AtomicLong disconnections = metrics.counter("server.disconnections");
+	private final AtomicLong authFailures = metrics.counter("server.authFailures");
+	private final AtomicLong slowClientDisconnects = metrics.counter("server.slowClientDisconnects");
+
 	/**
 	 * Construct a new Serial Server on the given port
 	 * 
@@ -149,44 +309,37 @@ public class SerialServer {
 		clientIns = new ArrayList<InputStream>();
 		clientOuts = new ArrayList<OutputStream>();
 		clients = new ArrayList<ClientPair>();
-		whiteList = new ArrayList<AllowedUser>();
 	}
 
 	/**
 	 * Set the white list information for the server. The white list contains a list of valid usernames and passwords with which each client
-	 * shall "login" to the server. <br/>
+	 * shall "login" to the server, and is reloaded whenever the file changes. <br/>
 	 * <br/>
-	 * The white list file itself is a text file in CSV format like so: <br/>
+	 * The white list file itself is a text file in CSV format like so, with the passwords either in plain text or hashed - see
+	 * CredentialStore: <br/>
 	 * <i> username1,password1 <br/>
 	 * username2,password2 <br/>
 	 * ... </i>
 	 * 
 	 * @param whiteListFileName
 	 *            The name of the white list file.
-	 * @throws FileNotFoundException
-	 */
-	public void setWhiteList(String whiteListFileName) throws FileNotFoundException {
-		List<AllowedUser> newWhiteList = new ArrayList<>();
-
-		// Read the usernames and passwords and fill the list with AllowedUsers
-		Scanner whiteListReader = new Scanner(new File(whiteListFileName));
-		while (whiteListReader.hasNextLine()) {
-			Scanner lineScanner = new Scanner(whiteListReader.nextLine());
-			lineScanner.useDelimiter(",");
-			if (lineScanner.hasNext()) {
-				String username = lineScanner.next();
-				if (lineScanner.hasNext()) {
-					String password = lineScanner.next();
-					newWhiteList.add(new AllowedUser(username.trim(), password.trim()));
-				}
-			}
-			lineScanner.close();
+	 * @throws IOException
+	 *             If the file can't be read
+	 */
+	public void setWhiteList(String whiteListFileName) throws IOException {
+		CredentialStore newWhiteList = new CredentialStore(whiteListFileName);
+		newWhiteList.load();
+		try {
+			newWhiteList.watch();
+		} catch (IOException e) {
+			System.err.println("Unable to watch white list file for changes: " + e.getMessage());
 		}
-		whiteListReader.close();
 
-		// Update the whitelist
-		whiteList.clear();
-		whiteList.addAll(newWhiteList);
+		CredentialStore oldWhiteList = whiteList;
+		whiteList = newWhiteList;
+		if (oldWhiteList != null) {
+			oldWhiteList.close();
+		}
 	}
 
 	/**
@@ -194,8 +347,62 @@ public class SerialServer {
 	 * 
 	 * @return
 	 */
-	public ArrayList<AllowedUser> getWhiteList() {
-		return whiteList;
+	public Collection<AllowedUser> getWhiteList() {
+		CredentialStore whiteList = this.whiteList;
+		return whiteList != null ? whiteList.getUsers() : Collections.<AllowedUser> emptyList();
+	}
+
+	/**
+	 * Check whether the given username and password appear in the server's whitelist
+	 * 
+	 * @param username
+	 *            The username sent by the client
+	 * @param password
+	 *            The password sent by the client
+	 * @return True if the user is allowed to login to this server
+	 */
+	public boolean isAllowedUser(String username, String password) {
+		CredentialStore whiteList = this.whiteList;
+		if (whiteList != null && whiteList.isAllowed(username, password)) {
+			return true;
+		}
+
+		authFailures.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Set what opens the serial ports, e.g. a SimulatorTransportFactory to run without hardware. Must be called before the server is
+	 * started.
+	 * 
+	 * @param transportFactory
+	 *            Opens the serial ports by name
+	 */
+	public void setTransportFactory(SerialTransportFactory transportFactory) {
+		if (transportFactory == null) {
+			throw new IllegalArgumentException("Transport factory cannot be null!");
+		}
+
+		this.transportFactory = transportFactory;
+	}
+
+	public SerialTransportFactory getTransportFactory() {
+		return transportFactory;
+	}
+
+	/**
+	 * Set the number of non-blocking event loops the server multiplexes its clients on. With 0 loops (the default), every client gets its
+	 * own blocking reader thread. Must be called before the server is started.
+	 * 
+	 * @param nEventLoops
+	 *            The number of event loop threads, or 0 for one thread per client
+	 */
+	public void setEventLoopCount(int nEventLoops) {
+		if (nEventLoops < 0) {
+			throw new IllegalArgumentException("Invalid number of event loops: " + nEventLoops);
+		}
+
+		this.nEventLoops = nEventLoops;
 	}
 
 	/**
@@ -219,6 +426,8 @@ public class SerialServer {
 
 		System.out.println("Number of serial connections=" + NSERIAL_CONNECTIONS + " : " + Arrays.toString(serialPorts));
 
+		startMetrics();
+
 		// Get the white list information
 		try {
 			setWhiteList(whiteListFileName);
@@ -243,14 +452,18 @@ public class SerialServer {
 			}
 		}
 
+		if (nEventLoops > 0) {
+			startEventLoops(portNum);
+			return;
+		}
+
 		startServer(portNum);
 
 		System.out.println("Waiting for clients to connect...");
 
-		int clientNum = 0;
 		while (true) {
 			Socket client = server.accept();
-			clientNum++;
+			int clientNum = nextClientNum();
 
 			clients.add(new ClientPair(client, clientNum));
 			clientIns.add(client.getInputStream());
@@ -260,6 +473,551 @@ public class SerialServer {
 		}
 	}
 
+	/**
+	 * Set how responses from a serial port are matched to the clients whose commands caused them, and how many commands may wait on a
+	 * response at once. Must be called before the server is started; use getCommandArbiter() to change it afterwards.
+	 * 
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @param matchMode
+	 *            How responses are matched to commands
+	 * @param pipelineDepth
+	 *            The maximum number of commands waiting on a response at once
+	 */
+	public void setCommandArbitration(int serialPortNum, CommandArbiter.MatchMode matchMode, int pipelineDepth) {
+		if (matchMode == null) {
+			throw new IllegalArgumentException("Match mode cannot be null!");
+		} else if (pipelineDepth < 1) {
+			throw new IllegalArgumentException("Invalid pipeline depth: " + pipelineDepth);
+		}
+
+		matchModes.put(serialPortNum, matchMode);
+		pipelineDepths.put(serialPortNum, pipelineDepth);
+	}
+
+	/**
+	 * Set the commands that a serial port's device never answers when they're given a value, so they don't hold up the port's pipeline
+	 * waiting on a response. Must be called before the server is started; use getCommandArbiter() to change them afterwards.
+	 * 
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @param prefixes
+	 *            The commands that never get a response, like "TC" and "MD" for the TS-2000
+	 * @see CommandArbiter#setNoReplyPrefixes(String...)
+	 */
+	public void setNoReplyCommands(int serialPortNum, String... prefixes) {
+		if (prefixes == null) {
+			throw new IllegalArgumentException("No-reply commands cannot be null!");
+		}
+
+		noReplyPrefixes.put(serialPortNum, prefixes.clone());
+	}
+
+	/**
+	 * Set whether the data from a serial port is passed on to clients as it's read, rather than split into lines. Binary protocols like
+	 * KISS need this, since their frames can contain the line delimiters, and their clients should use binary framing, since text mode
+	 * can't carry arbitrary bytes. Must be called before the server is started.
+	 * 
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @param raw
+	 *            Whether to pass the data on as it's read
+	 */
+	public void setRawMode(int serialPortNum, boolean raw) {
+		rawModes.put(serialPortNum, raw);
+	}
+
+	/**
+	 * Get the command arbiter for the given serial port number
+	 * 
+	 * @param serialPortNum
+	 *            The serial port number
+	 * @return The command arbiter for that port
+	 */
+	public CommandArbiter getCommandArbiter(int serialPortNum) {
+		if (serialPortNum < 0 || serialPortNum >= arbiters.size()) {
+			return null;
+		}
+
+		return arbiters.get(serialPortNum);
+	}
+
+	/**
+	 * Set the number of messages each client's outbox can hold before the overflow policy kicks in. Only affects clients that connect
+	 * afterwards.
+	 * 
+	 * @param outboxCapacity
+	 *            The outbox capacity
+	 */
+	public void setOutboxCapacity(int outboxCapacity) {
+		if (outboxCapacity <= 0) {
+			throw new IllegalArgumentException("Invalid outbox capacity: " + outboxCapacity);
+		}
+
+		this.outboxCapacity = outboxCapacity;
+	}
+
+	/**
+	 * Set what happens when a client falls so far behind that its outbox fills up. Only affects clients that connect afterwards.
+	 * 
+	 * @param overflowPolicy
+	 *            The overflow policy
+	 */
+	public void setOverflowPolicy(ClientOutbox.OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy cannot be null!");
+		}
+
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Set whether clients may switch to binary framing (see FrameCodec). If not, a client asking for it gets no answer and stays in text
+	 * mode. Only affects clients that ask afterwards.
+	 * 
+	 * @param binaryFramingAllowed
+	 *            Whether clients may switch to binary framing
+	 */
+	public void setBinaryFramingAllowed(boolean binaryFramingAllowed) {
+		this.binaryFramingAllowed = binaryFramingAllowed;
+	}
+
+	/**
+	 * Serve the server's metrics over HTTP on the loopback address, at http://localhost:PORT/metrics. The metrics are always available
+	 * over JMX. Must be called before the server is started.
+	 * 
+	 * @param metricsPort
+	 *            The port to serve the metrics on, or -1 for none
+	 */
+	public void setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+
+	/**
+	 * Get the server's metrics: bytes and frames to and from each serial port and client, each serial port's command to response latency
+	 * and queue depths, and counts of clients connecting and failing to log in
+	 * 
+	 * @return The server's metrics
+	 */
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Create an outbox for a new client, using the server's capacity and overflow policy
+	 * 
+	 * @return The new outbox
+	 */
+	ClientOutbox createOutbox() {
+		return new ClientOutbox(outboxCapacity, overflowPolicy);
+	}
+
+	/**
+	 * Add a validated client's session, so it starts receiving serial data
+	 * 
+	 * @param session
+	 *            The client's session
+	 */
+	void addSession(ClientSession session) {
+		sessions.put(session.getClientNum(), session);
+		connections.incrementAndGet();
+
+		final ClientSession s = session;
+		String prefix = "client." + session.getClientNum() + ".";
+		metrics.register(prefix + "messagesIn", new Gauge() {
+			@Override
+			public long getValue() {
+				return s.getMessagesReceived();
+			}
+		});
+		metrics.register(prefix + "bytesIn", new Gauge() {
+			@Override
+			public long getValue() {
+				return s.getBytesReceived();
+			}
+		});
+		metrics.register(prefix + "messagesOut", new Gauge() {
+			@Override
+			public long getValue() {
+				return s.getMessagesSent();
+			}
+		});
+		metrics.register(prefix + "bytesOut", new Gauge() {
+			@Override
+			public long getValue() {
+				return s.getBytesSent();
+			}
+		});
+		metrics.register(prefix + "outboxDepth", new Gauge() {
+			@Override
+			public long getValue() {
+				return s.getOutbox().size();
+			}
+		});
+		metrics.register(prefix + "outboxDropped", new Gauge() {
+			@Override
+			public long getValue() {
+				return s.getOutbox().getDropped();
+			}
+		});
+	}
+
+	/**
+	 * Remove a client's session and close its outbox
+	 * 
+	 * @param clientNum
+	 *            The client number
+	 */
+	void removeSession(int clientNum) {
+		ClientSession session = sessions.remove(clientNum);
+		if (session != null) {
+			session.getOutbox().close();
+			disconnections.incrementAndGet();
+			metrics.removeAll("client." + clientNum + ".");
+		}
+	}
+
+	/**
+	 * Start the non-blocking event loops on the given port. The first loop accepts the clients and spreads them across all of the loops,
+	 * and runs on the calling thread.
+	 * 
+	 * @param portNum
+	 *            The port number to start the server on
+	 * @throws IOException
+	 *             If something goes wrong
+	 */
+	private void startEventLoops(int portNum) throws IOException {
+		eventLoops = new SerialServerEventLoop[nEventLoops];
+		for (int i = 0; i < eventLoops.length; i++) {
+			eventLoops[i] = new SerialServerEventLoop(this);
+		}
+		eventLoops[0].bind(portNum, eventLoops);
+
+		System.out.println();
+		System.out.println("Serial Server started on port " + portNum + " with " + nEventLoops + " event loop(s)");
+		System.out.println("Waiting for clients to connect...");
+
+		for (int i = 1; i < eventLoops.length; i++) {
+			(new Thread(eventLoops[i], "SerialServerEventLoop-" + i)).start();
+		}
+		eventLoops[0].run();
+	}
+
+	/**
+	 * Get the number to assign to the next client that connects
+	 * 
+	 * @return The next client number
+	 */
+	synchronized int nextClientNum() {
+		return ++lastClientNum;
+	}
+
+	/**
+	 * Handle a line of data received from a client. The first character of the line is the serial port number the rest of the line is
+	 * directed to.
+	 * 
+	 * @param clientNum
+	 *            The client the line came from
+	 * @param line
+	 *            The line received from the client
+	 * @throws IOException
+	 *             If writing to the serial port goes wrong
+	 */
+	void handleClientData(int clientNum, String line) throws IOException {
+		if (line.startsWith(SerialUtils.SUBSCRIBE_COMMAND) || line.startsWith(SerialUtils.UNSUBSCRIBE_COMMAND)) {
+			handleSubscription(clientNum, line);
+			return;
+		}
+
+		int serialPortNum = -1;
+		if (Character.isDigit(line.charAt(0))) {
+			serialPortNum = (int) (line.charAt(0) - '0');
+		} else {
+			System.err.println("Ignoring message without specified serial destination.");
+		}
+
+		handleClientDataReceived(clientNum, line.substring(1), serialPortNum);
+	}
+
+	/**
+	 * Switch a client to binary framing, if it's allowed, queueing the acknowledgement. The client's reader must read frames from then on.
+	 * 
+	 * @param clientNum
+	 *            The client asking to switch
+	 * @return True if the client has been switched, false if it isn't allowed or the client was disconnected because the acknowledgement
+	 *         couldn't be queued
+	 */
+	boolean switchToBinary(int clientNum) {
+		ClientSession session = sessions.get(clientNum);
+		if (session == null || !binaryFramingAllowed) {
+			return false;
+		}
+
+		if (!session.switchToBinary((SerialUtils.BINARY_COMMAND + "\n").getBytes(SerialFramer.CHARSET))) {
+			// The outbox is full, so the client is too far behind to be told it switched
+			System.err.println("Client #" + clientNum + " can't keep up with the serial data. Disconnecting...");
+			slowClientDisconnects.incrementAndGet();
+			removeSession(clientNum);
+			flush(session);
+			return false;
+		}
+		flush(session);
+		System.out.println("Client #" + clientNum + " switched to binary framing");
+		return true;
+	}
+
+	/**
+	 * Handle a binary frame received from a client. Control frames carry the same commands as text mode, and the payload of any other
+	 * frame is written to its serial port exactly as it is.
+	 * 
+	 * @param clientNum
+	 *            The client the frame came from
+	 * @param serialPortNum
+	 *            The serial port the frame is directed to
+	 * @param flags
+	 *            The frame's flags
+	 * @param payload
+	 *            The buffer holding the payload
+	 * @param offset
+	 *            Where the payload starts in the buffer
+	 * @param length
+	 *            The payload length
+	 * @throws IOException
+	 *             If writing to the serial port goes wrong
+	 */
+	void handleClientFrame(int clientNum, int serialPortNum, int flags, byte[] payload, int offset, int length) throws IOException {
+		if ((flags & FrameCodec.FLAG_CONTROL) != 0) {
+			String command = SerialFramer.toString(payload, offset, length);
+			if (command.startsWith(SerialUtils.SUBSCRIBE_COMMAND) || command.startsWith(SerialUtils.UNSUBSCRIBE_COMMAND)) {
+				handleSubscription(clientNum, command);
+			} else {
+				System.err.println("Ignoring unknown control frame from client #" + clientNum + ": " + command);
+			}
+			return;
+		}
+
+		if (serialPortNum > 9 || getCommandArbiter(serialPortNum) == null) {
+			System.err.println("Ignoring message with invalid serial destination: " + serialPortNum);
+			return;
+		}
+
+		byte[] data = Arrays.copyOfRange(payload, offset, offset + length);
+		countClientMessage(clientNum, length);
+		SerialUtils.backupData(new String(data, SerialFramer.CHARSET), SerialUtils.getJarDirectory() + "Data-Logs/Client-Data/",
+				serialPortNum, Direction.CLIENT_TO_SERIAL);
+		getCommandArbiter(serialPortNum).submit(clientNum, data);
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Received from client #" + clientNum + ": " + Arrays.toString(data));
+		}
+	}
+
+	private void countClientMessage(int clientNum, int length) {
+		ClientSession session = sessions.get(clientNum);
+		if (session != null) {
+			session.messageReceived(length);
+		}
+	}
+
+	/**
+	 * Handle a subscription message from a client, like "#SUBSCRIBE 0 1" or "#UNSUBSCRIBE 1"
+	 * 
+	 * @param clientNum
+	 *            The client the message came from
+	 * @param line
+	 *            The subscription message
+	 */
+	private void handleSubscription(int clientNum, String line) {
+		ClientSession session = sessions.get(clientNum);
+		if (session == null) {
+			return;
+		}
+
+		boolean subscribe = line.startsWith(SerialUtils.SUBSCRIBE_COMMAND);
+		String[] ports = line.substring(subscribe ? SerialUtils.SUBSCRIBE_COMMAND.length() : SerialUtils.UNSUBSCRIBE_COMMAND.length())
+				.trim().split("[\\s,]+");
+		for (String port : ports) {
+			if (port.length() == 1 && Character.isDigit(port.charAt(0))) {
+				if (subscribe) {
+					session.subscribe(port.charAt(0) - '0');
+				} else {
+					session.unsubscribe(port.charAt(0) - '0');
+				}
+			} else if (!port.isEmpty()) {
+				System.err.println("Ignoring invalid subscription from client #" + clientNum + ": " + port);
+			}
+		}
+	}
+
+	/**
+	 * Process a command received from the client, handing it to the serial port's command arbiter to be written
+	 * 
+	 * @param clientNum
+	 *            The client the command came from
+	 * @param cmd
+	 *            The command sent from the client
+	 * @param serialPortNum
+	 *            The serial port number to which the command is directed
+	 * @throws IOException
+	 *             If writing to the server's serial ports goes wrong
+	 */
+	private void processCommand(int clientNum, String cmd, int serialPortNum) throws IOException {
+		getCommandArbiter(serialPortNum).submit(clientNum, unescapeCommand(cmd));
+	}
+
+	/**
+	 * Turn the escaped line endings ("\\r" and "\\n") in a command from a text mode client into real ones
+	 * 
+	 * @param cmd
+	 *            The command as sent by the client
+	 * @return The command to write to the serial port
+	 */
+	public static String unescapeCommand(String cmd) {
+		cmd = cmd.replaceAll("\\\\r", "\r");
+		cmd = cmd.replaceAll("\\\\n", "\n");
+		return cmd;
+	}
+
+	/**
+	 * Handle data received from the client
+	 * 
+	 * @param clientNum
+	 *            The client the data came from
+	 * @param data
+	 *            The data sent from the client
+	 * @param serialPortNum
+	 *            The serial port to which the data is directed
+	 * @throws IOException
+	 *             If writing goes wrong
+	 */
+	private void handleClientDataReceived(int clientNum, String data, int serialPortNum) throws IOException {
+		// Only [0-9] are valid serial ports
+		if (serialPortNum < 0 || serialPortNum > 9) {
+			return;
+		}
+
+		countClientMessage(clientNum, data.length());
+
+		// Backup the data
+		SerialUtils.backupData(data, SerialUtils.getJarDirectory() + "Data-Logs/Client-Data/", serialPortNum, Direction.CLIENT_TO_SERIAL);
+
+		// Write the serial data if the serial port number is valid. The
+		// arbiter keeps track of which client the command came from, so
+		// the serial port's response goes to the appropriate client
+		if (getCommandArbiter(serialPortNum) != null) {
+			processCommand(clientNum, data, serialPortNum);
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Received from client #" + clientNum + ": " + data + " (" + Arrays.toString(data.getBytes()) + ")");
+			}
+		} else {
+			System.err.println("Ignoring message with invalid serial destination: " + serialPortNum);
+			return;
+		}
+	}
+
+	/**
+	 * Send a line of data to a single client. A binary mode client gets it as a control frame.
+	 * 
+	 * @param clientNum
+	 *            The number of the client to send to
+	 * @param data
+	 *            The data to send, without the trailing newline
+	 * @return True if the client exists and the data was queued for it, false otherwise
+	 */
+	public boolean sendToClient(int clientNum, String data) {
+		ClientSession session = sessions.get(clientNum);
+		if (session == null) {
+			return false;
+		}
+
+		byte[] frame = FrameCodec.encode(0, 0, FrameCodec.FLAG_CONTROL, data.getBytes(SerialFramer.CHARSET));
+		return deliver(session, (data + "\n").getBytes(SerialFramer.CHARSET), frame);
+	}
+
+	/**
+	 * Send a line of serial data to every client subscribed to the serial port, and to the client whose command it's responding to. The
+	 * data is only queued in each client's outbox, so this never blocks on a slow client. Binary mode clients get it as a frame, without
+	 * the newline. The text message and the frame are only built once a client needs them, so the port's frame sequence number only
+	 * advances when some client is sent the frame.
+	 * 
+	 * @param serialPortNum
+	 *            The serial port the data came from
+	 * @param requesterClientNum
+	 *            The client whose command the data is a response to, or -1 if there is none
+	 * @param data
+	 *            The serial data, without the trailing newline
+	 * @return The number of clients the data was queued for
+	 */
+	public int publishSerialData(int serialPortNum, int requesterClientNum, String data) {
+		byte[] message = null;
+		byte[] frame = null;
+		int nRecipients = 0;
+		for (ClientSession session : sessions.values()) {
+			if (session.getClientNum() == requesterClientNum || session.isSubscribed(serialPortNum)) {
+				boolean queued;
+				synchronized (session) {
+					// Held so the client can't switch to binary framing between choosing the form and queueing it
+					if (session.isBinary()) {
+						if (frame == null) {
+							frame = FrameCodec.encode(serialPortNum, serialSequences.getAndIncrement(serialPortNum), 0,
+									data.getBytes(SerialFramer.CHARSET));
+						}
+					} else if (message == null) {
+						message = (data + "\n").getBytes(SerialFramer.CHARSET);
+					}
+					queued = session.offer(message, frame);
+				}
+
+				if (delivered(session, queued)) {
+					nRecipients++;
+				}
+			}
+		}
+
+		return nRecipients;
+	}
+
+	/**
+	 * Queue a message in a client's outbox and wake up whatever drains it. If the client has fallen too far behind and the overflow policy
+	 * says so, the client is disconnected.
+	 * 
+	 * @param session
+	 *            The client's session
+	 * @param textMessage
+	 *            The message to queue for a text mode client
+	 * @param binaryMessage
+	 *            The message to queue for a binary mode client
+	 * @return True if the message was queued
+	 */
+	private boolean deliver(ClientSession session, byte[] textMessage, byte[] binaryMessage) {
+		return delivered(session, session.offer(textMessage, binaryMessage));
+	}
+
+	/**
+	 * Disconnect a client if a message couldn't be queued for it, then wake up whatever drains its outbox
+	 * 
+	 * @param session
+	 *            The client's session
+	 * @param queued
+	 *            Whether the message was queued
+	 * @return Whether the message was queued
+	 */
+	private boolean delivered(ClientSession session, boolean queued) {
+		if (!queued && !session.getOutbox().isClosed()) {
+			System.err.println("Client #" + session.getClientNum() + " can't keep up with the serial data. Disconnecting...");
+			slowClientDisconnects.incrementAndGet();
+			removeSession(session.getClientNum());
+		}
+
+		flush(session);
+		return queued;
+	}
+
+	private void flush(ClientSession session) {
+		if (eventLoops != null) {
+			eventLoops[session.getClientNum() % eventLoops.length].flush(session.getClientNum());
+		}
+	}
+
 	/**
 	 * Get all of the clients assigned to this server
 	 * 
@@ -350,6 +1108,8 @@ public class SerialServer {
 	 *            The client's input stream
 	 */
 	public void closeClient(int clientNum, InputStream in) {
+		removeSession(clientNum);
+
 		try {
 			int inIdx = clientIns.indexOf(in);
 			clientIns.get(inIdx).close();
@@ -365,7 +1125,93 @@ public class SerialServer {
 	}
 
 	/**
-	 * Get the serial output stream for the given serial port number
+	 * Register JMX metrics, and start serving them over HTTP if a metrics port has been set
+	 */
+	private void startMetrics() {
+		metrics.register("server.clients", new Gauge() {
+			@Override
+			public long getValue() {
+				return sessions.size();
+			}
+		});
+		metrics.register("server.logDropped", new Gauge() {
+			@Override
+			public long getValue() {
+				return DataLogger.getInstance().getDroppedCount();
+			}
+		});
+
+		MetricsServer metricsServer = new MetricsServer(metrics);
+		try {
+			metricsServer.registerMBean();
+		} catch (JMException e) {
+			System.err.println("Unable to register metrics with JMX: " + e.getMessage());
+		}
+
+		if (metricsPort >= 0) {
+			try {
+				metricsServer.startHttp(metricsPort);
+				System.out.println("Serving metrics on http://localhost:" + metricsServer.getHttpPort() + "/metrics");
+			} catch (IOException e) {
+				System.err.println("Unable to serve metrics on port " + metricsPort + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Register the metrics for a serial port's writes, queues and response latency. Reads are counted by the port's reader.
+	 */
+	private void registerSerialMetrics(int serialPortNum, final CommandArbiter arbiter) {
+		final SerialWriteScheduler writeScheduler = arbiter.getWriteScheduler();
+		String prefix = "serial." + serialPortNum + ".";
+		metrics.register(prefix + "responseLatencyMicros", arbiter.getResponseLatency());
+		metrics.register(prefix + "framesOut", new Gauge() {
+			@Override
+			public long getValue() {
+				return writeScheduler.getWrittenCount();
+			}
+		});
+		metrics.register(prefix + "bytesOut", new Gauge() {
+			@Override
+			public long getValue() {
+				return writeScheduler.getWrittenBytes();
+			}
+		});
+		metrics.register(prefix + "coalesced", new Gauge() {
+			@Override
+			public long getValue() {
+				return writeScheduler.getCoalescedCount();
+			}
+		});
+		metrics.register(prefix + "cancelled", new Gauge() {
+			@Override
+			public long getValue() {
+				return writeScheduler.getCancelledCount();
+			}
+		});
+		metrics.register(prefix + "writeQueueDepth", new Gauge() {
+			@Override
+			public long getValue() {
+				return writeScheduler.getQueuedCount();
+			}
+		});
+		metrics.register(prefix + "inFlight", new Gauge() {
+			@Override
+			public long getValue() {
+				return arbiter.getInFlightCount();
+			}
+		});
+		metrics.register(prefix + "waiting", new Gauge() {
+			@Override
+			public long getValue() {
+				return arbiter.getWaitingCount();
+			}
+		});
+	}
+
+	/**
+	 * Get the serial output stream for the given serial port number. Writing to it directly bypasses the port's write scheduler, so it can
+	 * interleave with commands from clients - use getCommandArbiter(serialPortNum).getWriteScheduler() instead.
 	 * 
 	 * @param serialPortNum
 	 *            The serial port number
@@ -425,38 +1271,37 @@ public class SerialServer {
 	 *            The name of the serial port [COM3, /dev/ttyUSB0, etc.]
 	 * @param serialPortNum
 	 *            The number of the serial port
-	 * @throws NoSuchPortException
-	 * @throws PortInUseException
-	 * @throws UnsupportedCommOperationException
-	 * @throws IOException
-	 * @throws TooManyListenersException
-	 *             If something goes wrong
+	 * @throws Exception
+	 *             If the port doesn't exist, is in use or can't be opened
 	 */
-	private void connect(String portName, int serialPortNum) throws NoSuchPortException, PortInUseException,
-			UnsupportedCommOperationException, IOException, TooManyListenersException {
+	private void connect(String portName, int serialPortNum) throws Exception {
 		if (portName == null) {
 			throw new IllegalArgumentException("Port Name must not be null!");
 		}
 
-		CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(portName);
-		if (portIdentifier.isCurrentlyOwned()) {
-			throw new PortInUseException();
-		} else {
-			CommPort commPort = portIdentifier.open(this.getClass().getName(), 2000);
-
-			if (commPort instanceof SerialPort) {
-				SerialPort serialPort = (SerialPort) commPort;
-				serialPort.setSerialPortParams(BAUD_RATE, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		SerialTransport transport = transportFactory.open(portName, BAUD_RATE);
 
-				// Get the input stream and output stream
-				serialIns[serialPortNum] = serialPort.getInputStream();
-				serialOuts[serialPortNum] = serialPort.getOutputStream();
+		// Get the input stream and output stream
+		serialIns[serialPortNum] = transport.getInputStream();
+		serialOuts[serialPortNum] = transport.getOutputStream();
 
-				// Start the reader
-				SerialServerDataReader serialReader = new SerialServerDataReader(serialIns[serialPortNum], this, serialPortNum);
-				serialReaders.add(serialReader);
-				(new Thread(serialReader)).start();
-			}
+		// Set up the command arbiter
+		CommandArbiter.MatchMode matchMode = matchModes.get(serialPortNum);
+		Integer pipelineDepth = pipelineDepths.get(serialPortNum);
+		SerialWriteScheduler writeScheduler = new SerialWriteScheduler(serialOuts[serialPortNum], "SerialWriter-" + portName);
+		CommandArbiter arbiter = new CommandArbiter(writeScheduler, matchMode != null ? matchMode : CommandArbiter.MatchMode.FIFO,
+				pipelineDepth != null ? pipelineDepth : CommandArbiter.DEFAULT_PIPELINE_DEPTH);
+		String[] prefixes = noReplyPrefixes.get(serialPortNum);
+		if (prefixes != null) {
+			arbiter.setNoReplyPrefixes(prefixes);
 		}
+		arbiters.add(arbiter);
+		registerSerialMetrics(serialPortNum, arbiter);
+
+		// Start the reader
+		SerialServerDataReader serialReader = new SerialServerDataReader(serialIns[serialPortNum], this, serialPortNum);
+		serialReader.setRaw(Boolean.TRUE.equals(rawModes.get(serialPortNum)));
+		serialReaders.add(serialReader);
+		(new Thread(serialReader)).start();
 	}
 }
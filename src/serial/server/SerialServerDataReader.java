@@ -3,8 +3,12 @@ package serial.server;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import serial.SerialUtils;
+import serial.archive.TelemetryRecord.Direction;
 
 /**
  * A reader that sits and waits for serial data to come in and then ships it off to the server's clients
@@ -12,6 +16,8 @@ import serial.SerialUtils;
  * @author Adam Campbell
  */
 public class SerialServerDataReader extends SerialDataReader {
+	private static final Logger LOG = Logger.getLogger(SerialServerDataReader.class.getName());
+
 	/**
 	 * The server to which this reader belongs
 	 */
@@ -23,9 +29,10 @@ public class SerialServerDataReader extends SerialDataReader {
 	private int serialPortNum;
 
 	/**
-	 * The client number to respond to
+	 * The lines and bytes read from the serial port
 	 */
-	public int CLIENT_NUM = -1;
+	private final AtomicLong framesIn;
+	private final AtomicLong bytesIn;
 
 	/**
 	 * Construct a serial data reader that reads from the given serial port, and outputs to the given server with the given serial port
@@ -42,6 +49,8 @@ public class SerialServerDataReader extends SerialDataReader {
 		super(serialIn);
 		this.server = server;
 		this.serialPortNum = serialPortNum;
+		this.framesIn = server.getMetrics().counter("serial." + serialPortNum + ".framesIn");
+		this.bytesIn = server.getMetrics().counter("serial." + serialPortNum + ".bytesIn");
 	}
 
 	/**
@@ -50,18 +59,20 @@ public class SerialServerDataReader extends SerialDataReader {
 	 * @param data
 	 *            The serial data received
 	 * @throws IOException
-	 *             If something goes wrong writing to the server's clients
 	 */
 	@Override
 	public void handleSerialDataReceived(String data) throws IOException {
+		framesIn.incrementAndGet();
+		bytesIn.addAndGet(data.length());
+
 		// Back up the data locally
-		SerialUtils.backupData(data, SerialUtils.getJarDirectory() + "Data-Logs/Serial-Data/Port-" + serialPortNum + "/");
+		SerialUtils.backupData(data, SerialUtils.getJarDirectory() + "Data-Logs/Serial-Data/Port-" + serialPortNum + "/", serialPortNum,
+				Direction.SERIAL_TO_CLIENT);
 
-		// Write the data to the client
-		if (CLIENT_NUM > 0 && server.getClient(CLIENT_NUM) != null) {
-			server.getClient(CLIENT_NUM).getOutputStream().write((data + "\n").getBytes());
-		} else {
-			System.out.println("Invalid client number: " + CLIENT_NUM + " ; " + data + " " + Arrays.toString(data.getBytes()));
+		// Send the data to the client that asked for it and to everyone subscribed to this port
+		int clientNum = server.getCommandArbiter(serialPortNum).responseReceived(data);
+		if (server.publishSerialData(serialPortNum, clientNum, data) == 0 && LOG.isLoggable(Level.FINE)) {
+			LOG.fine("No clients to receive data: " + clientNum + " ; " + data + " " + Arrays.toString(data.getBytes()));
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,529 @@
+package serial.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import serial.FrameCodec;
+import serial.SerialUtils;
+
+/**
+ * A non-blocking event loop for the serial server. Instead of parking one thread per client on a blocking read, all of the client sockets
+ * assigned to this loop are multiplexed on a single Selector. Serial data destined for a client is queued in the client's outbox and
+ * written out by the loop once the client's socket is ready for it, so the serial readers never block on a slow client.<br/>
+ * <br/>
+ * The wire protocol is the same as for the thread-per-client server: the first two lines sent by a client are its username and password,
+ * and every line after that is <i>&lt;serial port digit&gt;&lt;payload&gt;</i>, unless the client switches to binary framing (see
+ * FrameCodec). Checking a password is deliberately slow, so it's done on a worker thread, and the loop goes on serving its other clients
+ * until the result comes back.
+ *
+ * @author Adam Campbell
+ */
+public class SerialServerEventLoop implements Runnable {
+	/**
+	 * The states a client connection goes through
+	 */
+	private enum ConnectionState {
+		AWAITING_USERNAME, AWAITING_PASSWORD, AUTHENTICATING, READY
+	}
+
+	/**
+	 * A single client connection handled by this loop
+	 */
+	private class Connection {
+		private final int clientNum;
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private ConnectionState state = ConnectionState.AWAITING_USERNAME;
+		private String username;
+
+		/**
+		 * Bytes of the line currently being read
+		 */
+		private byte[] line = new byte[SerialUtils.BUFFER_SIZE];
+		private int lineLength = 0;
+		private boolean lastWasCarriageReturn = false;
+
+		/**
+		 * Bytes the client sent after its password, held until it's been let in
+		 */
+		private ByteBuffer afterLogin;
+
+		/**
+		 * Whether the client's username and password checked out, set by the worker that checked them
+		 */
+		private volatile boolean loginAccepted = false;
+
+		/**
+		 * Decodes the client's frames once it has switched to binary framing
+		 */
+		private FrameCodec decoder;
+
+		/**
+		 * Data waiting to be written to the client
+		 */
+		private final ClientOutbox outbox;
+
+		/**
+		 * The message currently being written, if the socket couldn't take all of it at once
+		 */
+		private ByteBuffer partialWrite;
+
+		/**
+		 * Whether the connection should be closed once the outbound data has been flushed
+		 */
+		private boolean closeAfterFlush = false;
+
+		public Connection(SocketChannel channel, int clientNum, ClientOutbox outbox) {
+			this.channel = channel;
+			this.clientNum = clientNum;
+			this.outbox = outbox;
+		}
+	}
+
+	/**
+	 * Checks the passwords for all of the loops, off their threads
+	 */
+	private static final ExecutorService authenticator = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "SerialServer-Auth");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * The server this loop belongs to
+	 */
+	private SerialServer server;
+
+	/**
+	 * The selector multiplexing all of this loop's channels
+	 */
+	private Selector selector;
+
+	/**
+	 * The server socket channel, if this loop is the one accepting clients
+	 */
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * The other loops that accepted clients are handed to, including this one
+	 */
+	private SerialServerEventLoop[] loops;
+
+	/**
+	 * The clients handled by this loop, keyed by client number
+	 */
+	private Map<Integer, Connection> connections = new ConcurrentHashMap<Integer, Connection>();
+
+	/**
+	 * Newly accepted connections waiting to be registered with the selector
+	 */
+	private Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * Connections that have new outbound data and need to be watched for writability
+	 */
+	private Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * Connections whose passwords have been checked, waiting for the loop to let them in or turn them away
+	 */
+	private Queue<Connection> completedLogins = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * Buffer used for all reads on this loop's thread
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(SerialUtils.BUFFER_SIZE);
+
+	/**
+	 * Construct a new event loop for the given server
+	 *
+	 * @param server
+	 *            The server this loop belongs to
+	 * @throws IOException
+	 *             If the selector can't be opened
+	 */
+	public SerialServerEventLoop(SerialServer server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Make this loop accept clients on the given port, distributing them across the given loops
+	 *
+	 * @param portNum
+	 *            The port to accept clients on
+	 * @param loops
+	 *            All of the server's event loops (this loop included) that accepted clients are spread across
+	 * @throws IOException
+	 *             If the port can't be bound
+	 */
+	public void bind(int portNum, SerialServerEventLoop[] loops) throws IOException {
+		this.loops = loops;
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().bind(new InetSocketAddress(portNum));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Hand a client connection to this loop. Safe to call from any thread.
+	 *
+	 * @param channel
+	 *            The client's channel
+	 * @param clientNum
+	 *            The client number
+	 */
+	public void register(SocketChannel channel, int clientNum) {
+		Connection connection = new Connection(channel, clientNum, server.createOutbox());
+		connections.put(clientNum, connection);
+		pendingRegistrations.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Tell the loop that a client's outbox has new data (or has been closed). Safe to call from any thread; the write itself happens on the
+	 * loop's thread.
+	 *
+	 * @param clientNum
+	 *            The client number
+	 */
+	public void flush(int clientNum) {
+		Connection connection = connections.get(clientNum);
+		if (connection != null) {
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}
+	}
+
+	private void enqueue(Connection connection, byte[] data) {
+		connection.outbox.offer(data);
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (selector.isOpen()) {
+			try {
+				selector.select();
+				registerPending();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						handleKey(key);
+					}
+				}
+			} catch (ClosedChannelException e) {
+				// The loop was shut down
+				return;
+			} catch (ClosedSelectorException e) {
+				// The loop was shut down
+				return;
+			} catch (IOException e) {
+				System.err.println("Error in serial server event loop!");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Read from and write to a client that's ready. If anything goes wrong, only that client is disconnected.
+	 */
+	private void handleKey(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isReadable()) {
+				read(connection);
+			}
+			if (key.isValid() && key.isWritable()) {
+				write(connection);
+			}
+		} catch (IOException e) {
+			close(connection);
+		} catch (RuntimeException e) {
+			// Only this client's connection is broken - keep serving the rest
+			System.err.println("Error handling client #" + connection.clientNum + ", disconnecting it!");
+			e.printStackTrace();
+			close(connection);
+		}
+	}
+
+	/**
+	 * Stop the loop, closing all of its clients
+	 */
+	public void shutdown() {
+		try {
+			for (Connection connection : connections.values()) {
+				connection.channel.close();
+			}
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Register newly accepted connections, finish the logins that have been checked and update the interest sets of connections with data
+	 * to write
+	 *
+	 * @throws ClosedChannelException
+	 */
+	private void registerPending() throws ClosedChannelException {
+		Connection connection;
+		while ((connection = pendingRegistrations.poll()) != null) {
+			connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+
+		while ((connection = completedLogins.poll()) != null) {
+			if (connections.containsKey(connection.clientNum)) {
+				try {
+					finishLogin(connection);
+				} catch (IOException e) {
+					close(connection);
+				} catch (RuntimeException e) {
+					System.err.println("Error handling client #" + connection.clientNum + ", disconnecting it!");
+					e.printStackTrace();
+					close(connection);
+				}
+			}
+		}
+
+		while ((connection = pendingWrites.poll()) != null) {
+			if (connection.outbox.isClosed()) {
+				// The client was dropped for falling too far behind
+				close(connection);
+			} else if (connection.key != null && connection.key.isValid()) {
+				connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			int clientNum = server.nextClientNum();
+			loops[clientNum % loops.length].register(channel, clientNum);
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		readBuffer.clear();
+		int n = connection.channel.read(readBuffer);
+		if (n < 0) {
+			// The client closed the connection
+			close(connection);
+			return;
+		}
+
+		readBuffer.flip();
+		process(connection, readBuffer);
+	}
+
+	/**
+	 * Handle the lines or frames in data read from a client
+	 */
+	private void process(Connection connection, ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			if (connection.decoder != null) {
+				// The rest is frames, once the '\n' of a "\r\n" ending the line that asked for them is out of the way
+				if (connection.lastWasCarriageReturn && data.get(data.position()) == '\n') {
+					data.get();
+				}
+				connection.lastWasCarriageReturn = false;
+				connection.decoder.feed(data);
+				return;
+			}
+
+			byte b = data.get();
+
+			// Lines end on '\n', '\r' or "\r\n", the same as BufferedReader.readLine()
+			if (b == '\n' && connection.lastWasCarriageReturn) {
+				connection.lastWasCarriageReturn = false;
+				continue;
+			}
+			connection.lastWasCarriageReturn = (b == '\r');
+
+			if (b == '\n' || b == '\r') {
+				String line = new String(connection.line, 0, connection.lineLength);
+				connection.lineLength = 0;
+				handleLine(connection, line);
+				if (!connection.channel.isOpen()) {
+					return;
+				} else if (connection.state == ConnectionState.AUTHENTICATING) {
+					// Hold on to the rest until the client has been let in
+					connection.afterLogin = ByteBuffer.allocate(data.remaining());
+					connection.afterLogin.put(data).flip();
+					return;
+				}
+			} else {
+				if (connection.lineLength == connection.line.length) {
+					if (connection.state != ConnectionState.READY) {
+						// Nobody gets to fill the heap before logging in
+						System.err.println("Login line too long from client #" + connection.clientNum + ", disconnecting it!");
+						close(connection);
+						return;
+					}
+					connection.line = Arrays.copyOf(connection.line, connection.line.length * 2);
+				}
+				connection.line[connection.lineLength++] = b;
+			}
+		}
+	}
+
+	private void handleLine(Connection connection, String line) throws IOException {
+		switch (connection.state) {
+		case AWAITING_USERNAME:
+			connection.username = line;
+			connection.state = ConnectionState.AWAITING_PASSWORD;
+			break;
+		case AWAITING_PASSWORD:
+			// Stop reading from the client until its password has been checked
+			connection.state = ConnectionState.AUTHENTICATING;
+			connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+			authenticate(connection, connection.username, line);
+			break;
+		case AUTHENTICATING:
+			// Not read from until the password has been checked
+			break;
+		case READY:
+			if (SerialUtils.BINARY_COMMAND.equals(line) && server.switchToBinary(connection.clientNum)) {
+				final int clientNum = connection.clientNum;
+				connection.decoder = new FrameCodec(new FrameCodec.FrameListener() {
+					@Override
+					public void frameReceived(int port, int sequence, int flags, byte[] payload, int offset, int length) throws IOException {
+						server.handleClientFrame(clientNum, port, flags, payload, offset, length);
+					}
+				});
+			} else if (line.length() > 0) {
+				server.handleClientData(connection.clientNum, line);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Check a client's username and password on a worker thread, then hand the connection back to the loop to finish logging it in
+	 */
+	private void authenticate(final Connection connection, final String username, final String password) {
+		authenticator.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connection.loginAccepted = server.isAllowedUser(username, password);
+				} catch (RuntimeException e) {
+					System.err.println("Error checking the login of client #" + connection.clientNum + "!");
+					e.printStackTrace();
+					connection.loginAccepted = false;
+				}
+
+				completedLogins.add(connection);
+				selector.wakeup();
+			}
+		});
+	}
+
+	/**
+	 * Let a client in or turn it away, once its password has been checked. Anything it sent after its password is handled straight away.
+	 */
+	private void finishLogin(Connection connection) throws IOException {
+		if (!connection.loginAccepted) {
+			connection.closeAfterFlush = true;
+			connection.afterLogin = null;
+			enqueue(connection, (SerialUtils.INVALID_USER_MESSAGE + "\n").getBytes());
+			return;
+		}
+
+		connection.state = ConnectionState.READY;
+		enqueue(connection, (SerialUtils.VALID_USER_MESSAGE + "\n").getBytes());
+		server.addSession(new ClientSession(connection.clientNum, connection.outbox));
+
+		System.out.println();
+		System.out.println("Connected to client #" + connection.clientNum + ": " + connection.channel.socket().getRemoteSocketAddress());
+		System.out.println("===== SERVER READY TO HANDLE MESSAGES =====");
+		System.out.println();
+
+		connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+		ByteBuffer afterLogin = connection.afterLogin;
+		connection.afterLogin = null;
+		if (afterLogin != null) {
+			process(connection, afterLogin);
+		}
+	}
+
+	private void write(Connection connection) throws IOException {
+		while (true) {
+			if (connection.partialWrite == null) {
+				byte[] message = connection.outbox.poll();
+				if (message == null) {
+					break;
+				}
+				connection.partialWrite = ByteBuffer.wrap(message);
+			}
+
+			connection.channel.write(connection.partialWrite);
+			if (connection.partialWrite.hasRemaining()) {
+				// The socket is full, wait until it's writable again
+				return;
+			}
+			connection.partialWrite = null;
+		}
+
+		if (connection.closeAfterFlush) {
+			close(connection);
+		} else {
+			connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void close(Connection connection) {
+		if (connections.remove(connection.clientNum) == null) {
+			// Already closed
+			return;
+		}
+		server.removeSession(connection.clientNum);
+		connection.outbox.close();
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if (connection.state == ConnectionState.READY) {
+			System.out.println("Client #" + connection.clientNum + " has disconnected.");
+		}
+	}
+}
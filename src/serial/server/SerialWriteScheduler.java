@@ -0,0 +1,318 @@
+package serial.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The only thing that writes to a serial port. Commands from any number of threads are queued, and a single writer thread writes them one
+ * whole command at a time, so commands from different clients can never interleave on the wire.<br/>
+ * <br/>
+ * Commands are written in order of priority, then in the order they were submitted:
+ * <ul>
+ * <li><b>EMERGENCY</b> - rotator stops (GS-232A <i>S</i>, <i>A</i> and <i>E</i>). These also cancel any setpoints still queued, so the
+ * rotator doesn't start moving again straight after stopping.</li>
+ * <li><b>TRACKING</b> - setpoints, like rotator moves (<i>W</i>, <i>M</i>) and frequencies (<i>FA</i>, <i>FB</i>). A setpoint replaces
+ * any queued setpoint of the same kind that hasn't been written yet, since only the latest one matters, and takes its place in the queue
+ * so a steady stream of setpoints can't keep pushing itself to the back.</li>
+ * <li><b>POLLING</b> - everything else, like position and status queries</li>
+ * </ul>
+ * A slow 9600 baud device therefore spends its time on the commands that matter, rather than working through a backlog of stale ones.
+ *
+ * @author Adam Campbell
+ */
+public class SerialWriteScheduler {
+	/**
+	 * How urgently a command needs writing
+	 */
+	public enum Priority {
+		EMERGENCY, TRACKING, POLLING
+	}
+
+	/**
+	 * A command waiting to be written
+	 */
+	private static class Entry {
+		/**
+		 * The command, replaced by newer setpoints of the same kind, and taken (set to null) when it's written or cancelled
+		 */
+		private final AtomicReference<byte[]> data;
+
+		/**
+		 * The kind of setpoint, like "W" or "FA", if the command can be replaced by a newer one
+		 */
+		private final String key;
+
+		public Entry(byte[] data, String key) {
+			this.data = new AtomicReference<byte[]>(data);
+			this.key = key;
+		}
+	}
+
+	private final OutputStream serialOut;
+
+	/**
+	 * The queued commands for each priority
+	 */
+	private final List<Queue<Entry>> queues;
+
+	/**
+	 * The latest queued command of each kind of setpoint
+	 */
+	private final ConcurrentMap<String, Entry> latest = new ConcurrentHashMap<String, Entry>();
+
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong writtenBytes = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong cancelledCount = new AtomicLong();
+
+	/**
+	 * Construct a new write scheduler, and start its writer thread
+	 *
+	 * @param serialOut
+	 *            The serial port's output stream
+	 * @param name
+	 *            A name for the writer thread
+	 */
+	public SerialWriteScheduler(OutputStream serialOut, String name) {
+		if (serialOut == null) {
+			throw new IllegalArgumentException("Serial outputstream cannot be null!");
+		}
+
+		this.serialOut = serialOut;
+		queues = new ArrayList<Queue<Entry>>(Priority.values().length);
+		for (int i = 0; i < Priority.values().length; i++) {
+			queues.add(new ConcurrentLinkedQueue<Entry>());
+		}
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, name);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Work out how urgently a command needs writing
+	 *
+	 * @param cmd
+	 *            The command
+	 * @return The command's priority
+	 */
+	public static Priority classify(byte[] cmd) {
+		int start = skipWhitespace(cmd);
+		int end = trimEnd(cmd, start);
+		if (end - start == 1 && (cmd[start] == 'S' || cmd[start] == 'A' || cmd[start] == 'E')) {
+			return Priority.EMERGENCY;
+		}
+
+		return getKey(cmd) != null ? Priority.TRACKING : Priority.POLLING;
+	}
+
+	/**
+	 * Work out what kind of setpoint a command is, so a newer one of the same kind can replace it
+	 *
+	 * @param cmd
+	 *            The command
+	 * @return The kind of setpoint, or null if the command isn't a single setpoint
+	 */
+	public static String getKey(byte[] cmd) {
+		int start = skipWhitespace(cmd);
+		int end = trimEnd(cmd, start);
+
+		// Anything holding more than one command has to be written as it is
+		for (int i = start; i < end; i++) {
+			if (cmd[i] == ';' || cmd[i] == '\r' || cmd[i] == '\n') {
+				return null;
+			}
+		}
+
+		// Setpoints are a command followed by a value - the same commands without a value are queries
+		if (end - start >= 2 && (cmd[start] == 'W' || cmd[start] == 'M') && isDigit(cmd[start + 1])) {
+			return String.valueOf((char) cmd[start]);
+		} else if (end - start >= 3 && cmd[start] == 'F' && (cmd[start + 1] == 'A' || cmd[start + 1] == 'B') && isDigit(cmd[start + 2])) {
+			return "F" + (char) cmd[start + 1];
+		}
+
+		return null;
+	}
+
+	/**
+	 * Queue a command to be written, at the priority it's classified as
+	 *
+	 * @param cmd
+	 *            The command
+	 */
+	public void submit(byte[] cmd) {
+		submit(cmd, classify(cmd));
+	}
+
+	/**
+	 * Queue a command to be written
+	 *
+	 * @param cmd
+	 *            The command
+	 * @param priority
+	 *            How urgently it needs writing
+	 */
+	public void submit(byte[] cmd, Priority priority) {
+		if (cmd == null || priority == null) {
+			throw new IllegalArgumentException("Command and priority cannot be null!");
+		} else if (!running) {
+			throw new IllegalStateException("Write scheduler has been closed!");
+		}
+
+		String key = priority == Priority.TRACKING ? getKey(cmd) : null;
+		if (priority == Priority.EMERGENCY) {
+			for (Entry queued : queues.get(Priority.TRACKING.ordinal())) {
+				if (queued.data.getAndSet(null) != null) {
+					cancelledCount.incrementAndGet();
+				}
+			}
+		} else if (key != null) {
+			// Replace the queued setpoint of the same kind, unless the writer has already taken it
+			Entry queued = latest.get(key);
+			if (queued != null) {
+				byte[] replaced = queued.data.get();
+				if (replaced != null && queued.data.compareAndSet(replaced, cmd)) {
+					coalescedCount.incrementAndGet();
+					return;
+				}
+			}
+		}
+
+		Entry entry = new Entry(cmd, key);
+		if (key != null) {
+			latest.put(key, entry);
+		}
+		queues.get(priority.ordinal()).add(entry);
+		LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Stop the writer thread. Anything still queued isn't written.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+	}
+
+	/**
+	 * @return The number of commands written
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return The number of bytes written
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+
+	/**
+	 * @return The number of setpoints replaced by a newer one before they were written
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * @return The number of setpoints cancelled by an emergency stop
+	 */
+	public long getCancelledCount() {
+		return cancelledCount.get();
+	}
+
+	/**
+	 * @return The number of commands waiting to be written, including any that have been cancelled
+	 */
+	public int getQueuedCount() {
+		int count = 0;
+		for (Queue<Entry> queue : queues) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	private void writeLoop() {
+		while (running) {
+			Entry entry = poll();
+			if (entry == null) {
+				// Woken by the next submit, or by close
+				LockSupport.park(this);
+				continue;
+			}
+
+			// Stop newer setpoints replacing this one before taking it, so none of them are lost
+			if (entry.key != null) {
+				latest.remove(entry.key, entry);
+			}
+			byte[] data = entry.data.getAndSet(null);
+			if (data == null) {
+				continue;
+			}
+
+			try {
+				serialOut.write(data);
+				serialOut.flush();
+				writtenCount.incrementAndGet();
+				writtenBytes.addAndGet(data.length);
+			} catch (IOException e) {
+				System.err.println("Error writing command to serial port!");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Take the next command to write, highest priority first
+	 */
+	private Entry poll() {
+		for (Queue<Entry> queue : queues) {
+			Entry entry = queue.poll();
+			if (entry != null) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private static int skipWhitespace(byte[] cmd) {
+		int start = 0;
+		while (start < cmd.length && (cmd[start] == ' ' || cmd[start] == '\r' || cmd[start] == '\n')) {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Find the end of a command, leaving off the line ending or ';' that ends it
+	 */
+	private static int trimEnd(byte[] cmd, int start) {
+		int end = cmd.length;
+		while (end > start && (cmd[end - 1] == ' ' || cmd[end - 1] == '\r' || cmd[end - 1] == '\n' || cmd[end - 1] == ';')) {
+			end--;
+		}
+		return end;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
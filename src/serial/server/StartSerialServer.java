@@ -2,6 +2,11 @@ package serial.server;
 
 import gnu.io.NoSuchPortException;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import serial.sim.SimulatorTransportFactory;
+
 /**
  * A class that, when run, starts the serial server.
  * 
@@ -18,25 +23,102 @@ public class StartSerialServer {
 	 */
 	public static final String[] defaultPorts = { "COM4", "COM5" };
 
+	/**
+	 * The serial ports used when simulating the devices and no ports are given: the rotator, the radio and the OS board
+	 */
+	public static final String[] defaultSimulatedPorts = { "gs232a", "ts2000", "osboard" };
+
 	/**
 	 * The white list file location
 	 */
 	public static final String WHITE_LIST = "whitelist.txt";
 
+	/**
+	 * The command line flag that runs the server on non-blocking event loops, optionally followed by "=N" for N loops
+	 */
+	public static final String NIO_FLAG = "--nio";
+
+	/**
+	 * The command line flag that sets what happens to clients that can't keep up, "--overflow=drop-oldest" or "--overflow=disconnect"
+	 */
+	public static final String OVERFLOW_FLAG = "--overflow=";
+
+	/**
+	 * The command line flag that sets how a serial port's responses are matched to commands, e.g. "--arbiter=1:tag:4" matches port 1's
+	 * responses by tag with up to 4 commands waiting on a response at once
+	 */
+	public static final String ARBITER_FLAG = "--arbiter=";
+
+	/**
+	 * The command line flag that sets the commands a serial port's device never answers, e.g. "--no-reply=1:TC,MD"
+	 */
+	public static final String NO_REPLY_FLAG = "--no-reply=";
+
+	/**
+	 * The commands the radio on the default serial ports never answers: the TS-2000's mode switches
+	 */
+	public static final String[] RADIO_NO_REPLY_COMMANDS = { "TC", "MD" };
+
+	/**
+	 * The command line flag that serves the server's metrics over HTTP on localhost, e.g. "--metrics=9090"
+	 */
+	public static final String METRICS_FLAG = "--metrics=";
+
+	/**
+	 * The command line flag that talks to simulated devices instead of real serial ports. The port names then name the devices, like
+	 * "gs232a,latency=20" - see SimulatorTransportFactory.
+	 */
+	public static final String SIMULATE_FLAG = "--simulate";
+
 	/**
 	 * Start the server
 	 * 
 	 * @param args
-	 *            Command line arguments, optionally the names of the serial ports to which the server should connect. If no command line
-	 *            arguments are given, the default serial ports are used.
+	 *            Command line arguments, optionally the names of the serial ports to which the server should connect. If no serial ports
+	 *            are given, the default serial ports are used. Passing --nio (or --nio=N) runs the server on 1 (or N) non-blocking event
+	 *            loops instead of one thread per client. Passing --overflow=disconnect disconnects clients that fall too far behind
+	 *            instead of dropping their oldest data. Passing --arbiter=PORT:fifo|tag:DEPTH sets how a port's responses are matched
+	 *            to the clients that asked for them. Passing --no-reply=PORT:CMD,CMD sets the commands a port's device never answers,
+	 *            which is TC and MD on the radio's port by default. Passing --metrics=PORT serves the server's metrics at
+	 *            http://localhost:PORT/metrics. Passing --simulate runs against simulated devices instead of serial ports.
 	 */
 	public static void main(final String[] args) {
 		try {
 			SerialServer server = new SerialServer(PORTNUM);
-			if (args.length > 0) {
-				server.startServer(WHITE_LIST, args);
+
+			List<String> ports = new ArrayList<String>();
+			boolean simulate = false;
+			server.setNoReplyCommands(1, RADIO_NO_REPLY_COMMANDS);
+			for (String arg : args) {
+				if (arg.equals(SIMULATE_FLAG)) {
+					server.setTransportFactory(new SimulatorTransportFactory());
+					simulate = true;
+				} else if (arg.equals(NIO_FLAG)) {
+					server.setEventLoopCount(1);
+				} else if (arg.startsWith(NIO_FLAG + "=")) {
+					server.setEventLoopCount(Integer.parseInt(arg.substring(NIO_FLAG.length() + 1)));
+				} else if (arg.startsWith(OVERFLOW_FLAG)) {
+					String policy = arg.substring(OVERFLOW_FLAG.length()).toUpperCase().replace('-', '_');
+					server.setOverflowPolicy(ClientOutbox.OverflowPolicy.valueOf(policy));
+				} else if (arg.startsWith(ARBITER_FLAG)) {
+					String[] fields = arg.substring(ARBITER_FLAG.length()).split(":");
+					server.setCommandArbitration(Integer.parseInt(fields[0]), CommandArbiter.MatchMode.valueOf(fields[1].toUpperCase()),
+							fields.length > 2 ? Integer.parseInt(fields[2]) : CommandArbiter.DEFAULT_PIPELINE_DEPTH);
+				} else if (arg.startsWith(NO_REPLY_FLAG)) {
+					String[] fields = arg.substring(NO_REPLY_FLAG.length()).split(":", 2);
+					server.setNoReplyCommands(Integer.parseInt(fields[0]), fields.length > 1 && !fields[1].isEmpty() ? fields[1].split(",")
+							: new String[0]);
+				} else if (arg.startsWith(METRICS_FLAG)) {
+					server.setMetricsPort(Integer.parseInt(arg.substring(METRICS_FLAG.length())));
+				} else {
+					ports.add(arg);
+				}
+			}
+
+			if (ports.size() > 0) {
+				server.startServer(WHITE_LIST, ports.toArray(new String[ports.size()]));
 			} else {
-				server.startServer(WHITE_LIST, defaultPorts);
+				server.startServer(WHITE_LIST, simulate ? defaultSimulatedPorts : defaultPorts);
 			}
 		} catch (NoSuchPortException e) {
 			System.err.println("Invalid serial port(s). Exiting...");
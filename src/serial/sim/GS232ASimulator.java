@@ -0,0 +1,145 @@
+package serial.sim;
+
+/**
+ * Simulates a Yaesu GS-232A rotator controller. The antenna turns towards the last position it was sent at a fixed speed, and answers
+ * position queries with wherever it has got to.<br/>
+ * <br/>
+ * Supported commands, each ended by a carriage return:
+ * <ul>
+ * <li><b>Waaa eee</b> - turn to azimuth aaa and elevation eee (<b>Waaa</b> for just the azimuth)
+ * <li><b>Maaa</b> - turn to azimuth aaa
+ * <li><b>C2</b> - get the azimuth and elevation, answered with <i>+0aaa+0eee</i>
+ * <li><b>C</b> / <b>B</b> - get just the azimuth / elevation, answered with <i>+0aaa</i>
+ * <li><b>S</b> / <b>A</b> / <b>E</b> - stop everything / the azimuth / the elevation
+ * </ul>
+ * Anything else is answered with <i>?&gt;</i>.
+ * 
+ * @author Adam Campbell
+ */
+public class GS232ASimulator extends SimulatedDevice {
+	/**
+	 * The default turning speeds, in degrees per second (about what a G-5500 manages)
+	 */
+	public static final double DEFAULT_AZIMUTH_SPEED = 6.0;
+	public static final double DEFAULT_ELEVATION_SPEED = 2.7;
+
+	/**
+	 * The furthest the rotator can turn. The GS-232A's azimuth goes past 360 degrees to 450.
+	 */
+	public static final int MAX_AZIMUTH = 450;
+	public static final int MAX_ELEVATION = 180;
+
+	private double azimuthSpeed = DEFAULT_AZIMUTH_SPEED;
+	private double elevationSpeed = DEFAULT_ELEVATION_SPEED;
+
+	private double azimuth = 0;
+	private double elevation = 0;
+	private double targetAzimuth = 0;
+	private double targetElevation = 0;
+
+	/**
+	 * When the position was last brought up to date, in ns
+	 */
+	private long lastUpdate = System.nanoTime();
+
+	/**
+	 * Set how fast the antenna turns
+	 * 
+	 * @param azimuthSpeed
+	 *            The azimuth speed, in degrees per second
+	 * @param elevationSpeed
+	 *            The elevation speed, in degrees per second
+	 */
+	public synchronized void setSpeeds(double azimuthSpeed, double elevationSpeed) {
+		if (azimuthSpeed <= 0 || elevationSpeed <= 0) {
+			throw new IllegalArgumentException("Speeds must be positive!");
+		}
+
+		update();
+		this.azimuthSpeed = azimuthSpeed;
+		this.elevationSpeed = elevationSpeed;
+	}
+
+	/**
+	 * @return The antenna's current azimuth, in degrees
+	 */
+	public synchronized double getAzimuth() {
+		update();
+		return azimuth;
+	}
+
+	/**
+	 * @return The antenna's current elevation, in degrees
+	 */
+	public synchronized double getElevation() {
+		update();
+		return elevation;
+	}
+
+	@Override
+	public String getDelimiters() {
+		return "\r";
+	}
+
+	@Override
+	public synchronized String respond(String command) {
+		update();
+
+		String cmd = command.trim().toUpperCase();
+		if (cmd.equals("C2")) {
+			return String.format("+0%03d+0%03d\r", Math.round(azimuth), Math.round(elevation));
+		} else if (cmd.equals("C")) {
+			return String.format("+0%03d\r", Math.round(azimuth));
+		} else if (cmd.equals("B")) {
+			return String.format("+0%03d\r", Math.round(elevation));
+		} else if (cmd.equals("S")) {
+			targetAzimuth = azimuth;
+			targetElevation = elevation;
+			return null;
+		} else if (cmd.equals("A")) {
+			targetAzimuth = azimuth;
+			return null;
+		} else if (cmd.equals("E")) {
+			targetElevation = elevation;
+			return null;
+		} else if (cmd.startsWith("W") || cmd.startsWith("M")) {
+			String[] fields = cmd.substring(1).trim().split("\\s+");
+			try {
+				int newAzimuth = Integer.parseInt(fields[0]);
+				int newElevation = fields.length > 1 && cmd.startsWith("W") ? Integer.parseInt(fields[1]) : -1;
+				if (newAzimuth < 0 || newAzimuth > MAX_AZIMUTH || newElevation > MAX_ELEVATION || fields.length > 2) {
+					return "?>\r";
+				}
+
+				targetAzimuth = newAzimuth;
+				if (newElevation >= 0) {
+					targetElevation = newElevation;
+				}
+				return null;
+			} catch (NumberFormatException e) {
+				return "?>\r";
+			}
+		} else {
+			return "?>\r";
+		}
+	}
+
+	/**
+	 * Move the antenna as far towards its target as it would have turned since the last update
+	 */
+	private void update() {
+		long now = System.nanoTime();
+		double seconds = (now - lastUpdate) / 1e9;
+		lastUpdate = now;
+
+		azimuth = approach(azimuth, targetAzimuth, azimuthSpeed * seconds);
+		elevation = approach(elevation, targetElevation, elevationSpeed * seconds);
+	}
+
+	private static double approach(double value, double target, double maxStep) {
+		if (Math.abs(target - value) <= maxStep) {
+			return target;
+		}
+		return value + Math.signum(target - value) * maxStep;
+	}
+}
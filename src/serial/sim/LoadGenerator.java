@@ -0,0 +1,283 @@
+package serial.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import serial.client.SerialTCPClient;
+import serial.metrics.Histogram;
+import serial.server.SerialServer;
+
+/**
+ * Drives many concurrent TCP clients against a serial server, each polling a device over and over, and reports the throughput and
+ * response latencies.<br/>
+ * <br/>
+ * With --embedded, the server is started in this process against simulated devices, so the whole thing runs on any machine:<br/>
+ * <i>java serial.sim.LoadGenerator --embedded --clients=50 --seconds=30 --target=0:gs232a,latency=20 --target=1:ts2000</i><br/>
+ * <br/>
+ * Options:
+ * <ul>
+ * <li><b>--host=HOST</b>, <b>--port=PORT</b> - the server to connect to (localhost:2809)
+ * <li><b>--user=USER</b>, <b>--password=PASSWORD</b> - the login to use
+ * <li><b>--clients=N</b> - the number of clients (10), spread evenly over the targets
+ * <li><b>--seconds=N</b> - how long to run for (10)
+ * <li><b>--interval=MS</b> - how long each client waits between requests (0: send the next as soon as the last is answered)
+ * <li><b>--timeout=MS</b> - how long to wait for a response before counting it as lost (5000)
+ * <li><b>--target=SERIALPORT:DEVICE</b> - a serial port to poll, and the device on it (gs232a, ts2000 or osboard). May be given more
+ * than once (0:gs232a). With --embedded, the rest of the device spec sets up the simulator, e.g. 0:gs232a,latency=20,drop=0.01.
+ * <li><b>--embedded</b> - start the server in this process, with a simulated device on each target's serial port
+ * <li><b>--nio=N</b> - with --embedded, run the server on N event loops instead of a thread per client
+ * </ul>
+ *
+ * @author Adam Campbell
+ */
+public class LoadGenerator {
+	/**
+	 * A serial port being polled, and the results for it
+	 */
+	private static class Target {
+		private final int serialPortNum;
+		private final String deviceSpec;
+		private final String query;
+
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final Histogram latency = new Histogram();
+
+		public Target(String spec) {
+			int colon = spec.indexOf(':');
+			if (colon != 1 || !Character.isDigit(spec.charAt(0))) {
+				throw new IllegalArgumentException("Invalid target, should be like 0:gs232a - " + spec);
+			}
+
+			this.serialPortNum = spec.charAt(0) - '0';
+			this.deviceSpec = spec.substring(colon + 1);
+			this.query = getQuery(deviceSpec.split(",")[0].trim());
+		}
+	}
+
+	private String host = "localhost";
+	private int port = 2809;
+	private String user = "loadgen";
+	private String password = "loadgen";
+	private int nClients = 10;
+	private int seconds = 10;
+	private long intervalMillis = 0;
+	private long timeoutMillis = 5000;
+	private boolean embedded = false;
+	private int nEventLoops = 0;
+	private final List<Target> targets = new ArrayList<Target>();
+
+	/**
+	 * Get the command that polls a device, as a text mode client writes it
+	 *
+	 * @param device
+	 *            The device type
+	 * @return The command
+	 */
+	public static String getQuery(String device) {
+		if (device.equalsIgnoreCase("gs232a")) {
+			return "C2\\r\n";
+		} else if (device.equalsIgnoreCase("ts2000")) {
+			return "FA;\n";
+		} else if (device.equalsIgnoreCase("osboard")) {
+			return "!QUERY,POW_PANEL,X,A0$\n";
+		} else {
+			throw new IllegalArgumentException("Unknown device: " + device);
+		}
+	}
+
+	/**
+	 * Start the embedded server on simulated devices, and wait until it's accepting clients
+	 */
+	private void startEmbeddedServer() throws IOException, InterruptedException {
+		int nPorts = 0;
+		for (Target target : targets) {
+			nPorts = Math.max(nPorts, target.serialPortNum + 1);
+		}
+
+		final String[] portNames = new String[nPorts];
+		for (Target target : targets) {
+			portNames[target.serialPortNum] = target.deviceSpec;
+		}
+		for (int i = 0; i < nPorts; i++) {
+			if (portNames[i] == null) {
+				throw new IllegalArgumentException("No device given for serial port " + i);
+			}
+		}
+
+		final File whiteList = File.createTempFile("loadgen-whitelist", ".txt");
+		whiteList.deleteOnExit();
+		PrintWriter writer = new PrintWriter(whiteList);
+		writer.println(user + "," + password);
+		writer.close();
+
+		final SerialServer server = new SerialServer(port);
+		server.setTransportFactory(new SimulatorTransportFactory());
+		server.setEventLoopCount(nEventLoops);
+		Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.startServer(whiteList.getPath(), portNames);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, "EmbeddedSerialServer");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			try {
+				Socket socket = new Socket();
+				socket.connect(new InetSocketAddress(host, port), 100);
+				socket.close();
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > deadline || !serverThread.isAlive()) {
+					throw new IOException("Embedded server didn't start", e);
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Run the load test and print the results
+	 */
+	public void run() throws IOException, InterruptedException {
+		if (targets.isEmpty()) {
+			targets.add(new Target("0:gs232a"));
+		}
+		if (embedded) {
+			startEmbeddedServer();
+		}
+
+		// Connect all the clients before starting, so the measurement doesn't include logging in
+		List<SerialTCPClient> clients = new ArrayList<SerialTCPClient>();
+		for (int i = 0; i < nClients; i++) {
+			Target target = targets.get(i % targets.size());
+			SerialTCPClient client = new SerialTCPClient(host, port, user, password, target.serialPortNum);
+			if (client.getState() != SerialTCPClient.State.ALIVE) {
+				throw new IOException("Client #" + i + " couldn't connect");
+			}
+			clients.add(client);
+		}
+
+		final long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final CountDownLatch done = new CountDownLatch(nClients);
+		for (int i = 0; i < nClients; i++) {
+			final Target target = targets.get(i % targets.size());
+			final SerialTCPClient client = clients.get(i);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.nanoTime() < endTime) {
+							poll(client, target);
+							if (intervalMillis > 0) {
+								Thread.sleep(intervalMillis);
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "LoadClient-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		done.await();
+		printResults();
+
+		for (SerialTCPClient client : clients) {
+			client.die();
+		}
+	}
+
+	/**
+	 * Send a query and wait for the response, recording how long it took
+	 */
+	private void poll(SerialTCPClient client, Target target) throws InterruptedException {
+		target.requests.incrementAndGet();
+		long start = System.nanoTime();
+		try {
+			client.request(target.query, timeoutMillis, TimeUnit.MILLISECONDS).get();
+			target.latency.record((System.nanoTime() - start) / 1000);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				target.timeouts.incrementAndGet();
+			} else {
+				target.errors.incrementAndGet();
+			}
+		}
+	}
+
+	private void printResults() {
+		System.out.println();
+		System.out.println(String.format("%d clients, %d s, interval %d ms", nClients, seconds, intervalMillis));
+		System.out.println(String.format("%-28s %9s %9s %9s %9s %9s %9s %9s %9s %9s", "target", "requests", "timeouts", "errors",
+				"req/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+		for (Target target : targets) {
+			Histogram latency = target.latency;
+			System.out.println(String.format("%-28s %9d %9d %9d %9.1f %9d %9d %9d %9d %9d", target.serialPortNum + ":"
+					+ target.deviceSpec, target.requests.get(), target.timeouts.get(), target.errors.get(), latency.getCount()
+					/ (double) seconds, latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(99),
+					latency.getPercentile(99.9), latency.getMax()));
+		}
+	}
+
+	public static void main(String[] args) {
+		LoadGenerator generator = new LoadGenerator();
+		try {
+			for (String arg : args) {
+				String value = arg.indexOf('=') >= 0 ? arg.substring(arg.indexOf('=') + 1) : null;
+				if (arg.startsWith("--host=")) {
+					generator.host = value;
+				} else if (arg.startsWith("--port=")) {
+					generator.port = Integer.parseInt(value);
+				} else if (arg.startsWith("--user=")) {
+					generator.user = value;
+				} else if (arg.startsWith("--password=")) {
+					generator.password = value;
+				} else if (arg.startsWith("--clients=")) {
+					generator.nClients = Integer.parseInt(value);
+				} else if (arg.startsWith("--seconds=")) {
+					generator.seconds = Integer.parseInt(value);
+				} else if (arg.startsWith("--interval=")) {
+					generator.intervalMillis = Long.parseLong(value);
+				} else if (arg.startsWith("--timeout=")) {
+					generator.timeoutMillis = Long.parseLong(value);
+				} else if (arg.startsWith("--target=")) {
+					generator.targets.add(new Target(value));
+				} else if (arg.startsWith("--nio=")) {
+					generator.nEventLoops = Integer.parseInt(value);
+				} else if (arg.equals("--embedded")) {
+					generator.embedded = true;
+				} else {
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			}
+
+			generator.run();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+}
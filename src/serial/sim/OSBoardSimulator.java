@@ -0,0 +1,65 @@
+package serial.sim;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Simulates the satellite's OS board.<br/>
+ * <br/>
+ * Supported queries, each like <i>!QUERY,NAME,...,TAG$</i>:
+ * <ul>
+ * <li><b>!QUERY,HELLO,TAG$</b> - answered with <i>!RESPONSE,HELLO,TAG$</i>
+ * <li><b>!QUERY,POW_PANEL,AXIS,TAG$</b> - answered with <i>!RESPONSE,AXIS,VOLTAGE,-CURRENT,+CURRENT,0,TAG$</i>, with made up readings
+ * </ul>
+ * Anything else is answered with <i>!ERROR,UNKNOWN,TAG$</i>. The tag is echoed back, so responses can be matched to queries.
+ * 
+ * @author Adam Campbell
+ */
+public class OSBoardSimulator extends SimulatedDevice {
+	private final Random random;
+
+	/**
+	 * Construct an OS board simulator whose readings are always the same sequence
+	 */
+	public OSBoardSimulator() {
+		this(0);
+	}
+
+	/**
+	 * Construct an OS board simulator
+	 * 
+	 * @param seed
+	 *            The seed for the made up readings
+	 */
+	public OSBoardSimulator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	@Override
+	public String getDelimiters() {
+		return "$";
+	}
+
+	@Override
+	public synchronized String respond(String command) {
+		String cmd = command.trim();
+		if (cmd.endsWith("$")) {
+			cmd = cmd.substring(0, cmd.length() - 1);
+		}
+
+		String[] fields = cmd.split(",");
+		String tag = fields.length > 1 ? fields[fields.length - 1] : "";
+		if (!fields[0].equals("!QUERY") || fields.length < 3) {
+			return "!ERROR,UNKNOWN," + tag + "$";
+		}
+
+		if (fields[1].equals("HELLO") && fields.length == 3) {
+			return "!RESPONSE,HELLO," + tag + "$";
+		} else if (fields[1].equals("POW_PANEL") && fields.length == 4 && fields[2].matches("[XYZ]")) {
+			return String.format(Locale.US, "!RESPONSE,%s,%.2f,%.2f,%.2f,0,%s$", fields[2], 4.5 + random.nextDouble(), random.nextDouble() / 2,
+					random.nextDouble() / 2, tag);
+		} else {
+			return "!ERROR,UNKNOWN," + tag + "$";
+		}
+	}
+}
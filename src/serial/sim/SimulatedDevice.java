@@ -0,0 +1,42 @@
+package serial.sim;
+
+/**
+ * A device on the far end of a simulated serial port. The port splits what's written to it into commands and hands them to the device one
+ * at a time, and whatever the device answers is sent back.
+ * 
+ * @author Adam Campbell
+ */
+public abstract class SimulatedDevice {
+	/**
+	 * @return The characters that end a command
+	 */
+	public abstract String getDelimiters();
+
+	/**
+	 * Handle a command
+	 * 
+	 * @param command
+	 *            The command, including its delimiter
+	 * @return The response, or null if the command doesn't get one
+	 */
+	public abstract String respond(String command);
+
+	/**
+	 * Create a simulated device by name
+	 * 
+	 * @param type
+	 *            The device type: gs232a (the antenna rotator), ts2000 (the radio) or osboard
+	 * @return The device
+	 */
+	public static SimulatedDevice create(String type) {
+		if (type.equalsIgnoreCase("gs232a")) {
+			return new GS232ASimulator();
+		} else if (type.equalsIgnoreCase("ts2000")) {
+			return new TS2000Simulator();
+		} else if (type.equalsIgnoreCase("osboard")) {
+			return new OSBoardSimulator();
+		} else {
+			throw new IllegalArgumentException("Unknown simulated device: " + type);
+		}
+	}
+}
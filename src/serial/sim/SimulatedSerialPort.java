@@ -0,0 +1,369 @@
+package serial.sim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import serial.server.SerialFramer;
+import serial.transport.SerialTransport;
+
+/**
+ * A serial port with a simulated device on the other end, entirely in memory.<br/>
+ * <br/>
+ * Bytes written to the port take as long to go out as they would at the port's baud rate (10 bits a byte, for 8N1). Once a whole
+ * command has gone out, the device answers it after the port's latency, and the answer comes back at the baud rate too, a few bytes at
+ * a time like a real port. To test error handling, a fraction of the answers can be dropped, or have a bit flipped.
+ * 
+ * @author Adam Campbell
+ */
+public class SimulatedSerialPort implements SerialTransport {
+	/**
+	 * The bits on the wire for each byte: a start bit, 8 data bits and a stop bit
+	 */
+	public static final int BITS_PER_BYTE = 10;
+
+	/**
+	 * A command that has been written, and when it finished arriving
+	 */
+	private static class Command {
+		private final String data;
+		private final long arrivedAt;
+
+		public Command(String data, long arrivedAt) {
+			this.data = data;
+			this.arrivedAt = arrivedAt;
+		}
+	}
+
+	/**
+	 * A command that tells the device thread to stop
+	 */
+	private static final Command CLOSE = new Command(null, 0);
+
+	private final String name;
+	private final SimulatedDevice device;
+
+	private volatile int baudRate;
+	private volatile long latencyNanos = 0;
+	private volatile double dropRate = 0;
+	private volatile double corruptRate = 0;
+	private final Random random = new Random(0);
+
+	private final BlockingQueue<Command> commands = new LinkedBlockingQueue<Command>();
+	private final DeviceOutputStream out;
+	private final DeviceInputStream in;
+	private final Thread deviceThread;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Counts of the commands the device got, and the responses it gave, dropped and corrupted
+	 */
+	private final AtomicLong commandCount = new AtomicLong();
+	private final AtomicLong responseCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong corruptedCount = new AtomicLong();
+
+	/**
+	 * Construct a simulated serial port and start its device
+	 * 
+	 * @param name
+	 *            The port's name
+	 * @param device
+	 *            The device on the other end
+	 * @param baudRate
+	 *            The baud rate, or 0 for no limit
+	 */
+	public SimulatedSerialPort(String name, SimulatedDevice device, int baudRate) {
+		if (device == null) {
+			throw new IllegalArgumentException("Device cannot be null!");
+		}
+
+		this.name = name;
+		this.device = device;
+		setBaudRate(baudRate);
+		out = new DeviceOutputStream();
+		in = new DeviceInputStream();
+
+		deviceThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runDevice();
+			}
+		}, "SimulatedDevice-" + name);
+		deviceThread.setDaemon(true);
+		deviceThread.start();
+	}
+
+	/**
+	 * @param baudRate
+	 *            The baud rate to throttle the port to, or 0 for no limit
+	 */
+	public void setBaudRate(int baudRate) {
+		if (baudRate < 0) {
+			throw new IllegalArgumentException("Invalid baud rate: " + baudRate);
+		}
+		this.baudRate = baudRate;
+	}
+
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	/**
+	 * @param latencyMillis
+	 *            How long the device takes to answer a command, in ms
+	 */
+	public void setLatency(long latencyMillis) {
+		if (latencyMillis < 0) {
+			throw new IllegalArgumentException("Invalid latency: " + latencyMillis);
+		}
+		this.latencyNanos = latencyMillis * 1000000L;
+	}
+
+	public long getLatency() {
+		return latencyNanos / 1000000L;
+	}
+
+	/**
+	 * Set how often responses go wrong
+	 * 
+	 * @param dropRate
+	 *            The fraction of responses that are lost
+	 * @param corruptRate
+	 *            The fraction of responses that have a bit flipped
+	 */
+	public void setErrorRates(double dropRate, double corruptRate) {
+		if (dropRate < 0 || dropRate > 1 || corruptRate < 0 || corruptRate > 1) {
+			throw new IllegalArgumentException("Error rates must be between 0 and 1!");
+		}
+		this.dropRate = dropRate;
+		this.corruptRate = corruptRate;
+	}
+
+	public SimulatedDevice getDevice() {
+		return device;
+	}
+
+	public long getCommandCount() {
+		return commandCount.get();
+	}
+
+	public long getResponseCount() {
+		return responseCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getCorruptedCount() {
+		return corruptedCount.get();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			commands.offer(CLOSE);
+			in.close();
+		}
+	}
+
+	/**
+	 * Answer commands as they arrive, until the port is closed
+	 */
+	private void runDevice() {
+		Pacer pacer = new Pacer();
+		while (true) {
+			Command command;
+			try {
+				command = commands.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (command == CLOSE) {
+				return;
+			}
+
+			commandCount.incrementAndGet();
+			long wait = command.arrivedAt + latencyNanos - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			String response = device.respond(command.data);
+			if (response == null || response.isEmpty()) {
+				continue;
+			}
+
+			byte[] bytes = response.getBytes(SerialFramer.CHARSET);
+			synchronized (random) {
+				if (random.nextDouble() < dropRate) {
+					droppedCount.incrementAndGet();
+					continue;
+				}
+				if (random.nextDouble() < corruptRate) {
+					bytes[random.nextInt(bytes.length)] ^= 1 << random.nextInt(8);
+					corruptedCount.incrementAndGet();
+				}
+			}
+
+			// Send the response back a chunk at a time, as fast as the baud rate allows
+			int chunk = Math.max(1, baudRate / BITS_PER_BYTE / 1000);
+			for (int offset = 0; offset < bytes.length && !closed; offset += chunk) {
+				int length = Math.min(chunk, bytes.length - offset);
+				pacer.pace(length);
+				in.append(bytes, offset, length);
+			}
+			responseCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Holds bytes back to the baud rate
+	 */
+	private class Pacer {
+		/**
+		 * When the line is next free, in ns
+		 */
+		private long nextFree = System.nanoTime();
+
+		/**
+		 * Wait until the given number of bytes would have gone over the line
+		 * 
+		 * @param nBytes
+		 *            The number of bytes
+		 */
+		public void pace(int nBytes) {
+			int baud = baudRate;
+			if (baud == 0) {
+				return;
+			}
+
+			long now = System.nanoTime();
+			nextFree = Math.max(nextFree, now) + nBytes * BITS_PER_BYTE * 1000000000L / baud;
+			long wait = nextFree - now;
+			while (wait > 0) {
+				LockSupport.parkNanos(wait);
+				wait = nextFree - System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * The bytes written to the port, split into commands for the device
+	 */
+	private class DeviceOutputStream extends OutputStream {
+		private final Pacer pacer = new Pacer();
+
+		private final SerialFramer framer = new SerialFramer(device.getDelimiters(), new SerialFramer.FrameListener() {
+			@Override
+			public void frameReceived(byte[] buffer, int offset, int length) {
+				commands.offer(new Command(SerialFramer.toString(buffer, offset, length), System.nanoTime()));
+			}
+		});
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("Port closed: " + name);
+			}
+
+			pacer.pace(len);
+			framer.feed(b, off, len);
+		}
+	}
+
+	/**
+	 * The bytes the device has sent back. Reads block until there are some.
+	 */
+	private class DeviceInputStream extends InputStream {
+		private byte[] buffer = new byte[256];
+		private int start = 0;
+		private int length = 0;
+
+		public synchronized void append(byte[] data, int offset, int count) {
+			if (start + length + count > buffer.length) {
+				if (length + count > buffer.length) {
+					byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + count)];
+					System.arraycopy(buffer, start, newBuffer, 0, length);
+					buffer = newBuffer;
+				} else {
+					System.arraycopy(buffer, start, buffer, 0, length);
+				}
+				start = 0;
+			}
+
+			System.arraycopy(data, offset, buffer, start + length, count);
+			length += count;
+			notifyAll();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			while (length == 0) {
+				if (closed) {
+					throw new IOException("Port closed: " + name);
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted reading " + name);
+				}
+			}
+
+			int n = Math.min(len, length);
+			System.arraycopy(buffer, start, b, off, n);
+			start += n;
+			length -= n;
+			return n;
+		}
+
+		@Override
+		public synchronized int available() {
+			return length;
+		}
+
+		@Override
+		public synchronized void close() {
+			notifyAll();
+		}
+	}
+}
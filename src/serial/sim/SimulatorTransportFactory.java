@@ -0,0 +1,73 @@
+package serial.sim;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import serial.transport.SerialTransportFactory;
+
+/**
+ * Opens simulated serial ports instead of real ones. The port name says which device to simulate and how, like
+ * <i>gs232a,latency=20,drop=0.01</i>:
+ * <ul>
+ * <li>The device: <b>gs232a</b>, <b>ts2000</b> or <b>osboard</b>
+ * <li><b>baud=N</b> - the baud rate to throttle to, 0 for no limit (by default, the baud rate the port is opened at)
+ * <li><b>latency=MS</b> - how long the device takes to answer
+ * <li><b>drop=FRACTION</b> - the fraction of answers that are lost
+ * <li><b>corrupt=FRACTION</b> - the fraction of answers that have a bit flipped
+ * </ul>
+ * 
+ * @author Adam Campbell
+ */
+public class SimulatorTransportFactory implements SerialTransportFactory {
+	/**
+	 * Every port opened so far
+	 */
+	private final List<SimulatedSerialPort> ports = new CopyOnWriteArrayList<SimulatedSerialPort>();
+
+	@Override
+	public SimulatedSerialPort open(String portName, int baudRate) {
+		if (portName == null) {
+			throw new IllegalArgumentException("Port Name must not be null!");
+		}
+
+		String[] fields = portName.split(",");
+		SimulatedDevice device = SimulatedDevice.create(fields[0].trim());
+
+		long latency = 0;
+		double dropRate = 0;
+		double corruptRate = 0;
+		for (int i = 1; i < fields.length; i++) {
+			String[] option = fields[i].split("=", 2);
+			if (option.length != 2) {
+				throw new IllegalArgumentException("Invalid simulator option: " + fields[i]);
+			}
+
+			String key = option[0].trim();
+			String value = option[1].trim();
+			if (key.equals("baud")) {
+				baudRate = Integer.parseInt(value);
+			} else if (key.equals("latency")) {
+				latency = Long.parseLong(value);
+			} else if (key.equals("drop")) {
+				dropRate = Double.parseDouble(value);
+			} else if (key.equals("corrupt")) {
+				corruptRate = Double.parseDouble(value);
+			} else {
+				throw new IllegalArgumentException("Unknown simulator option: " + key);
+			}
+		}
+
+		SimulatedSerialPort port = new SimulatedSerialPort(portName, device, baudRate);
+		port.setLatency(latency);
+		port.setErrorRates(dropRate, corruptRate);
+		ports.add(port);
+		return port;
+	}
+
+	/**
+	 * @return Every port opened so far
+	 */
+	public List<SimulatedSerialPort> getPorts() {
+		return ports;
+	}
+}
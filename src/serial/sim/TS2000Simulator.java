@@ -0,0 +1,83 @@
+package serial.sim;
+
+/**
+ * Simulates the CAT interface of a Kenwood TS-2000 radio.<br/>
+ * <br/>
+ * Supported commands, each ended by a semicolon:
+ * <ul>
+ * <li><b>FA;</b> / <b>FB;</b> / <b>FC;</b> - get VFO A / B / C's frequency, answered with <i>FAnnnnnnnnnnn;</i> (11 digits, in Hz)
+ * <li><b>FAnnnnnnnnnnn;</b> (and FB, FC) - set a VFO's frequency
+ * <li><b>TC 0;</b> / <b>TC 1;</b> - switch to packet / status mode
+ * <li><b>TC;</b> - get the mode, answered with <i>TC n;</i>
+ * </ul>
+ * Anything else is answered with <i>?;</i>. In packet mode the radio's TNC has the port, so only <b>TC 1;</b> gets through.
+ * 
+ * @author Adam Campbell
+ */
+public class TS2000Simulator extends SimulatedDevice {
+	/**
+	 * The frequencies each VFO starts on, in Hz
+	 */
+	public static final long DEFAULT_FREQUENCY = 145000000L;
+
+	private final long[] frequencies = { DEFAULT_FREQUENCY, DEFAULT_FREQUENCY, DEFAULT_FREQUENCY };
+
+	private boolean packetMode = false;
+
+	/**
+	 * Get a VFO's frequency
+	 * 
+	 * @param vfo
+	 *            'A', 'B' or 'C'
+	 * @return The frequency, in Hz
+	 */
+	public synchronized long getFrequency(char vfo) {
+		return frequencies[vfo - 'A'];
+	}
+
+	public synchronized boolean isPacketMode() {
+		return packetMode;
+	}
+
+	@Override
+	public String getDelimiters() {
+		return ";";
+	}
+
+	@Override
+	public synchronized String respond(String command) {
+		String cmd = command.trim();
+		if (cmd.endsWith(";")) {
+			cmd = cmd.substring(0, cmd.length() - 1).trim();
+		}
+
+		if (cmd.startsWith("TC")) {
+			String arg = cmd.substring(2).trim();
+			if (arg.isEmpty()) {
+				return String.format("TC %d;", packetMode ? 0 : 1);
+			} else if (arg.equals("0") || arg.equals("1")) {
+				packetMode = arg.equals("0");
+				return null;
+			}
+			return "?;";
+		} else if (packetMode) {
+			return null;
+		} else if (cmd.length() >= 2 && cmd.charAt(0) == 'F' && cmd.charAt(1) >= 'A' && cmd.charAt(1) <= 'C') {
+			int vfo = cmd.charAt(1) - 'A';
+			String arg = cmd.substring(2);
+			if (arg.isEmpty()) {
+				return String.format("F%c%011d;", cmd.charAt(1), frequencies[vfo]);
+			} else if (arg.length() == 11) {
+				try {
+					frequencies[vfo] = Long.parseLong(arg);
+					return null;
+				} catch (NumberFormatException e) {
+					return "?;";
+				}
+			}
+			return "?;";
+		} else {
+			return "?;";
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package serial.transport;
+
+import gnu.io.CommPort;
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.UnsupportedCommOperationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Opens real serial ports through RXTX, 8 data bits, 1 stop bit and no parity
+ * 
+ * @author Adam Campbell
+ */
+public class RXTXTransportFactory implements SerialTransportFactory {
+	/**
+	 * How long to wait for a port that's in use, in ms
+	 */
+	public static final int OPEN_TIMEOUT = 2000;
+
+	/**
+	 * Open a serial port
+	 * 
+	 * @param portName
+	 *            The name of the serial port [COM3, /dev/ttyUSB0, etc.]
+	 * @param baudRate
+	 *            The baud rate
+	 * @return The open port
+	 * @throws NoSuchPortException
+	 *             If there's no such port
+	 * @throws PortInUseException
+	 *             If another program has the port open
+	 * @throws UnsupportedCommOperationException
+	 *             If the port doesn't support the settings
+	 * @throws IOException
+	 *             If the port isn't a serial port
+	 */
+	@Override
+	public SerialTransport open(final String portName, int baudRate) throws NoSuchPortException, PortInUseException,
+			UnsupportedCommOperationException, IOException {
+		if (portName == null) {
+			throw new IllegalArgumentException("Port Name must not be null!");
+		}
+
+		CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(portName);
+		if (portIdentifier.isCurrentlyOwned()) {
+			throw new PortInUseException();
+		}
+
+		CommPort commPort = portIdentifier.open(getClass().getName(), OPEN_TIMEOUT);
+		if (!(commPort instanceof SerialPort)) {
+			commPort.close();
+			throw new IOException(portName + " is not a serial port!");
+		}
+
+		final SerialPort serialPort = (SerialPort) commPort;
+		serialPort.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+
+		return new SerialTransport() {
+			@Override
+			public String getName() {
+				return portName;
+			}
+
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return serialPort.getInputStream();
+			}
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				return serialPort.getOutputStream();
+			}
+
+			@Override
+			public void close() {
+				serialPort.close();
+			}
+		};
+	}
+}
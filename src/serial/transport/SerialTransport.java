@@ -0,0 +1,32 @@
+package serial.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An open serial link to a device - a real serial port, or a simulated device
+ * 
+ * @author Adam Campbell
+ */
+public interface SerialTransport {
+	/**
+	 * @return The name the link was opened with, like COM4 or /dev/ttyUSB0
+	 */
+	String getName();
+
+	/**
+	 * @return The stream of bytes coming from the device. Reads block until there's data.
+	 */
+	InputStream getInputStream() throws IOException;
+
+	/**
+	 * @return The stream of bytes going to the device
+	 */
+	OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Close the link, releasing the port
+	 */
+	void close();
+}
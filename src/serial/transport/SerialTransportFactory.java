@@ -0,0 +1,21 @@
+package serial.transport;
+
+/**
+ * Opens serial links by name, so the server can run against real serial ports or simulated devices
+ * 
+ * @author Adam Campbell
+ */
+public interface SerialTransportFactory {
+	/**
+	 * Open a serial link
+	 * 
+	 * @param portName
+	 *            The name of the port, e.g. COM4
+	 * @param baudRate
+	 *            The baud rate to open it at
+	 * @return The open link
+	 * @throws Exception
+	 *             If the port doesn't exist, is in use, or can't be opened
+	 */
+	SerialTransport open(String portName, int baudRate) throws Exception;
+}
@@ -6,27 +6,29 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JOptionPane;
 
 import orbits.CelestrakSatellite;
 import orbits.CommandSet;
+import orbits.PassCache;
+import orbits.PassScheduler;
+import orbits.PassScheduler.Conflict;
+import orbits.PassScheduler.Schedule;
+import orbits.PassScheduler.ScheduledPass;
+import orbits.PassTrajectory;
+import orbits.RotatorSetpoints;
 import orbits.SatellitePass;
 import orbits.TLEInfoPage;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
-
 import uk.me.g4dpz.satellite.GroundStationPosition;
 import uk.me.g4dpz.satellite.InvalidTleException;
-import uk.me.g4dpz.satellite.PassPredictor;
 import uk.me.g4dpz.satellite.SatNotFoundException;
 import uk.me.g4dpz.satellite.SatPassTime;
-import uk.me.g4dpz.satellite.SatPos;
 import uk.me.g4dpz.satellite.TLE;
 
 public class SatelliteUtils {
@@ -40,48 +42,30 @@ public class SatelliteUtils {
 
 	private static boolean initialized = false;
 
+	/**
+	 * Passes that have already been predicted, so the GUI can refresh without re-running the predictor
+	 */
+	private static PassCache passCache = new PassCache(PassCache.DEFAULT_CAPACITY);
+
 	public static void main(String[] args) throws FileNotFoundException, MalformedURLException, URISyntaxException,
 			IllegalArgumentException, InvalidTleException, SatNotFoundException {
 		init();
 
-		List<Pair<CelestrakSatellite, SatPassTime>> passList = new ArrayList<Pair<CelestrakSatellite, SatPassTime>>();
-
-		for (CelestrakSatellite sat : satellites) {
-			TLE tle = sat.getTLE();
+		GroundStationPosition ames = new GroundStationPosition(AMES_LATITUDE, AMES_LONGITUDE, AMES_ELEVATION_METERS);
+		Date now = new Date();
+		Date end = new Date(now.getTime() + TimeUnit.DAYS.toMillis(1));
+		PassScheduler scheduler = new PassScheduler(PassScheduler.getTLEs(satellites), Collections.singletonList(ames), now, end, MIN_ELEV);
+		Schedule schedule = scheduler.schedule();
 
-			GroundStationPosition ames = new GroundStationPosition(AMES_LATITUDE, AMES_LONGITUDE, AMES_ELEVATION_METERS);
-			PassPredictor pp = new PassPredictor(tle, ames);
-			SatPassTime spt = pp.nextSatPass(new Date());
-			passList.add(new ImmutablePair<CelestrakSatellite, SatPassTime>(sat, spt));
+		System.out.println("Got Satellites! Passes in the next day:");
+		for (ScheduledPass pass : schedule.getPasses()) {
+			System.out.println(pass);
 		}
 
-		System.out.println("Got Satellites! Sorting...");
-
-		// // Sort by next pass time
-		// Collections.sort(passList, new Comparator<Pair<CelestrakSatellite, SatPassTime>>(){
-		// @Override
-		// public int compare(Pair<CelestrakSatellite, SatPassTime> o1, Pair<CelestrakSatellite, SatPassTime> o2){
-		// long t1 = o1.getRight().getStartTime().getTime();
-		// long t2 = o2.getRight().getStartTime().getTime();
-		// return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
-		// }
-		// });
-
-		// Sort by next pass time
-		Collections.sort(passList, new Comparator<Pair<CelestrakSatellite, SatPassTime>>() {
-			@Override
-			public int compare(Pair<CelestrakSatellite, SatPassTime> o1, Pair<CelestrakSatellite, SatPassTime> o2) {
-				double e1 = o1.getRight().getMaxEl();
-				double e2 = o2.getRight().getMaxEl();
-				return e1 < e2 ? -1 : e1 == e2 ? 0 : 1;
-			}
-		});
-
-		for (Pair<CelestrakSatellite, SatPassTime> pass : passList) {
-			System.out.println();
-			System.out.println("For satellite: " + pass.getLeft().getSatName());
-			System.out.println();
-			System.out.println(pass.getRight());
+		System.out.println();
+		System.out.println("Conflicts:");
+		for (Conflict conflict : schedule.getConflicts()) {
+			System.out.println(conflict);
 		}
 	}
 
@@ -171,44 +155,69 @@ public class SatelliteUtils {
 		}
 
 		try {
-			SatellitePass satPass = new SatellitePass();
-			satPass.setSatellite(satellite);
-
 			GroundStationPosition ames = new GroundStationPosition(SatelliteUtils.AMES_LATITUDE, SatelliteUtils.AMES_LONGITUDE,
 					SatelliteUtils.AMES_ELEVATION_METERS);
 
-			PassPredictor pp = new PassPredictor(tle, ames);
-			SatPassTime spt = null;
-			do {
-				spt = pp.nextSatPass(date);
-				date = new Date(spt.getEndTime().getTime() + 1000L); // 1s past end of previous pass
-			} while (spt.getMaxEl() < minElev);
-
-			satPass.setGroundStation(ames);
-			satPass.setSatPassTime(spt);
-
-			satPass.setTimeStep(timeStep);
-
-			List<SatPos> passPoints = pp.getPositions(spt.getStartTime(), timeStep, 0, (int) ((spt.getEndTime().getTime() - spt
-					.getStartTime().getTime()) / 1000 / 60));
-			satPass.setPassPoints(passPoints, true);
-
-			return satPass;
+			return passCache.getNextPass(satellite, tle, ames, date, minElev, timeStep);
 		} catch (Exception e) {
 			return null;
 		}
 	}
 
-	public static CommandSet getRotatorCommandSet(List<SatPos> list, long baseTime, int timeStep) {
+	/**
+	 * @return The cache of predicted passes
+	 */
+	public static PassCache getPassCache() {
+		return passCache;
+	}
+
+	/**
+	 * Build the rotator commands for a pass, one every timeStep seconds from baseTime. The trajectory doesn't need to be evenly spaced - the
+	 * position at each step is interpolated between the samples either side of it.
+	 * 
+	 * @param trajectory
+	 *            The pass trajectory
+	 * @param baseTime
+	 *            The time of the first command
+	 * @param timeStep
+	 *            The time between commands, in seconds
+	 * @return The commands
+	 * @deprecated Use getRotatorSetpoints(), which keeps the positions as numbers with their GS-232A commands already encoded, and drops
+	 *             moves too small to matter
+	 */
+	@Deprecated
+	public static CommandSet getRotatorCommandSet(PassTrajectory trajectory, long baseTime, int timeStep) {
 		CommandSet cmdSet = new CommandSet(new Date(baseTime), timeStep);
+		if (trajectory.isEmpty()) {
+			return cmdSet;
+		}
 
-		for (SatPos satPos : list) {
-			cmdSet.add(String.format("%03d %03.0f", (int) ((satPos.getAzimuth() + 180) % 360), satPos.getElevation()));
+		long endTime = trajectory.getEndTime();
+		for (long time = baseTime; time <= endTime; time += timeStep * 1000L) {
+			double az = trajectory.getAzimuthAt(time);
+			double el = trajectory.getElevationAt(time);
+			cmdSet.add(String.format("%03d %03.0f", (int) ((az + 180) % 360), el));
 		}
 
 		return cmdSet;
 	}
 
+	/**
+	 * Compile the rotator setpoints for a pass, sampled every timeStep seconds from baseTime, with the default deadband and the pass flipped
+	 * if it would cross the rotator's end stop
+	 * 
+	 * @param trajectory
+	 *            The pass trajectory
+	 * @param baseTime
+	 *            The time of the first setpoint
+	 * @param timeStep
+	 *            The time between samples, in seconds
+	 * @return The setpoints
+	 */
+	public static RotatorSetpoints getRotatorSetpoints(PassTrajectory trajectory, long baseTime, int timeStep) {
+		return new RotatorSetpoints.Compiler().compile(trajectory, baseTime, timeStep);
+	}
+
 	public static int getDuration(SatPassTime spt) {
 		return (int) ((spt.getEndTime().getTime() - spt.getStartTime().getTime()) / 1000.0);
 	}